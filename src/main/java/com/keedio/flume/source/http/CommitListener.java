@@ -0,0 +1,25 @@
+package com.keedio.flume.source.http;
+
+/**
+ * <p>
+ * Told when the events a handler returned for a request are in the channel. Handlers that need to know it put one
+ * in the request attributes under {@link #REQUEST_ATTRIBUTE}; {@link KeedioHTTPSource} calls it once the events
+ * are committed and the request is about to be answered with <code>200 OK</code>, and never if the request
+ * fails.
+ * </p>
+ * <p>
+ * Sub-batches delivered through an {@link EventBatchSink} are committed once the sink returns, they are not
+ * reported here.
+ * </p>
+ */
+public interface CommitListener {
+    /**
+     * Name of the request attribute holding the listener.
+     */
+    String REQUEST_ATTRIBUTE = CommitListener.class.getName();
+
+    /**
+     * Called once the events returned by the handler are committed to the channel.
+     */
+    void committed();
+}
@@ -0,0 +1,33 @@
+package com.keedio.flume.source.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>
+ * Compressed body of a request kept as it was sent. {@link KeedioHTTPSource} does not inflate the bodies of the
+ * requests configured for compressed passthrough, it puts one of these in their attributes under
+ * {@link #REQUEST_ATTRIBUTE} instead, and the request input holds the compressed bytes.
+ * </p>
+ * <p>
+ * Handlers finding one should store the bytes as they are, they may still inflate them to look at them.
+ * </p>
+ */
+public interface CompressedBody {
+    /**
+     * Name of the request attribute holding the body.
+     */
+    String REQUEST_ATTRIBUTE = CompressedBody.class.getName();
+
+    /**
+     * @return the <code>Content-Encoding</code> of the request.
+     */
+    String getEncoding();
+
+    /**
+     * @param compressed the compressed bytes of the body.
+     * @return the inflated body, within the inflate limits of the source.
+     * @throws IOException if the body cannot be read.
+     */
+    InputStream decode(InputStream compressed) throws IOException;
+}
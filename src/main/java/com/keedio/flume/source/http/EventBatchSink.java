@@ -0,0 +1,31 @@
+package com.keedio.flume.source.http;
+
+import org.apache.flume.Event;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Destination of the events of a request delivered in sub-batches while the request is still being read. The
+ * source puts one in the request attributes under {@link #REQUEST_ATTRIBUTE}; handlers that find it may hand over
+ * their events as they go instead of returning them all at the end.
+ * </p>
+ * <p>
+ * A sub-batch is committed to the channel once {@link #process(List)} returns, whatever happens to the rest of the
+ * request.
+ * </p>
+ */
+public interface EventBatchSink {
+    /**
+     * Name of the request attribute holding the sink.
+     */
+    String REQUEST_ATTRIBUTE = EventBatchSink.class.getName();
+
+    /**
+     * Commits a sub-batch of events to the channel.
+     *
+     * @param events the events.
+     * @throws org.apache.flume.ChannelException if the channel cannot take the events.
+     */
+    void process(List<Event> events);
+}
@@ -1,21 +1,362 @@
 package com.keedio.flume.source.http;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.keedio.flume.source.http.filter.AdaptiveConcurrencyLimiter;
+import com.keedio.flume.source.http.filter.ClientRateLimiter;
+import com.keedio.flume.source.http.filter.ConcurrencyLimitFilter;
+import com.keedio.flume.source.http.filter.ContentDecoders;
 import com.keedio.flume.source.http.filter.GZipFilter;
+import com.keedio.flume.source.http.filter.RateLimitFilter;
+import com.keedio.flume.source.http.filter.ZipPool;
+import com.keedio.flume.source.http.spill.SpillLog;
+import com.keedio.flume.source.http.spill.SpillingChannelProcessor;
+import org.apache.flume.ChannelException;
+import org.apache.flume.Event;
+import org.apache.flume.FlumeException;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.instrumentation.SourceCounter;
+import org.apache.flume.source.http.HTTPBadRequestException;
 import org.apache.flume.source.http.HTTPSource;
+import org.apache.flume.source.http.HTTPSourceConfigurationConstants;
+import org.apache.flume.source.http.HTTPSourceHandler;
+import org.mortbay.jetty.AbstractConnector;
+import org.mortbay.jetty.Connector;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.bio.SocketConnector;
+import org.mortbay.jetty.nio.SelectChannelConnector;
 import org.mortbay.jetty.servlet.Context;
+import org.mortbay.jetty.servlet.FilterHolder;
+import org.mortbay.thread.QueuedThreadPool;
+import org.mortbay.util.ajax.Continuation;
+import org.mortbay.util.ajax.ContinuationSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.keedio.flume.source.http.KeedioHTTPSourceConfigurationConstants.*;
 
 /**
  * Created by Luca Rosellini <lrosellini@keedio.com> on 28/5/15.
  */
 public class KeedioHTTPSource extends HTTPSource{
+    private static final Logger LOG = LoggerFactory.getLogger(KeedioHTTPSource.class);
+
+    private boolean async;
+    private int asyncThreads;
+    private int asyncQueueSize;
+    private long asyncTimeout;
+    private HTTPSourceHandler handler;
+    private SourceCounter sourceCounter;
+    private volatile ThreadPoolExecutor commitExecutor;
+    private boolean blocking;
+    private int acceptors;
+    private int acceptQueueSize;
+    private int maxIdleTime;
+    private int headerBufferSize;
+    private int requestBufferSize;
+    private int responseBufferSize;
+    private int minThreads;
+    private int maxThreads;
+    private List<String> extraPorts;
+    private String spillDir;
+    private long spillMaxBytes;
+    private int spillSegmentSize;
+    private volatile SpillingChannelProcessor spillProcessor;
+    private RateLimitFilter rateLimitFilter;
+    private AdaptiveConcurrencyLimiter admissionLimiter;
+    private long admissionRetryAfter;
+    private volatile ChannelProcessor timedProcessor;
+    private long maxInflatedSize;
+    private double maxInflateRatio;
+    private int zipPoolSize;
+    private int zipBufferSize;
+    private List<String> passthroughPaths;
+    private String passthroughHeader;
+
+    @Override
+    public void configure(org.apache.flume.Context context) {
+        // HTTPSource keeps its handler and counters to itself, the servlet of this source uses its own ones. It is
+        // left with the stock handler, which holds no resources, so the configured one is not built twice.
+        org.apache.flume.Context sourceContext = new org.apache.flume.Context(context.getParameters());
+        sourceContext.put(HTTPSourceConfigurationConstants.CONFIG_HANDLER,
+                HTTPSourceConfigurationConstants.DEFAULT_HANDLER);
+        super.configure(sourceContext);
+        handler = newHandler(context);
+        if (sourceCounter == null) {
+            sourceCounter = new SourceCounter(getName());
+        }
+
+        async = context.getBoolean(ASYNC, DEFAULT_ASYNC);
+        asyncThreads = context.getInteger(ASYNC_THREADS, DEFAULT_ASYNC_THREADS);
+        asyncQueueSize = context.getInteger(ASYNC_QUEUE_SIZE, DEFAULT_ASYNC_QUEUE_SIZE);
+        asyncTimeout = context.getLong(ASYNC_TIMEOUT, DEFAULT_ASYNC_TIMEOUT);
+
+        String connector = context.getString(CONNECTOR, DEFAULT_CONNECTOR).trim();
+        if (!connector.equals("nio") && !connector.equals("blocking")) {
+            throw new IllegalArgumentException("Unknown " + CONNECTOR + " " + connector + ", expected nio or blocking");
+        }
+        blocking = connector.equals("blocking");
+        boolean ssl = context.getBoolean(HTTPSourceConfigurationConstants.SSL_ENABLED, false);
+        if (ssl && !blocking) {
+            // the SSL connector HTTPSource builds is a blocking one, only a SelectChannelConnector is replaced
+            if (context.getString(CONNECTOR) != null) {
+                throw new IllegalArgumentException(CONNECTOR + " nio is not supported with SSL enabled");
+            }
+            LOG.info("SSL enabled, serving connections with the blocking SSL connector");
+        }
+        acceptors = context.getInteger(ACCEPTORS, DEFAULT_ACCEPTORS);
+        acceptQueueSize = context.getInteger(ACCEPT_QUEUE_SIZE, DEFAULT_ACCEPT_QUEUE_SIZE);
+        maxIdleTime = context.getInteger(MAX_IDLE_TIME, DEFAULT_MAX_IDLE_TIME);
+        headerBufferSize = context.getInteger(HEADER_BUFFER_SIZE, DEFAULT_HEADER_BUFFER_SIZE);
+        requestBufferSize = context.getInteger(REQUEST_BUFFER_SIZE, DEFAULT_REQUEST_BUFFER_SIZE);
+        responseBufferSize = context.getInteger(RESPONSE_BUFFER_SIZE, DEFAULT_RESPONSE_BUFFER_SIZE);
+        minThreads = context.getInteger(MIN_THREADS, DEFAULT_MIN_THREADS);
+        maxThreads = context.getInteger(MAX_THREADS, DEFAULT_MAX_THREADS);
+        if (acceptors < 1) {
+            throw new IllegalArgumentException(ACCEPTORS + " " + acceptors + " is smaller than 1");
+        }
+        if (minThreads < 1 || maxThreads < minThreads) {
+            throw new IllegalArgumentException(MIN_THREADS + " " + minThreads + " and " + MAX_THREADS + " "
+                    + maxThreads + " are not a valid thread range");
+        }
+        extraPorts = new ArrayList<>();
+        for (String address : context.getString(EXTRA_PORTS, "").split(",")) {
+            if (!address.trim().isEmpty()) {
+                String port = address.substring(address.lastIndexOf(':') + 1).trim();
+                if (!port.matches("\\d{1,5}") || Integer.parseInt(port) > 65535) {
+                    throw new IllegalArgumentException("Invalid port in " + EXTRA_PORTS + " " + address.trim());
+                }
+                extraPorts.add(address.trim());
+            }
+        }
+        if (!extraPorts.isEmpty() && ssl) {
+            throw new IllegalArgumentException(EXTRA_PORTS + " is not supported with SSL enabled");
+        }
+
+        spillDir = context.getString(SPILL_DIR);
+        spillMaxBytes = context.getLong(SPILL_MAX_BYTES, DEFAULT_SPILL_MAX_BYTES);
+        spillSegmentSize = context.getInteger(SPILL_SEGMENT_SIZE, DEFAULT_SPILL_SEGMENT_SIZE);
+        if (spillDir != null && spillMaxBytes < spillSegmentSize) {
+            throw new IllegalArgumentException(SPILL_MAX_BYTES + " " + spillMaxBytes + " is smaller than "
+                    + SPILL_SEGMENT_SIZE + " " + spillSegmentSize);
+        }
+
+        maxInflatedSize = context.getLong(MAX_INFLATED_SIZE, DEFAULT_MAX_INFLATED_SIZE);
+        maxInflateRatio = Double.parseDouble(context.getString(MAX_INFLATE_RATIO,
+                String.valueOf(DEFAULT_MAX_INFLATE_RATIO)));
+        zipPoolSize = context.getInteger(ZIP_POOL_SIZE, DEFAULT_ZIP_POOL_SIZE);
+        zipBufferSize = context.getInteger(ZIP_BUFFER_SIZE, DEFAULT_ZIP_BUFFER_SIZE);
+        passthroughPaths = new ArrayList<>();
+        for (String path : context.getString(COMPRESSED_PASSTHROUGH_PATHS, "").split(",")) {
+            if (!path.trim().isEmpty()) {
+                passthroughPaths.add(path.trim());
+            }
+        }
+        passthroughHeader = context.getString(COMPRESSED_PASSTHROUGH_HEADER);
+        if (!passthroughPaths.isEmpty() || passthroughHeader != null) {
+            LOG.info("Keeping compressed bodies as sent on paths " + passthroughPaths + " and with header "
+                    + passthroughHeader);
+        }
+
+        double requestRate = Double.parseDouble(context.getString(CLIENT_REQUEST_RATE,
+                String.valueOf(DEFAULT_CLIENT_REQUEST_RATE)));
+        double byteRate = Double.parseDouble(context.getString(CLIENT_BYTE_RATE,
+                String.valueOf(DEFAULT_CLIENT_BYTE_RATE)));
+        rateLimitFilter = null;
+        if (requestRate > 0 || byteRate > 0) {
+            ClientRateLimiter limiter = new ClientRateLimiter(requestRate,
+                    context.getLong(CLIENT_REQUEST_BURST, (long) Math.ceil(requestRate)), byteRate,
+                    context.getLong(CLIENT_BYTE_BURST, (long) Math.ceil(byteRate)),
+                    context.getLong(CLIENT_IDLE_TIMEOUT, DEFAULT_CLIENT_IDLE_TIMEOUT),
+                    context.getInteger(MAX_CLIENTS, DEFAULT_MAX_CLIENTS));
+            rateLimitFilter = new RateLimitFilter(limiter, context.getString(CLIENT_KEY_HEADER),
+                    handler instanceof RateLimitListener ? (RateLimitListener) handler : null,
+                    CLIENT_REQUEST_RATE, CLIENT_BYTE_RATE);
+            LOG.info("Limiting every client to " + requestRate + " requests and " + byteRate + " bytes per second");
+        }
+
+        long targetLatency = context.getLong(ADMISSION_TARGET_LATENCY, DEFAULT_ADMISSION_TARGET_LATENCY);
+        admissionLimiter = null;
+        if (targetLatency > 0) {
+            admissionLimiter = new AdaptiveConcurrencyLimiter(
+                    context.getInteger(ADMISSION_INITIAL_LIMIT, DEFAULT_ADMISSION_INITIAL_LIMIT),
+                    context.getInteger(ADMISSION_MIN_LIMIT, DEFAULT_ADMISSION_MIN_LIMIT),
+                    context.getInteger(ADMISSION_MAX_LIMIT, maxThreads),
+                    TimeUnit.MILLISECONDS.toNanos(targetLatency),
+                    Double.parseDouble(context.getString(ADMISSION_BACKOFF_RATIO,
+                            String.valueOf(DEFAULT_ADMISSION_BACKOFF_RATIO))));
+            admissionRetryAfter = context.getLong(ADMISSION_RETRY_AFTER, DEFAULT_ADMISSION_RETRY_AFTER);
+            LOG.info("Adjusting the requests in flight to a channel latency of " + targetLatency + " ms, starting at "
+                    + admissionLimiter.limit());
+        }
+
+        if (async) {
+            LOG.info("Committing to the channel asynchronously, " + asyncThreads + " threads, "
+                    + asyncQueueSize + " requests queued at most");
+        }
+    }
+
+    /**
+     * Builds the handler as HTTPSource does, out of the handler class and the properties prefixed with its name.
+     */
+    @SuppressWarnings("unchecked")
+    private static HTTPSourceHandler newHandler(org.apache.flume.Context context) {
+        String className = context.getString(HTTPSourceConfigurationConstants.CONFIG_HANDLER,
+                HTTPSourceConfigurationConstants.DEFAULT_HANDLER).trim();
+        HTTPSourceHandler handler;
+        try {
+            handler = ((Class<? extends HTTPSourceHandler>) Class.forName(className)).getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | ClassCastException ex) {
+            throw new IllegalArgumentException("Cannot create the handler " + className, ex);
+        }
+        handler.configure(new org.apache.flume.Context(
+                context.getSubProperties(HTTPSourceConfigurationConstants.CONFIG_HANDLER_PREFIX)));
+        return handler;
+    }
+
+    @Override
+    public void start() {
+        ChannelProcessor channelProcessor = super.getChannelProcessor();
+        if (admissionLimiter != null) {
+            timedProcessor = channelProcessor = new TimedChannelProcessor(channelProcessor, admissionLimiter);
+        }
+        if (spillDir != null) {
+            try {
+                spillProcessor = new SpillingChannelProcessor(channelProcessor,
+                        new SpillLog(new File(spillDir), spillMaxBytes, spillSegmentSize), getName());
+            } catch (IOException ex) {
+                throw new FlumeException("Cannot open the spill log in " + spillDir, ex);
+            }
+            spillProcessor.start();
+            LOG.info("Spilling the batches the channel refuses to " + spillDir + ", " + spillMaxBytes
+                    + " bytes at most");
+        }
+        if (async) {
+            commitExecutor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(asyncQueueSize),
+                    new ThreadFactoryBuilder().setNameFormat(getName() + "-commit-%d").setDaemon(true).build());
+        }
+        super.start();
+        // started after the one of HTTPSource, so this is the counter registered under the name of the source
+        sourceCounter.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        sourceCounter.stop();
+        if (commitExecutor != null) {
+            commitExecutor.shutdown();
+            try {
+                if (!commitExecutor.awaitTermination(asyncTimeout, TimeUnit.MILLISECONDS)) {
+                    LOG.warn("Commits to the channel still running after " + asyncTimeout + " ms");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            commitExecutor = null;
+        }
+        if (spillProcessor != null) {
+            spillProcessor.stop();
+            spillProcessor = null;
+        }
+        timedProcessor = null;
+    }
+
+    /**
+     * With a spill log, the batches the channel refuses go to the log instead of failing the request: the servlet,
+     * the sub-batch sinks and the asynchronous commits all reach the channel through here. With admission control,
+     * the batches reaching the channel, drained ones included, are timed on the way.
+     */
+    @Override
+    public ChannelProcessor getChannelProcessor() {
+        ChannelProcessor processor = spillProcessor;
+        if (processor == null) {
+            processor = timedProcessor;
+        }
+        return processor != null ? processor : super.getChannelProcessor();
+    }
+
     @Override
     protected void customizeServletContext(Context context) {
         super.customizeServletContext(context);
-        context.addFilter(GZipFilter.class,"/*",0);
+        if (rateLimitFilter != null) {
+            // ahead of the gzip filter, so nothing is inflated for rejected requests
+            context.addFilter(new FilterHolder(rateLimitFilter), "/*", 0);
+        }
+        if (admissionLimiter != null) {
+            context.addFilter(new FilterHolder(new ConcurrencyLimitFilter(admissionLimiter, admissionRetryAfter,
+                    getName())), "/*", 0);
+        }
+        ZipPool zipPool = new ZipPool(zipPoolSize, zipBufferSize);
+        context.addFilter(new FilterHolder(new GZipFilter(ContentDecoders.defaults(zipPool, maxInflatedSize,
+                maxInflateRatio), zipPool, passthroughPaths, passthroughHeader)), "/*", 0);
+        customizeServer(context.getServer());
+    }
+
+    /**
+     * Applies the connector and thread pool settings to the server HTTPSource built, before it starts. The NIO
+     * connector of HTTPSource is replaced by a blocking one if asked to, and connectors are added for the extra
+     * ports.
+     */
+    private void customizeServer(Server server) {
+        QueuedThreadPool threadPool = new QueuedThreadPool();
+        threadPool.setMinThreads(minThreads);
+        threadPool.setMaxThreads(maxThreads);
+        threadPool.setName(getName() + "-jetty");
+        server.setThreadPool(threadPool);
+
+        List<Connector> connectors = new ArrayList<>();
+        String host = null;
+        for (Connector connector : server.getConnectors()) {
+            if (blocking && connector instanceof SelectChannelConnector) {
+                connector = newConnector(connector.getHost(), connector.getPort());
+            }
+            host = connector.getHost();
+            connectors.add(customizeConnector(connector));
+        }
+        for (String address : extraPorts) {
+            int colon = address.lastIndexOf(':');
+            connectors.add(customizeConnector(newConnector(colon < 0 ? host : address.substring(0, colon),
+                    Integer.parseInt(address.substring(colon + 1)))));
+        }
+        server.setConnectors(connectors.toArray(new Connector[connectors.size()]));
+        LOG.info("Listening on " + connectors.size() + (blocking ? " blocking" : " nio") + " connectors, "
+                + minThreads + " to " + maxThreads + " threads");
+    }
+
+    private Connector newConnector(String host, int port) {
+        AbstractConnector connector = blocking ? new SocketConnector() : new SelectChannelConnector();
+        connector.setReuseAddress(true);
+        connector.setHost(host);
+        connector.setPort(port);
+        return connector;
+    }
+
+    private Connector customizeConnector(Connector connector) {
+        if (connector instanceof AbstractConnector) {
+            AbstractConnector tuned = (AbstractConnector) connector;
+            tuned.setAcceptors(acceptors);
+            tuned.setAcceptQueueSize(acceptQueueSize);
+            tuned.setMaxIdleTime(maxIdleTime);
+        }
+        connector.setHeaderBufferSize(headerBufferSize);
+        connector.setRequestBufferSize(requestBufferSize);
+        connector.setResponseBufferSize(responseBufferSize);
+        return connector;
     }
 
     @Override
@@ -24,11 +365,232 @@ public class KeedioHTTPSource extends HTTPSource{
     }
 
     protected class KeedioFlumeHTTPServlet extends FlumeHTTPServlet{
+        /**
+         * Lets the handler hand the events over to the channel in sub-batches while it reads the request, through
+         * an {@link EventBatchSink} request attribute. Whatever the handler returns at the end goes to the channel
+         * as usual.
+         */
+        @Override
+        public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            if (async) {
+                doAsyncPost(request, response);
+                return;
+            }
+            ChannelBatchSink sink = new ChannelBatchSink();
+            request.setAttribute(EventBatchSink.REQUEST_ATTRIBUTE, sink);
+            HttpServletResponse errors = new HandlerErrorResponse(response, request, sink);
+            List<Event> events = getEvents(request, errors);
+            if (events == null) {
+                return;
+            }
+
+            try {
+                getChannelProcessor().processEventBatch(events);
+            } catch (ChannelException ex) {
+                errors.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        "Error appending event to channel. Channel might be full." + ex.getMessage());
+                return;
+            } catch (Exception ex) {
+                errors.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                        "Unexpected error while appending event to channel. " + ex.getMessage());
+                return;
+            }
+            accept(request, response, events);
+        }
+
+        /**
+         * <p>
+         * Reads the events of the request on the Jetty thread, hands the commit over to the commit threads and
+         * suspends the request until it is done. Suspending throws a <code>RetryRequest</code> with the NIO
+         * connector, that frees the Jetty thread and dispatches the request again once the commit resumes it or
+         * the timeout expires; the next dispatch finds the commit in the request and writes the response, or
+         * suspends the request again if the commit is still running. With blocking connectors suspending waits
+         * instead, and the response is written right after.
+         * </p>
+         * <p>
+         * A commit handed to the commit threads is always waited for, since its events reach the channel anyway:
+         * answering before it ends would keep the {@link CommitListener} from hearing of them and invite a retry
+         * delivering them twice. Responses are the same as in synchronous mode, plus <code>503</code> when too
+         * many requests wait for a commit thread, in which case nothing is committed.
+         * </p>
+         */
+        private void doAsyncPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            AsyncCommit commit = (AsyncCommit) request.getAttribute(AsyncCommit.REQUEST_ATTRIBUTE);
+            boolean first = false;
+            if (commit == null) {
+                ChannelBatchSink sink = new ChannelBatchSink();
+                request.setAttribute(EventBatchSink.REQUEST_ATTRIBUTE, sink);
+                List<Event> events = getEvents(request, new HandlerErrorResponse(response, request, sink));
+                if (events == null) {
+                    return;
+                }
+
+                commit = new AsyncCommit(events, ContinuationSupport.getContinuation(request, null));
+                request.setAttribute(AsyncCommit.REQUEST_ATTRIBUTE, commit);
+                first = true;
+            }
+
+            // Jetty 6 ignores a resume before the continuation is suspended: the commit thread resumes it under the
+            // continuation lock, which is only released once suspending is under way
+            synchronized (commit.continuation) {
+                if (first) {
+                    try {
+                        commitExecutor.execute(commit);
+                    } catch (RejectedExecutionException ex) {
+                        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                                "Too many requests waiting for the channel.");
+                        return;
+                    }
+                }
+                // after a timeout, suspending again first ends the expired suspension, then starts a new one
+                while (!commit.done) {
+                    if (!commit.continuation.suspend(asyncTimeout)) {
+                        LOG.warn("Commit to the channel still running after " + asyncTimeout + " ms, waiting");
+                    }
+                }
+            }
+
+            if (commit.failure instanceof ChannelException) {
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        "Error appending event to channel. Channel might be full." + commit.failure.getMessage());
+                return;
+            } else if (commit.failure != null) {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                        "Unexpected error while appending event to channel. " + commit.failure.getMessage());
+                return;
+            }
+            accept(request, response, commit.events);
+        }
+
+        /**
+         * Reads the events of the request with the handler and counts them as received.
+         *
+         * @param errors the response the failures of the handler are reported to.
+         * @return the events, or null if the handler failed and the error was sent.
+         */
+        private List<Event> getEvents(HttpServletRequest request, HttpServletResponse errors) throws IOException {
+            List<Event> events;
+            try {
+                events = handler.getEvents(request);
+            } catch (HTTPBadRequestException ex) {
+                errors.sendError(HttpServletResponse.SC_BAD_REQUEST, "Bad request from client. " + ex.getMessage());
+                return null;
+            } catch (Exception ex) {
+                errors.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                        "Deserializer threw unexpected exception. " + ex.getMessage());
+                return null;
+            }
+            sourceCounter.incrementAppendBatchReceivedCount();
+            sourceCounter.addToEventReceivedCount(events.size());
+            return events;
+        }
+
+        /**
+         * Answers a request whose events are committed to the channel and counts them as accepted.
+         */
+        private void accept(HttpServletRequest request, HttpServletResponse response, List<Event> events)
+                throws IOException {
+            customizeServletResponse(request, response);
+            response.setCharacterEncoding(request.getCharacterEncoding());
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.flushBuffer();
+            sourceCounter.incrementAppendBatchAcceptedCount();
+            sourceCounter.addToEventAcceptedCount(events.size());
+        }
+
+        /**
+         * Called once the events of the request are committed to the channel, right before answering it, so this
+         * is where the {@link CommitListener} of the handler is told.
+         */
         @Override
         protected void customizeServletResponse(HttpServletRequest request, HttpServletResponse response) {
             super.customizeServletResponse(request, response);
 
+            CommitListener listener = (CommitListener) request.getAttribute(CommitListener.REQUEST_ATTRIBUTE);
+            if (listener != null) {
+                listener.committed();
+            }
+
             response.addHeader("Accept-Encoding","gzip");
         }
     }
+
+    /**
+     * Sink committing every sub-batch to the channels of the source, remembering the failure if one does not fit.
+     */
+    private class ChannelBatchSink implements EventBatchSink {
+        private ChannelException failure;
+
+        @Override
+        public void process(List<Event> events) {
+            try {
+                getChannelProcessor().processEventBatch(events);
+            } catch (ChannelException ex) {
+                failure = ex;
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Commit of the events of a suspended request, run by the commit threads. It resumes the request when done.
+     */
+    private class AsyncCommit implements Runnable {
+        static final String REQUEST_ATTRIBUTE = "com.keedio.flume.source.http.AsyncCommit";
+
+        private final List<Event> events;
+        private final Continuation continuation;
+        private volatile Exception failure;
+        private volatile boolean done;
+
+        AsyncCommit(List<Event> events, Continuation continuation) {
+            this.events = events;
+            this.continuation = continuation;
+        }
+
+        @Override
+        public void run() {
+            try {
+                getChannelProcessor().processEventBatch(events);
+            } catch (Exception ex) {
+                LOG.debug("Asynchronous commit failed", ex);
+                failure = ex;
+            } finally {
+                done = true;
+                synchronized (continuation) {
+                    continuation.resume();
+                }
+            }
+        }
+    }
+
+    /**
+     * Refines the errors the servlet reports for the failures of the handler. The handler fails with whatever the
+     * sink throws, which the servlet reports as an internal error: a sub-batch the channel did not take is reported
+     * as when the whole request does not fit, as unavailable. Requests over the admission limits of the handler
+     * are reported as too large instead of as bad requests.
+     */
+    private static class HandlerErrorResponse extends HttpServletResponseWrapper {
+        private final HttpServletRequest request;
+        private final ChannelBatchSink sink;
+
+        HandlerErrorResponse(HttpServletResponse response, HttpServletRequest request, ChannelBatchSink sink) {
+            super(response);
+            this.request = request;
+            this.sink = sink;
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            if (sink.failure != null && sc == SC_INTERNAL_SERVER_ERROR) {
+                super.sendError(SC_SERVICE_UNAVAILABLE,
+                        "Error appending event to channel. Channel might be full." + sink.failure.getMessage());
+            } else if (sc == SC_BAD_REQUEST
+                    && request.getAttribute(RequestTooLargeException.REQUEST_ATTRIBUTE) != null) {
+                super.sendError(SC_REQUEST_ENTITY_TOO_LARGE, msg);
+            } else {
+                super.sendError(sc, msg);
+            }
+        }
+    }
 }
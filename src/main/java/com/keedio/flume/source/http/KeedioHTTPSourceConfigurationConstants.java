@@ -0,0 +1,234 @@
+package com.keedio.flume.source.http;
+
+/**
+ * Configuration keys understood by {@link KeedioHTTPSource}, on top of the ones of the Flume HTTP source. Keys are
+ * relative to the source namespace, i.e. <code>agent.sources.http.&lt;key&gt;</code>.
+ */
+public final class KeedioHTTPSourceConfigurationConstants {
+
+    /**
+     * Whether requests are suspended while their events are committed to the channel, so the Jetty threads are
+     * not held by a slow channel.
+     */
+    public static final String ASYNC = "async";
+    public static final boolean DEFAULT_ASYNC = false;
+
+    /**
+     * Number of threads committing the events of suspended requests to the channel.
+     */
+    public static final String ASYNC_THREADS = "asyncThreads";
+    public static final int DEFAULT_ASYNC_THREADS = 4;
+
+    /**
+     * Maximum number of suspended requests waiting for a commit thread, requests over it are rejected.
+     */
+    public static final String ASYNC_QUEUE_SIZE = "asyncQueueSize";
+    public static final int DEFAULT_ASYNC_QUEUE_SIZE = 100;
+
+    /**
+     * Milliseconds a request stays suspended waiting for its commit before a warning is logged, after which it is
+     * suspended again. A commit that started is always waited for.
+     */
+    public static final String ASYNC_TIMEOUT = "asyncTimeout";
+    public static final long DEFAULT_ASYNC_TIMEOUT = 30000;
+
+    /**
+     * Jetty connector of the source: <code>nio</code> (<code>SelectChannelConnector</code>, few threads for many
+     * idle keep-alive connections) or <code>blocking</code> (<code>SocketConnector</code>, one thread per
+     * connection). Connectors with SSL enabled are always blocking, and <code>nio</code> is rejected with SSL.
+     */
+    public static final String CONNECTOR = "connector";
+    public static final String DEFAULT_CONNECTOR = "nio";
+
+    /**
+     * Number of threads accepting connections, per connector.
+     */
+    public static final String ACCEPTORS = "acceptors";
+    public static final int DEFAULT_ACCEPTORS = 1;
+
+    /**
+     * Backlog of connections waiting to be accepted, per connector, 0 for the default of the operating system.
+     */
+    public static final String ACCEPT_QUEUE_SIZE = "acceptQueueSize";
+    public static final int DEFAULT_ACCEPT_QUEUE_SIZE = 0;
+
+    /**
+     * Milliseconds an idle connection is kept open, keep-alive connections between requests included.
+     */
+    public static final String MAX_IDLE_TIME = "maxIdleTime";
+    public static final int DEFAULT_MAX_IDLE_TIME = 200000;
+
+    /**
+     * Size in bytes of the buffers for request and response headers.
+     */
+    public static final String HEADER_BUFFER_SIZE = "headerBufferSize";
+    public static final int DEFAULT_HEADER_BUFFER_SIZE = 4096;
+
+    /**
+     * Size in bytes of the buffers the request bodies are read into.
+     */
+    public static final String REQUEST_BUFFER_SIZE = "requestBufferSize";
+    public static final int DEFAULT_REQUEST_BUFFER_SIZE = 8192;
+
+    /**
+     * Size in bytes of the buffers the response bodies are written into.
+     */
+    public static final String RESPONSE_BUFFER_SIZE = "responseBufferSize";
+    public static final int DEFAULT_RESPONSE_BUFFER_SIZE = 24576;
+
+    /**
+     * Minimum number of threads of the Jetty thread pool, shared by every connector.
+     */
+    public static final String MIN_THREADS = "minThreads";
+    public static final int DEFAULT_MIN_THREADS = 2;
+
+    /**
+     * Maximum number of threads of the Jetty thread pool, shared by every connector.
+     */
+    public static final String MAX_THREADS = "maxThreads";
+    public static final int DEFAULT_MAX_THREADS = 250;
+
+    /**
+     * Comma separated <code>[host:]port</code> list of extra addresses the source listens on, with the same
+     * connector settings. The host defaults to the one of <code>bind</code>. Not supported with SSL.
+     */
+    public static final String EXTRA_PORTS = "extraPorts";
+
+    /**
+     * Directory of the spill log taking the batches the channel refuses when full, replayed into it once it has
+     * room. No spill log if not set.
+     */
+    public static final String SPILL_DIR = "spillDir";
+
+    /**
+     * Maximum size in bytes of the spill log on disk, batches are refused once it is full.
+     */
+    public static final String SPILL_MAX_BYTES = "spillMaxBytes";
+    public static final long DEFAULT_SPILL_MAX_BYTES = 1024L * 1024 * 1024;
+
+    /**
+     * Size in bytes of the memory mapped files of the spill log. A batch larger than a file is not spilled.
+     */
+    public static final String SPILL_SEGMENT_SIZE = "spillSegmentSize";
+    public static final int DEFAULT_SPILL_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Requests per second a client may send, 0 for no limit. Requests over it are answered with
+     * <code>429 Too Many Requests</code>.
+     */
+    public static final String CLIENT_REQUEST_RATE = "clientRequestRate";
+    public static final double DEFAULT_CLIENT_REQUEST_RATE = 0;
+
+    /**
+     * Requests a client may send at once, the size of its request bucket. Defaults to one second of requests.
+     */
+    public static final String CLIENT_REQUEST_BURST = "clientRequestBurst";
+
+    /**
+     * Bytes per second a client may send, as sent, 0 for no limit.
+     */
+    public static final String CLIENT_BYTE_RATE = "clientByteRate";
+    public static final double DEFAULT_CLIENT_BYTE_RATE = 0;
+
+    /**
+     * Bytes a client may send at once, the size of its byte bucket. Defaults to one second of bytes.
+     */
+    public static final String CLIENT_BYTE_BURST = "clientByteBurst";
+
+    /**
+     * Request header identifying the client, e.g. <code>X-Forwarded-For</code>. The remote address is used if not
+     * set or missing from the request.
+     */
+    public static final String CLIENT_KEY_HEADER = "clientKeyHeader";
+
+    /**
+     * Milliseconds a client is remembered for once its buckets are full again.
+     */
+    public static final String CLIENT_IDLE_TIMEOUT = "clientIdleTimeout";
+    public static final long DEFAULT_CLIENT_IDLE_TIMEOUT = 60000;
+
+    /**
+     * Largest number of clients remembered at once, further clients share a single limit.
+     */
+    public static final String MAX_CLIENTS = "maxClients";
+    public static final int DEFAULT_MAX_CLIENTS = 100000;
+
+    /**
+     * Longest time in milliseconds the channel should take to commit a batch, 0 for no admission control. Above it,
+     * or when the channel refuses batches, fewer requests are let in flight at once, and the requests over the
+     * limit are answered with <code>503 Service Unavailable</code>.
+     */
+    public static final String ADMISSION_TARGET_LATENCY = "admissionTargetLatency";
+    public static final long DEFAULT_ADMISSION_TARGET_LATENCY = 0;
+
+    /**
+     * Requests let in flight at once when the source starts.
+     */
+    public static final String ADMISSION_INITIAL_LIMIT = "admissionInitialLimit";
+    public static final int DEFAULT_ADMISSION_INITIAL_LIMIT = 20;
+
+    /**
+     * Fewest requests let in flight at once, however slow the channel.
+     */
+    public static final String ADMISSION_MIN_LIMIT = "admissionMinLimit";
+    public static final int DEFAULT_ADMISSION_MIN_LIMIT = 1;
+
+    /**
+     * Most requests let in flight at once, however fast the channel. Defaults to <code>maxThreads</code>.
+     */
+    public static final String ADMISSION_MAX_LIMIT = "admissionMaxLimit";
+
+    /**
+     * Factor applied to the limit when the channel is slower than the target latency, between 0 and 1.
+     */
+    public static final String ADMISSION_BACKOFF_RATIO = "admissionBackoffRatio";
+    public static final double DEFAULT_ADMISSION_BACKOFF_RATIO = 0.9;
+
+    /**
+     * Seconds the clients of rejected requests are told to wait, in the <code>Retry-After</code> header.
+     */
+    public static final String ADMISSION_RETRY_AFTER = "admissionRetryAfter";
+    public static final long DEFAULT_ADMISSION_RETRY_AFTER = 1;
+
+    /**
+     * Largest request body once inflated, in bytes, 0 for no limit. Checked as the body is inflated, requests over
+     * it are answered with <code>413 Request Entity Too Large</code>.
+     */
+    public static final String MAX_INFLATED_SIZE = "maxInflatedSize";
+    public static final long DEFAULT_MAX_INFLATED_SIZE = 0;
+
+    /**
+     * Largest ratio of an inflated request body to the compressed one, 0 for no limit. Only checked past the first
+     * MiB inflated.
+     */
+    public static final String MAX_INFLATE_RATIO = "maxInflateRatio";
+    public static final double DEFAULT_MAX_INFLATE_RATIO = 0;
+
+    /**
+     * Idle inflaters, deflaters and buffers of compressed requests and responses kept for reuse, of each kind.
+     */
+    public static final String ZIP_POOL_SIZE = "zipPoolSize";
+    public static final int DEFAULT_ZIP_POOL_SIZE = 64;
+
+    /**
+     * Size in bytes of the buffers of compressed requests and responses. The default matches the chunks the JSON
+     * parser reads, instead of the 512 bytes <code>GZIPInputStream</code> uses.
+     */
+    public static final String ZIP_BUFFER_SIZE = "zipBufferSize";
+    public static final int DEFAULT_ZIP_BUFFER_SIZE = 8192;
+
+    /**
+     * Comma separated list of request path prefixes whose compressed bodies are handed over as they were sent,
+     * without inflating them. See {@link CompressedBody}.
+     */
+    public static final String COMPRESSED_PASSTHROUGH_PATHS = "compressedPassthroughPaths";
+
+    /**
+     * Request header asking for the compressed body to be handed over as it was sent when set to
+     * <code>true</code>, on any path.
+     */
+    public static final String COMPRESSED_PASSTHROUGH_HEADER = "compressedPassthroughHeader";
+
+    private KeedioHTTPSourceConfigurationConstants() {
+    }
+}
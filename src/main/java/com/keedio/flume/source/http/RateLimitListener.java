@@ -0,0 +1,14 @@
+package com.keedio.flume.source.http;
+
+/**
+ * Told about every request {@link KeedioHTTPSource} rejects because its client went over a rate limit. Handlers
+ * implementing it are told, so they can count the rejections along with their other metrics: the handler never
+ * sees these requests.
+ */
+public interface RateLimitListener {
+    /**
+     * @param limit the name of the limit the client went over, <code>clientRequestRate</code> or
+     * <code>clientByteRate</code>.
+     */
+    void rateLimited(String limit);
+}
@@ -0,0 +1,35 @@
+package com.keedio.flume.source.http;
+
+import org.apache.flume.source.http.HTTPBadRequestException;
+
+/**
+ * Thrown by handlers when a request goes over one of their admission limits. {@link KeedioHTTPSource} answers
+ * these requests with <code>413 Request Entity Too Large</code> instead of <code>400 Bad Request</code>.
+ */
+public class RequestTooLargeException extends HTTPBadRequestException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Name of the request attribute handlers set to the exception before throwing it, the servlet cannot see
+     * the exceptions of the handler otherwise.
+     */
+    public static final String REQUEST_ATTRIBUTE = RequestTooLargeException.class.getName();
+
+    private final String limit;
+
+    /**
+     * @param message the detail message.
+     * @param limit the name of the limit the request went over.
+     */
+    public RequestTooLargeException(String message, String limit) {
+        super(message);
+        this.limit = limit;
+    }
+
+    /**
+     * @return the name of the limit the request went over.
+     */
+    public String getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,61 @@
+package com.keedio.flume.source.http;
+
+import com.keedio.flume.source.http.filter.AdaptiveConcurrencyLimiter;
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.channel.ChannelProcessor;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Channel processor of a source telling an {@link AdaptiveConcurrencyLimiter} how long every batch takes to reach
+ * the channels, and which ones they refuse.
+ */
+class TimedChannelProcessor extends ChannelProcessor {
+    private final ChannelProcessor delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    /**
+     * @param delegate the channel processor of the source.
+     * @param limiter the limiter adjusted to the latency of the channels.
+     */
+    TimedChannelProcessor(ChannelProcessor delegate, AdaptiveConcurrencyLimiter limiter) {
+        super(delegate.getSelector());
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void initialize() {
+        delegate.initialize();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public void configure(Context context) {
+        delegate.configure(context);
+    }
+
+    @Override
+    public void processEvent(Event event) {
+        processEventBatch(Collections.singletonList(event));
+    }
+
+    @Override
+    public void processEventBatch(List<Event> events) {
+        long start = System.nanoTime();
+        try {
+            delegate.processEventBatch(events);
+        } catch (ChannelException ex) {
+            limiter.sample(System.nanoTime() - start, true);
+            throw ex;
+        }
+        limiter.sample(System.nanoTime() - start, false);
+    }
+}
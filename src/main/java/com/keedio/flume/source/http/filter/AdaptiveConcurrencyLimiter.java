@@ -0,0 +1,113 @@
+package com.keedio.flume.source.http.filter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Limit on the requests of a source in flight at once, adjusted to the latency of the channel with additive
+ * increase and multiplicative decrease. Every batch the channel takes within the target latency, while the limit
+ * is in use, raises the limit by one over the limit, about one more request per round trip; a batch slower than
+ * the target, or refused by the channel, multiplies it by the backoff ratio. Decreases happen at most once per
+ * target latency, so the batches of a single slow period count as one.
+ * </p>
+ * <p>
+ * The limit shrinks as soon as the channel slows down, well before it fills up and refuses batches, and requests
+ * over it are turned away before anything is read.
+ * </p>
+ * <p>
+ * Instances are thread safe. Taking and releasing a slot never locks, adjusting the limit does, briefly.
+ * </p>
+ */
+public class AdaptiveConcurrencyLimiter {
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatency;
+    private final double backoffRatio;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+    private double estimate;
+    private long lastDecrease;
+
+    /**
+     * @param initialLimit requests allowed in flight at first.
+     * @param minLimit fewest requests allowed in flight, however slow the channel.
+     * @param maxLimit most requests allowed in flight, however fast the channel.
+     * @param targetLatencyNanos longest time the channel should take to commit a batch.
+     * @param backoffRatio factor applied to the limit when the channel is slower than the target, below 1.
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long targetLatencyNanos,
+                                      double backoffRatio) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits " + minLimit + " to " + maxLimit);
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Backoff ratio " + backoffRatio + " not between 0 and 1");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatency = targetLatencyNanos;
+        this.backoffRatio = backoffRatio;
+        this.estimate = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.limit = (int) estimate;
+        this.lastDecrease = System.nanoTime() - targetLatencyNanos;
+    }
+
+    /**
+     * @return whether the request may go on, in which case it must be {@link #release() released} once done.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Frees the slot of a request that is done.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Adjusts the limit to a batch committed to the channel.
+     *
+     * @param latencyNanos the time the channel took.
+     * @param refused whether the channel refused the batch.
+     */
+    public void sample(long latencyNanos, boolean refused) {
+        sample(System.nanoTime(), latencyNanos, refused);
+    }
+
+    synchronized void sample(long now, long latencyNanos, boolean refused) {
+        if (refused || latencyNanos > targetLatency) {
+            if (now - lastDecrease >= targetLatency) {
+                estimate = Math.max(minLimit, estimate * backoffRatio);
+                lastDecrease = now;
+            }
+        } else if (inFlight.get() * 2 >= limit) {
+            // only grow a limit in use, or an idle source would end up with no limit at all
+            estimate = Math.min(maxLimit, estimate + 1 / estimate);
+        }
+        limit = (int) estimate;
+    }
+
+    /**
+     * @return the requests allowed in flight at once.
+     */
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * @return the requests in flight.
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+}
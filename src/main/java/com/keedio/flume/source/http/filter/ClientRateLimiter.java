@@ -0,0 +1,208 @@
+package com.keedio.flume.source.http.filter;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Token buckets of every client, one for requests and one for bytes, shared by every request of the source. A
+ * bucket fills at its rate up to its burst, and a request takes one token from the request bucket and one per
+ * byte from the byte bucket. A request larger than the burst is let through when the bucket is full, the bucket
+ * then goes into debt, so large requests are limited on average too.
+ * </p>
+ * <p>
+ * Buckets are kept as the time at which they will be full again, the generic cell rate algorithm, which takes a
+ * single compare and swap per bucket and request. Clients live in a concurrent map striped by hash, and clients
+ * whose buckets have been full for the idle timeout are evicted from time to time by the thread that finds the
+ * sweep due. Once the map reaches its maximum size, new clients share a single pair of buckets until idle ones are
+ * evicted.
+ * </p>
+ * <p>
+ * Instances are thread safe and never lock.
+ * </p>
+ */
+public class ClientRateLimiter {
+    private static final int STRIPES = 64;
+
+    private final double requestInterval;
+    private final long requestTolerance;
+    private final double byteInterval;
+    private final long byteTolerance;
+    private final long idleNanos;
+    private final int maxClients;
+    private final ConcurrentMap<String, Client> clients;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong nextSweep;
+    private final Client overflow = new Client(System.nanoTime());
+
+    /**
+     * @param requestRate requests per second of a client, 0 for no limit.
+     * @param requestBurst requests a client can send at once.
+     * @param byteRate bytes per second of a client, 0 for no limit.
+     * @param byteBurst bytes a client can send at once.
+     * @param idleMillis milliseconds a client stays known once its buckets are full.
+     * @param maxClients largest number of clients known at once.
+     */
+    public ClientRateLimiter(double requestRate, long requestBurst, double byteRate, long byteBurst, long idleMillis,
+                             int maxClients) {
+        this.requestInterval = requestRate > 0 ? 1e9 / requestRate : 0;
+        this.requestTolerance = (long) (Math.max(1, requestBurst) * requestInterval);
+        this.byteInterval = byteRate > 0 ? 1e9 / byteRate : 0;
+        this.byteTolerance = (long) (Math.max(1, byteBurst) * byteInterval);
+        this.idleNanos = idleMillis * 1000000L;
+        this.maxClients = maxClients;
+        this.clients = new ConcurrentHashMap<>(Math.min(maxClients, 1024), 0.75f, STRIPES);
+        this.nextSweep = new AtomicLong(System.nanoTime() + idleNanos);
+    }
+
+    /**
+     * Takes the tokens of a request from the buckets of its client.
+     *
+     * @param client the key of the client.
+     * @param bytes the size of the request, 0 if not known yet.
+     * @return 0 if the request is let through, otherwise the nanoseconds to wait for the request bucket, or minus
+     * the nanoseconds to wait for the byte bucket.
+     */
+    public long acquire(String client, long bytes) {
+        long now = System.nanoTime();
+        sweep(now);
+        Client state = client(client, now);
+
+        long wait = state.requests.take(now, 1, requestInterval, requestTolerance);
+        if (wait > 0) {
+            return wait;
+        }
+        wait = state.bytes.take(now, bytes, byteInterval, byteTolerance);
+        if (wait > 0) {
+            state.requests.refund(1, requestInterval);
+            return -wait;
+        }
+        return 0;
+    }
+
+    /**
+     * Takes the bytes of a request whose size was not known when it came, without waiting for them.
+     *
+     * @param client the key of the client.
+     * @param bytes the size of the request.
+     */
+    public void charge(String client, long bytes) {
+        long now = System.nanoTime();
+        client(client, now).bytes.charge(now, bytes, byteInterval);
+    }
+
+    /**
+     * @return the number of clients known.
+     */
+    public int clients() {
+        return size.get();
+    }
+
+    private Client client(String key, long now) {
+        Client state = clients.get(key);
+        if (state != null) {
+            return state;
+        }
+        if (size.get() >= maxClients) {
+            return overflow;
+        }
+        state = new Client(now);
+        Client known = clients.putIfAbsent(key, state);
+        if (known != null) {
+            return known;
+        }
+        size.incrementAndGet();
+        return state;
+    }
+
+    /**
+     * Evicts the idle clients, at most once per idle timeout or as soon as the map is full.
+     */
+    private void sweep(long now) {
+        long due = nextSweep.get();
+        if ((now - due < 0 && size.get() < maxClients) || !nextSweep.compareAndSet(due, now + idleNanos)) {
+            return;
+        }
+        for (Iterator<Client> it = clients.values().iterator(); it.hasNext(); ) {
+            Client state = it.next();
+            if (state.isIdle(now, idleNanos)) {
+                it.remove();
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Buckets of a client.
+     */
+    private static final class Client {
+        private final Bucket requests;
+        private final Bucket bytes;
+
+        private Client(long now) {
+            requests = new Bucket(now);
+            bytes = new Bucket(now);
+        }
+
+        private boolean isIdle(long now, long idleNanos) {
+            return now - requests.full() > idleNanos && now - bytes.full() > idleNanos;
+        }
+    }
+
+    /**
+     * Token bucket kept as the time it is full again, the theoretical arrival time of the generic cell rate
+     * algorithm. It starts full.
+     */
+    private static final class Bucket {
+        private final AtomicLong full;
+
+        private Bucket(long now) {
+            full = new AtomicLong(now);
+        }
+
+        /**
+         * @return 0 if the tokens were taken, otherwise the nanoseconds to wait for them.
+         */
+        private long take(long now, long tokens, double interval, long tolerance) {
+            if (interval == 0 || tokens == 0) {
+                return 0;
+            }
+            long cost = (long) (tokens * interval);
+            // a request larger than the burst only needs a full bucket
+            long needed = Math.min(cost, tolerance);
+            while (true) {
+                long current = full.get();
+                long start = Math.max(current, now);
+                long wait = start + needed - now - tolerance;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (full.compareAndSet(current, start + cost)) {
+                    return 0;
+                }
+            }
+        }
+
+        private void charge(long now, long tokens, double interval) {
+            if (interval == 0 || tokens == 0) {
+                return;
+            }
+            long cost = (long) (tokens * interval);
+            long current;
+            do {
+                current = full.get();
+            } while (!full.compareAndSet(current, Math.max(current, now) + cost));
+        }
+
+        private void refund(long tokens, double interval) {
+            full.addAndGet(-(long) (tokens * interval));
+        }
+
+        private long full() {
+            return full.get();
+        }
+    }
+}
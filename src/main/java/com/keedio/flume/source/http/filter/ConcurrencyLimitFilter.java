@@ -0,0 +1,108 @@
+package com.keedio.flume.source.http.filter;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.mortbay.jetty.RetryRequest;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * <p>
+ * Answers the requests over the limit of an {@link AdaptiveConcurrencyLimiter} with
+ * <code>503 Service Unavailable</code> and a <code>Retry-After</code> header, before anything is read.
+ * </p>
+ * <p>
+ * A request suspended while its events are committed keeps its slot until it is dispatched again and answered.
+ * The limit, the requests in flight and the rate of rejected requests are published through JMX under the name of
+ * the source while the filter is in service.
+ * </p>
+ */
+public class ConcurrencyLimitFilter implements Filter {
+    private static final String ADMITTED_ATTRIBUTE = ConcurrencyLimitFilter.class.getName();
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final long retryAfter;
+    private final String name;
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final Meter rejectedRequests;
+    private JmxReporter reporter;
+
+    /**
+     * @param limiter the limit on the requests in flight.
+     * @param retryAfter seconds rejected clients are told to wait.
+     * @param name name of the source, for the metrics.
+     */
+    public ConcurrencyLimitFilter(final AdaptiveConcurrencyLimiter limiter, long retryAfter, String name) {
+        this.limiter = limiter;
+        this.retryAfter = retryAfter;
+        this.name = name;
+
+        rejectedRequests = metrics.meter("rejectedRequests");
+        metrics.register("limit", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return limiter.limit();
+            }
+        });
+        metrics.register("inFlight", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return limiter.inFlight();
+            }
+        });
+    }
+
+    @Override
+    public synchronized void init(FilterConfig filterConfig) throws ServletException {
+        reporter = JmxReporter.forRegistry(metrics)
+                .inDomain(MetricRegistry.name(ConcurrencyLimitFilter.class, name))
+                .build();
+        reporter.start();
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (request.getAttribute(ADMITTED_ATTRIBUTE) == null) {
+            if (!limiter.tryAcquire()) {
+                rejectedRequests.mark();
+                HttpServletResponse res = (HttpServletResponse) response;
+                res.setHeader("Retry-After", String.valueOf(retryAfter));
+                res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many requests in flight, over "
+                        + limiter.limit() + ".");
+                return;
+            }
+            request.setAttribute(ADMITTED_ATTRIBUTE, Boolean.TRUE);
+        }
+
+        boolean suspended = false;
+        try {
+            chain.doFilter(request, response);
+        } catch (RetryRequest ex) {
+            // dispatched again once resumed, the slot is released then
+            suspended = true;
+            throw ex;
+        } finally {
+            if (!suspended) {
+                limiter.release();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (reporter != null) {
+            reporter.stop();
+            reporter = null;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.keedio.flume.source.http.filter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Undoes one <code>Content-Encoding</code> of a request body, as it is read.
+ */
+public interface ContentDecoder {
+    /**
+     * @param in the encoded body, not read yet.
+     * @return the decoded body. Closing it closes the encoded one.
+     * @throws IOException if the body cannot be read.
+     */
+    InputStream decode(InputStream in) throws IOException;
+}
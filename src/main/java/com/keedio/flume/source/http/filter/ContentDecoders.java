@@ -0,0 +1,108 @@
+package com.keedio.flume.source.http.filter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.keedio.flume.source.http.KeedioHTTPSourceConfigurationConstants.DEFAULT_ZIP_BUFFER_SIZE;
+import static com.keedio.flume.source.http.KeedioHTTPSourceConfigurationConstants.DEFAULT_ZIP_POOL_SIZE;
+
+/**
+ * <p>
+ * Registry of the {@link ContentDecoder decoders} of every <code>Content-Encoding</code> a source accepts. The
+ * defaults are <code>gzip</code>, and its alias <code>x-gzip</code>, with any number of members, and
+ * <code>deflate</code>, zlib wrapped or raw.
+ * </p>
+ * <p>
+ * A body may be encoded more than once, <code>Content-Encoding</code> then lists the encodings in the order they
+ * were applied, and they are undone in the opposite one. All of them decode as the body is read, nothing is
+ * buffered whole.
+ * </p>
+ */
+public class ContentDecoders {
+    private static final String IDENTITY = "identity";
+
+    private final Map<String, ContentDecoder> decoders = new HashMap<>();
+
+    /**
+     * @return a registry of the default decoders, with a pool of their own and no limits.
+     */
+    public static ContentDecoders defaults() {
+        return defaults(new ZipPool(DEFAULT_ZIP_POOL_SIZE, DEFAULT_ZIP_BUFFER_SIZE), 0, 0);
+    }
+
+    /**
+     * @param pool where the decoders take their inflaters and buffers from.
+     * @param maxSize largest body once inflated, 0 for no limit.
+     * @param maxRatio largest ratio of the inflated body to the compressed one, 0 for no limit.
+     * @return a registry of the default decoders.
+     */
+    public static ContentDecoders defaults(final ZipPool pool, final long maxSize, final double maxRatio) {
+        ContentDecoder gzip = new ContentDecoder() {
+            @Override
+            public InputStream decode(InputStream in) {
+                return new InflatingInputStream(in, true, pool, maxSize, maxRatio);
+            }
+        };
+        return new ContentDecoders()
+                .register("gzip", gzip)
+                .register("x-gzip", gzip)
+                .register("deflate", new ContentDecoder() {
+                    @Override
+                    public InputStream decode(InputStream in) {
+                        return new InflatingInputStream(in, false, pool, maxSize, maxRatio);
+                    }
+                });
+    }
+
+    /**
+     * @param encoding the name of the encoding, in any case.
+     * @param decoder its decoder, replacing the one registered before if any.
+     * @return this registry.
+     */
+    public ContentDecoders register(String encoding, ContentDecoder decoder) {
+        decoders.put(encoding.trim().toLowerCase(Locale.ENGLISH), decoder);
+        return this;
+    }
+
+    /**
+     * @param contentEncoding the <code>Content-Encoding</code> header of a request, possibly null.
+     * @return the decoder undoing all of the encodings, null if the body is not encoded.
+     * @throws IllegalArgumentException if one of the encodings is not registered.
+     */
+    public ContentDecoder forEncoding(String contentEncoding) {
+        if (contentEncoding == null) {
+            return null;
+        }
+        final List<ContentDecoder> stack = new ArrayList<>();
+        for (String encoding : contentEncoding.split(",")) {
+            encoding = encoding.trim().toLowerCase(Locale.ENGLISH);
+            if (encoding.isEmpty() || encoding.equals(IDENTITY)) {
+                continue;
+            }
+            ContentDecoder decoder = decoders.get(encoding);
+            if (decoder == null) {
+                throw new IllegalArgumentException("Unsupported Content-Encoding " + encoding);
+            }
+            stack.add(decoder);
+        }
+        if (stack.size() <= 1) {
+            return stack.isEmpty() ? null : stack.get(0);
+        }
+        Collections.reverse(stack);
+        return new ContentDecoder() {
+            @Override
+            public InputStream decode(InputStream in) throws IOException {
+                for (ContentDecoder decoder : stack) {
+                    in = decoder.decode(in);
+                }
+                return in;
+            }
+        };
+    }
+}
@@ -1,6 +1,8 @@
 package com.keedio.flume.source.http.filter;
 
 
+import com.keedio.flume.source.http.CompressedBody;
+import org.mortbay.jetty.RetryRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -8,13 +10,77 @@ import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+
+import static com.keedio.flume.source.http.KeedioHTTPSourceConfigurationConstants.DEFAULT_ZIP_BUFFER_SIZE;
+import static com.keedio.flume.source.http.KeedioHTTPSourceConfigurationConstants.DEFAULT_ZIP_POOL_SIZE;
 
 /**
+ * Decodes the request bodies in any of the <code>Content-Encoding</code>s of its {@link ContentDecoders}, as they
+ * are read, and compresses the responses of the clients accepting gzip. Requests in other encodings are answered
+ * with <code>415 Unsupported Media Type</code>. Inflaters, deflaters and buffers come from a {@link ZipPool}.
+ *
+ * The bodies of the requests to the passthrough paths, or with the passthrough header set to <code>true</code>,
+ * are not inflated: the handler finds a {@link CompressedBody} in their attributes.
+ *
  * Created by Luca Rosellini <lrosellini@keedio.com> on 28/5/15.
  */
 public class GZipFilter implements Filter {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(GZipFilter.class);
+
+    private final ContentDecoders decoders;
+    private final ZipPool pool;
+    private final List<String> passthroughPaths;
+    private final String passthroughHeader;
+
+    public GZipFilter() {
+        this(new ZipPool(DEFAULT_ZIP_POOL_SIZE, DEFAULT_ZIP_BUFFER_SIZE));
+    }
+
+    private GZipFilter(ZipPool pool) {
+        this(ContentDecoders.defaults(pool, 0, 0), pool);
+    }
+
+    /**
+     * @param decoders the decoders of the accepted encodings.
+     * @param pool where the deflaters of the responses come from.
+     */
+    public GZipFilter(ContentDecoders decoders, ZipPool pool) {
+        this(decoders, pool, Collections.<String>emptyList(), null);
+    }
+
+    /**
+     * @param decoders the decoders of the accepted encodings.
+     * @param pool where the deflaters of the responses come from.
+     * @param passthroughPaths path prefixes of the requests whose bodies are not inflated.
+     * @param passthroughHeader header asking for the body not to be inflated, null if none.
+     */
+    public GZipFilter(ContentDecoders decoders, ZipPool pool, List<String> passthroughPaths,
+                      String passthroughHeader) {
+        this.decoders = decoders;
+        this.pool = pool;
+        this.passthroughPaths = passthroughPaths;
+        this.passthroughHeader = passthroughHeader;
+    }
+
+    /**
+     * @return whether the body of the request is to be handed over as it was sent.
+     */
+    private boolean isPassthrough(HttpServletRequest request) {
+        if (passthroughHeader != null && Boolean.parseBoolean(request.getHeader(passthroughHeader))) {
+            return true;
+        }
+        String uri = request.getRequestURI();
+        for (String path : passthroughPaths) {
+            if (uri != null && uri.startsWith(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
 	
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
@@ -25,13 +91,24 @@ public class GZipFilter implements Filter {
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
         HttpServletRequest req;
         String acceptEncoding;
+        GzipRequestWrapper decoded = null;
         
         try {
             if (request instanceof HttpServletRequest) {
                 req = (HttpServletRequest) request;
-                acceptEncoding = req.getHeader("Content-Encoding");
-                if (acceptEncoding != null && acceptEncoding.toLowerCase().indexOf("gzip") > -1) {
-                    request = new GzipRequestWrapper((HttpServletRequest) request);
+                ContentDecoder decoder;
+                try {
+                    decoder = decoders.forEncoding(req.getHeader("Content-Encoding"));
+                } catch (IllegalArgumentException e) {
+                    ((HttpServletResponse) response).sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+                            e.getMessage());
+                    return;
+                }
+                if (decoder != null && isPassthrough(req)) {
+                    request.setAttribute(CompressedBody.REQUEST_ATTRIBUTE,
+                            new PassthroughBody(req.getHeader("Content-Encoding"), decoder));
+                } else if (decoder != null) {
+                    request = decoded = new GzipRequestWrapper(req, decoder);
                 }
             }
 
@@ -39,21 +116,33 @@ public class GZipFilter implements Filter {
                 req = (HttpServletRequest) request;
                 acceptEncoding = req.getHeader("Accept-Encoding");
                 if (acceptEncoding != null && acceptEncoding.toLowerCase().indexOf("gzip") > -1) {
-                    response = new GzipResponseWrapper((HttpServletResponse) response);
+                    response = new GzipResponseWrapper((HttpServletResponse) response, pool);
                 }
             }
 
 
-            chain.doFilter((ServletRequest) request, (ServletResponse) response);
+            chain.doFilter(request, response);
             if (response instanceof GzipResponseWrapper) {
-                ((GzipResponseStream) ((ServletResponse) response).getOutputStream()).finish();
+                ((GzipResponseWrapper) response).finish();
             }
+        } catch (RetryRequest e) {
+            // a suspended request, Jetty dispatches it again later
+            throw e;
         } catch (Exception e) {
             LOG.warn("Deserializer threw unexpected exception. ", e);
             ((HttpServletResponse)response).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
                     "Deserializer threw unexpected exception. "
                     + e.getMessage());
             return;
+        } finally {
+            // the body is read by now, even for suspended requests
+            if (decoded != null) {
+                decoded.release();
+            }
+            // a no-op once finished, otherwise the response failed or is written again when redispatched
+            if (response instanceof GzipResponseWrapper) {
+                ((GzipResponseWrapper) response).release();
+            }
         }
         
     }
@@ -62,4 +151,27 @@ public class GZipFilter implements Filter {
     public void destroy() {
 
     }
+
+    /**
+     * Compressed body handed over as it was sent.
+     */
+    private static final class PassthroughBody implements CompressedBody {
+        private final String encoding;
+        private final ContentDecoder decoder;
+
+        private PassthroughBody(String encoding, ContentDecoder decoder) {
+            this.encoding = encoding.trim();
+            this.decoder = decoder;
+        }
+
+        @Override
+        public String getEncoding() {
+            return encoding;
+        }
+
+        @Override
+        public InputStream decode(InputStream compressed) throws IOException {
+            return decoder.decode(compressed);
+        }
+    }
 }
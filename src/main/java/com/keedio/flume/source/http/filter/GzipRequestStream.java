@@ -3,7 +3,7 @@ package com.keedio.flume.source.http.filter;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
-import java.util.zip.GZIPInputStream;
+import java.io.InputStream;
 
 /**
  * Created by Luca Rosellini <lrosellini@keedio.com> on 28/5/15.
@@ -11,27 +11,60 @@ import java.util.zip.GZIPInputStream;
 public class GzipRequestStream extends ServletInputStream {
     private HttpServletRequest request = null;
     private ServletInputStream inStream = null;
-    private GZIPInputStream in = null;
+    private ContentDecoder decoder = null;
+    private InputStream in = null;
 
     public GzipRequestStream(HttpServletRequest request) throws IOException {
+        this(request, ContentDecoders.defaults().forEncoding("gzip"));
+    }
+
+    /**
+     * @param request the request.
+     * @param decoder the decoder of the <code>Content-Encoding</code> of the request.
+     */
+    public GzipRequestStream(HttpServletRequest request, ContentDecoder decoder) throws IOException {
         this.request = request;
         this.inStream = request.getInputStream();
-        this.in = new GZIPInputStream(this.inStream);
+        this.decoder = decoder;
+    }
+
+    /**
+     * The body is only decoded on the first read, requests dispatched again after being suspended have their body
+     * consumed already and never read it.
+     */
+    private InputStream in() throws IOException {
+        if (this.in == null) {
+            this.in = decoder.decode(this.inStream);
+        }
+        return this.in;
     }
 
     public int read() throws IOException {
-        return this.in.read();
+        return in().read();
     }
 
     public int read(byte[] b) throws IOException {
-        return this.in.read(b);
+        return in().read(b);
     }
 
     public int read(byte[] b, int off, int len) throws IOException {
-        return this.in.read(b, off, len);
+        return in().read(b, off, len);
+    }
+
+    /**
+     * Gives the inflaters and buffers of the body back to their pool, once the request is done with.
+     */
+    public void release() {
+        if (this.in instanceof InflatingInputStream) {
+            ((InflatingInputStream) this.in).release();
+        }
     }
 
     public void close() throws IOException {
-        this.in.close();
+        if (this.in != null) {
+            this.in.close();
+        } else {
+            this.inStream.close();
+        }
     }
 }
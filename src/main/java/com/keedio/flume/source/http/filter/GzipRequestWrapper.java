@@ -12,21 +12,47 @@ import java.io.InputStreamReader;
  * Created by Luca Rosellini <lrosellini@keedio.com> on 28/5/15.
  */
 public class GzipRequestWrapper extends HttpServletRequestWrapper {
+    private static final String DEFAULT_CHARSET = "UTF-8";
+
     private HttpServletRequest origRequest = null;
-    private ServletInputStream inStream = null;
+    private GzipRequestStream inStream = null;
     private BufferedReader reader = null;
 
     public GzipRequestWrapper(HttpServletRequest req) throws IOException {
         super(req);
         this.inStream = new GzipRequestStream(req);
-        this.reader = new BufferedReader(new InputStreamReader(this.inStream));
+    }
+
+    /**
+     * @param req the request.
+     * @param decoder the decoder of the <code>Content-Encoding</code> of the request.
+     */
+    public GzipRequestWrapper(HttpServletRequest req, ContentDecoder decoder) throws IOException {
+        super(req);
+        this.inStream = new GzipRequestStream(req, decoder);
+    }
+
+    /**
+     * Gives the inflaters and buffers of the body back to their pool, once the request is done with.
+     */
+    public void release() {
+        this.inStream.release();
     }
 
     public ServletInputStream getInputStream() throws IOException {
         return this.inStream;
     }
 
+    /**
+     * The reader is only built on demand, so consumers reading the decompressed bytes through
+     * {@link #getInputStream()} never pay for char decoding. It honours the request charset, UTF-8 by default.
+     */
     public BufferedReader getReader() throws IOException {
+        if (this.reader == null) {
+            String charset = getCharacterEncoding();
+            this.reader = new BufferedReader(new InputStreamReader(this.inStream,
+                    charset != null ? charset : DEFAULT_CHARSET));
+        }
         return this.reader;
     }
 }
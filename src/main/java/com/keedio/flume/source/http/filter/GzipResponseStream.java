@@ -3,45 +3,112 @@ package com.keedio.flume.source.http.filter;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 /**
+ * Writes the gzip member of a response around a deflater and a buffer taken from a {@link ZipPool}, given back
+ * once the response is finished.
+ *
  * Created by Luca Rosellini <lrosellini@keedio.com> on 28/5/15.
  */
 public class GzipResponseStream extends ServletOutputStream {
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
     private HttpServletResponse response = null;
     private ServletOutputStream outStream;
-    private GZIPOutputStream out;
+    private ZipPool pool;
+    private Deflater deflater;
+    private byte[] buf;
+    private final CRC32 crc = new CRC32();
+    private final byte[] single = new byte[1];
 
     public GzipResponseStream(HttpServletResponse response) throws IOException {
+        this(response, new ZipPool(0, 512));
+    }
+
+    /**
+     * @param response the response.
+     * @param pool where the deflater and the buffer come from.
+     */
+    public GzipResponseStream(HttpServletResponse response, ZipPool pool) throws IOException {
         this.response = response;
         this.outStream = response.getOutputStream();
-        this.out = new GZIPOutputStream(this.outStream);
+        this.pool = pool;
+        this.deflater = pool.deflater();
+        this.buf = pool.buffer();
         response.addHeader("Content-Encoding", "gzip");
+        this.outStream.write(HEADER);
     }
 
     public void write(int b) throws IOException {
-        this.out.write(b);
+        single[0] = (byte) b;
+        write(single, 0, 1);
     }
 
     public void write(byte[] b) throws IOException {
-        this.out.write(b);
+        write(b, 0, b.length);
     }
 
     public void write(byte[] b, int off, int len) throws IOException {
-        this.out.write(b, off, len);
+        if (deflater == null) {
+            throw new IOException("Response already finished");
+        }
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    private void deflate() throws IOException {
+        int n = deflater.deflate(buf, 0, buf.length);
+        if (n > 0) {
+            outStream.write(buf, 0, n);
+        }
     }
 
     public void close() throws IOException {
         this.finish();
-        this.out.close();
+        this.outStream.close();
     }
 
     public void flush() throws IOException {
-        this.out.flush();
+        this.outStream.flush();
     }
 
+    /**
+     * Writes the rest of the member and its trailer, and gives the deflater and the buffer back to the pool.
+     */
     public void finish() throws IOException {
-        this.out.finish();
+        if (deflater == null) {
+            return;
+        }
+        try {
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate();
+            }
+            int size = (int) deflater.getBytesRead();
+            int sum = (int) crc.getValue();
+            outStream.write(new byte[]{(byte) sum, (byte) (sum >> 8), (byte) (sum >> 16), (byte) (sum >> 24),
+                    (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)});
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Gives the deflater and the buffer back to the pool without writing anything more, for a response that failed
+     * before being finished. Nothing is written afterwards.
+     */
+    public void release() {
+        if (deflater == null) {
+            return;
+        }
+        pool.release(deflater);
+        pool.release(buf);
+        deflater = null;
+        buf = null;
     }
 }
@@ -13,20 +13,53 @@ public class GzipResponseWrapper extends HttpServletResponseWrapper {
     private HttpServletResponse response = null;
     private GzipResponseStream outStream = null;
     private PrintWriter writer = null;
+    private ZipPool pool = null;
 
     public GzipResponseWrapper(HttpServletResponse response) {
+        this(response, new ZipPool(0, 512));
+    }
+
+    /**
+     * @param response the response.
+     * @param pool where the deflater of the response comes from.
+     */
+    public GzipResponseWrapper(HttpServletResponse response, ZipPool pool) {
         super(response);
         this.response = response;
+        this.pool = pool;
     }
 
     public ServletOutputStream getOutputStream() throws IOException {
         if(this.outStream == null) {
-            this.outStream = new GzipResponseStream(this.response);
+            this.outStream = new GzipResponseStream(this.response, this.pool);
         }
 
         return this.outStream;
     }
 
+    /**
+     * Finishes the compressed body, if anything opened it. Nothing is written for responses without a body, whose
+     * headers are committed before the filter is back.
+     */
+    public void finish() throws IOException {
+        if (this.writer != null) {
+            this.writer.flush();
+        }
+        if (this.outStream != null) {
+            this.outStream.finish();
+        }
+    }
+
+    /**
+     * Gives the deflater of the response back to its pool, without writing the trailer when the response was not
+     * {@link #finish() finished}.
+     */
+    public void release() {
+        if (this.outStream != null) {
+            this.outStream.release();
+        }
+    }
+
     public PrintWriter getWriter() throws IOException {
         if(this.writer == null) {
             this.writer = new PrintWriter(this.getOutputStream());
@@ -0,0 +1,321 @@
+package com.keedio.flume.source.http.filter;
+
+import com.keedio.flume.source.http.RequestTooLargeException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static com.keedio.flume.source.http.KeedioHTTPSourceConfigurationConstants.MAX_INFLATED_SIZE;
+import static com.keedio.flume.source.http.KeedioHTTPSourceConfigurationConstants.MAX_INFLATE_RATIO;
+
+/**
+ * <p>
+ * Inflates a gzip or deflate body as it is read, with a single buffer for the framing and the compressed data.
+ * </p>
+ * <p>
+ * Gzip bodies may hold several members one after the other, as log shippers write them when they append to a
+ * compressed file; they are read until the end of the body, unlike <code>GZIPInputStream</code>, which stops after
+ * a member when no more bytes are available right away. As with <code>GZIPInputStream</code>, bytes after the last
+ * member that do not start another one are left unread. Deflate bodies are zlib streams or, as some clients send
+ * them, raw deflate data: the two are told apart by the zlib header.
+ * </p>
+ * <p>
+ * The inflater and the buffer come from a {@link ZipPool}, and go back to it at the end of the body, when the
+ * stream is closed or when it is {@link #release() released}, whichever comes first. The size of the inflated body,
+ * and its ratio to the compressed one, are checked as it is read, so a zip bomb fails after inflating at most the
+ * limit plus what one read asks for.
+ * </p>
+ */
+class InflatingInputStream extends InputStream {
+    /**
+     * Inflated bytes below which the ratio is not checked, small bodies of repeated jsons inflate that much.
+     */
+    private static final long RATIO_GRACE = 1024 * 1024;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final InputStream in;
+    private final boolean gzip;
+    private final ZipPool pool;
+    private final long maxSize;
+    private final double maxRatio;
+    private final byte[] single = new byte[1];
+    private final CRC32 crc;
+    private byte[] buf;
+    private Inflater inflater;
+    private boolean raw;
+    private boolean inMember;
+    private boolean padded;
+    private boolean eof;
+    private int pos;
+    private int limit;
+    private long compressed;
+    private long inflated;
+
+    /**
+     * @param in the compressed body.
+     * @param gzip true for a gzip body, false for a zlib or raw deflate one.
+     * @param pool where the inflater and the buffer come from.
+     * @param maxSize largest inflated body, 0 for no limit.
+     * @param maxRatio largest ratio of the inflated body to the compressed one, 0 for no limit.
+     */
+    InflatingInputStream(InputStream in, boolean gzip, ZipPool pool, long maxSize, double maxRatio) {
+        this.in = in;
+        this.gzip = gzip;
+        this.pool = pool;
+        this.maxSize = maxSize;
+        this.maxRatio = maxRatio;
+        this.crc = gzip ? new CRC32() : null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (!eof) {
+            if (!inMember && !start()) {
+                release();
+                break;
+            }
+            if (inflater.finished()) {
+                pos = limit - inflater.getRemaining();
+                finish();
+                continue;
+            }
+            if (inflater.needsInput()) {
+                // bytes left after the header go first
+                if (pos == limit && !fill()) {
+                    if (!raw || padded) {
+                        throw new EOFException("Unexpected end of " + (gzip ? "gzip" : "deflate") + " body");
+                    }
+                    // the inflater may need an extra byte to finish raw deflate data, as its documentation says
+                    padded = true;
+                    buf[0] = 0;
+                    limit = 1;
+                }
+                inflater.setInput(buf, pos, limit - pos);
+                pos = limit;
+            }
+            int n;
+            try {
+                n = inflater.inflate(b, off, len);
+            } catch (DataFormatException ex) {
+                throw new ZipException(ex.getMessage() != null ? ex.getMessage() : "Invalid deflate data");
+            }
+            if (n > 0) {
+                if (crc != null) {
+                    crc.update(b, off, n);
+                }
+                inflated += n;
+                checkLimits();
+                return n;
+            }
+            if (inflater.needsDictionary()) {
+                throw new ZipException("Deflate body needs a preset dictionary");
+            }
+        }
+        return -1;
+    }
+
+    private void checkLimits() {
+        if (maxSize > 0 && inflated > maxSize) {
+            throw new RequestTooLargeException("Request body larger than " + maxSize + " bytes once inflated",
+                    MAX_INFLATED_SIZE);
+        }
+        if (maxRatio > 0 && inflated > RATIO_GRACE && inflated > maxRatio * compressed) {
+            throw new RequestTooLargeException("Request body inflates more than " + maxRatio + " times",
+                    MAX_INFLATE_RATIO);
+        }
+    }
+
+    /**
+     * Reads the header of the next gzip member, or of the deflate body.
+     *
+     * @return false at the end of the body.
+     */
+    private boolean start() throws IOException {
+        if (buf == null) {
+            buf = pool.buffer();
+        }
+        if (!gzip) {
+            if (inflater != null) {
+                // a deflate body is a single stream
+                return false;
+            }
+            if (!ensure(2)) {
+                if (limit > pos) {
+                    throw new EOFException("Unexpected end of deflate body");
+                }
+                return false;
+            }
+            raw = !isZlibHeader(buf[pos] & 0xff, buf[pos + 1] & 0xff);
+            inflater = pool.inflater(raw);
+            inMember = true;
+            return true;
+        }
+        boolean first = inflater == null;
+        if (!ensure(first ? 1 : 2)) {
+            // too short for another member, trailing bytes
+            return false;
+        }
+        if (!first && ((buf[pos] & 0xff) | ((buf[pos + 1] & 0xff) << 8)) != GZIP_MAGIC) {
+            // trailing bytes after the last member, zeros some writers pad with for instance, end the body
+            return false;
+        }
+        if (readUShort() != GZIP_MAGIC) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (readUByte() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = readUByte();
+        skip(6);
+        if ((flags & FEXTRA) != 0) {
+            skip(readUShort());
+        }
+        if ((flags & FNAME) != 0) {
+            skipString();
+        }
+        if ((flags & FCOMMENT) != 0) {
+            skipString();
+        }
+        if ((flags & FHCRC) != 0) {
+            skip(2);
+        }
+        if (first) {
+            raw = true;
+            inflater = pool.inflater(true);
+        } else {
+            inflater.reset();
+        }
+        crc.reset();
+        inMember = true;
+        return true;
+    }
+
+    /**
+     * Checks the trailer of a gzip member. Deflate bodies end with their stream.
+     */
+    private void finish() throws IOException {
+        inMember = false;
+        if (!gzip) {
+            return;
+        }
+        long expected = readUInt();
+        long size = readUInt();
+        if (expected != crc.getValue()) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+        if (size != (inflater.getBytesWritten() & 0xffffffffL)) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+    }
+
+    private static boolean isZlibHeader(int cmf, int flg) {
+        return (cmf & 0x0f) == 8 && (cmf >> 4) <= 7 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /**
+     * @return whether the buffer holds at least the given bytes, reading more if needed.
+     */
+    private boolean ensure(int bytes) throws IOException {
+        while (limit - pos < bytes) {
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+            }
+            int n = in.read(buf, limit, buf.length - limit);
+            if (n < 0) {
+                return false;
+            }
+            limit += n;
+            compressed += n;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether bytes were read into the empty buffer.
+     */
+    private boolean fill() throws IOException {
+        pos = 0;
+        limit = 0;
+        int n;
+        do {
+            n = in.read(buf, 0, buf.length);
+        } while (n == 0);
+        if (n < 0) {
+            return false;
+        }
+        limit = n;
+        compressed += n;
+        return true;
+    }
+
+    private int readUByte() throws IOException {
+        if (!ensure(1)) {
+            throw new EOFException("Unexpected end of gzip body");
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    private int readUShort() throws IOException {
+        return readUByte() | (readUByte() << 8);
+    }
+
+    private long readUInt() throws IOException {
+        return (readUShort() | ((long) readUShort() << 16)) & 0xffffffffL;
+    }
+
+    private void skip(int bytes) throws IOException {
+        for (int i = 0; i < bytes; i++) {
+            readUByte();
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (readUByte() != 0) {
+            // skip until the terminating zero
+        }
+    }
+
+    /**
+     * Gives the inflater and the buffer back to the pool, and those of the stream this one reads from if it is an
+     * inflating one too. Nothing is read afterwards.
+     */
+    void release() {
+        eof = true;
+        if (inflater != null) {
+            pool.release(inflater, raw);
+            inflater = null;
+        }
+        if (buf != null) {
+            pool.release(buf);
+            buf = null;
+        }
+        if (in instanceof InflatingInputStream) {
+            ((InflatingInputStream) in).release();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        release();
+        in.close();
+    }
+}
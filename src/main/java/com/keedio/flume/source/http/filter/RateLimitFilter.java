@@ -0,0 +1,156 @@
+package com.keedio.flume.source.http.filter;
+
+import com.keedio.flume.source.http.RateLimitListener;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * <p>
+ * Answers the requests of a client over its rate with <code>429 Too Many Requests</code> and a
+ * <code>Retry-After</code> header, before anything is read. Clients are told apart by a request header, if
+ * configured and present, or by their remote address. Bytes are counted as sent, compressed or not; the bytes of
+ * requests without a <code>Content-Length</code> are counted once read, and slow down the next requests of the
+ * client instead.
+ * </p>
+ * <p>
+ * Requests dispatched again after being suspended are not counted twice.
+ * </p>
+ */
+public class RateLimitFilter implements Filter {
+    /**
+     * Status of the requests over the rate of their client, missing from the servlet API.
+     */
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private static final String ADMITTED_ATTRIBUTE = RateLimitFilter.class.getName();
+
+    private final ClientRateLimiter limiter;
+    private final String keyHeader;
+    private final RateLimitListener listener;
+    private final String requestLimit;
+    private final String byteLimit;
+
+    /**
+     * @param limiter the buckets of the clients.
+     * @param keyHeader header identifying the client, null to use the remote address.
+     * @param listener told about every rejected request, null if nobody listens.
+     * @param requestLimit name of the requests per second limit, for the listener.
+     * @param byteLimit name of the bytes per second limit, for the listener.
+     */
+    public RateLimitFilter(ClientRateLimiter limiter, String keyHeader, RateLimitListener listener,
+                           String requestLimit, String byteLimit) {
+        this.limiter = limiter;
+        this.keyHeader = keyHeader;
+        this.listener = listener;
+        this.requestLimit = requestLimit;
+        this.byteLimit = byteLimit;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) || request.getAttribute(ADMITTED_ATTRIBUTE) != null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest req = (HttpServletRequest) request;
+        String client = clientKey(req);
+        int length = req.getContentLength();
+
+        long wait = limiter.acquire(client, Math.max(length, 0));
+        if (wait != 0) {
+            String limit = wait > 0 ? requestLimit : byteLimit;
+            if (listener != null) {
+                listener.rateLimited(limit);
+            }
+            HttpServletResponse res = (HttpServletResponse) response;
+            res.setHeader("Retry-After", String.valueOf(Math.max(1, (Math.abs(wait) + 999999999L) / 1000000000L)));
+            res.sendError(SC_TOO_MANY_REQUESTS, "Too many requests from client, over " + limit + ".");
+            return;
+        }
+        request.setAttribute(ADMITTED_ATTRIBUTE, Boolean.TRUE);
+
+        if (length >= 0) {
+            chain.doFilter(request, response);
+            return;
+        }
+        CountingRequestWrapper counting = new CountingRequestWrapper(req);
+        try {
+            chain.doFilter(counting, response);
+        } finally {
+            limiter.charge(client, counting.count);
+        }
+    }
+
+    private String clientKey(HttpServletRequest request) {
+        if (keyHeader != null) {
+            String key = request.getHeader(keyHeader);
+            if (key != null && !key.trim().isEmpty()) {
+                return key.trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * Counts the bytes read from a request without a <code>Content-Length</code>.
+     */
+    private static final class CountingRequestWrapper extends HttpServletRequestWrapper {
+        private ServletInputStream in;
+        private long count;
+
+        private CountingRequestWrapper(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (in == null) {
+                final ServletInputStream wrapped = super.getInputStream();
+                in = new ServletInputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        int b = wrapped.read();
+                        if (b >= 0) {
+                            count++;
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int n = wrapped.read(b, off, len);
+                        if (n > 0) {
+                            count += n;
+                        }
+                        return n;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        wrapped.close();
+                    }
+                };
+            }
+            return in;
+        }
+    }
+}
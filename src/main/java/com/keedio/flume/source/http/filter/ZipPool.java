@@ -0,0 +1,85 @@
+package com.keedio.flume.source.http.filter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Pool of the inflaters, deflaters and buffers of compressed requests and responses. Every inflater and deflater
+ * holds native memory, freed by a finalizer when not ended: pooling them, reset for every request, spares the
+ * allocations and the finalizer work of thousands of small compressed requests per second.
+ * </p>
+ * <p>
+ * Each pool holds up to its size of idle instances, more are created when needed and ended when released to a
+ * full pool. A pool of size 0 pools nothing. Instances are thread safe.
+ * </p>
+ */
+public class ZipPool {
+    private final int bufferSize;
+    private final BlockingQueue<Inflater> rawInflaters;
+    private final BlockingQueue<Inflater> zlibInflaters;
+    private final BlockingQueue<Deflater> deflaters;
+    private final BlockingQueue<byte[]> buffers;
+
+    /**
+     * @param size the most idle instances of each kind kept.
+     * @param bufferSize the size in bytes of the buffers.
+     */
+    public ZipPool(int size, int bufferSize) {
+        this.bufferSize = bufferSize;
+        int capacity = Math.max(1, size);
+        this.rawInflaters = size > 0 ? new ArrayBlockingQueue<Inflater>(capacity) : null;
+        this.zlibInflaters = size > 0 ? new ArrayBlockingQueue<Inflater>(capacity) : null;
+        this.deflaters = size > 0 ? new ArrayBlockingQueue<Deflater>(capacity) : null;
+        this.buffers = size > 0 ? new ArrayBlockingQueue<byte[]>(capacity) : null;
+    }
+
+    /**
+     * @param nowrap true for raw deflate data, false for zlib streams.
+     * @return an inflater, to be {@link #release(Inflater, boolean) released} with the same flag once done.
+     */
+    Inflater inflater(boolean nowrap) {
+        BlockingQueue<Inflater> pool = nowrap ? rawInflaters : zlibInflaters;
+        Inflater inflater = pool != null ? pool.poll() : null;
+        return inflater != null ? inflater : new Inflater(nowrap);
+    }
+
+    void release(Inflater inflater, boolean nowrap) {
+        BlockingQueue<Inflater> pool = nowrap ? rawInflaters : zlibInflaters;
+        inflater.reset();
+        if (pool == null || !pool.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return a deflater of raw deflate data at the default level, to be {@link #release(Deflater) released}.
+     */
+    Deflater deflater() {
+        Deflater deflater = deflaters != null ? deflaters.poll() : null;
+        return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    void release(Deflater deflater) {
+        deflater.reset();
+        if (deflaters == null || !deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return a buffer of the pool size, to be {@link #release(byte[]) released}.
+     */
+    byte[] buffer() {
+        byte[] buffer = buffers != null ? buffers.poll() : null;
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    void release(byte[] buffer) {
+        if (buffers != null) {
+            buffers.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.keedio.flume.source.http.json.handler;
+
+/**
+ * <p>
+ * Fast non cryptographic 64 bit hash of event bodies, MurmurHash64A by Austin Appleby. Eight bytes are mixed at a
+ * time, and the result is well enough distributed to be used as the key of a Bloom filter. It is not meant to
+ * resist anyone crafting collisions on purpose.
+ * </p>
+ * <p>
+ * The class is stateless and thread safe.
+ * </p>
+ */
+final class BodyHash {
+    private static final long M = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+    private static final long SEED = 0xe17a1465L;
+
+    private BodyHash() {
+    }
+
+    /**
+     * @param data the bytes to hash.
+     * @param offset offset of the first byte.
+     * @param length number of bytes.
+     * @return the hash of the bytes.
+     */
+    static long hash(byte[] data, int offset, int length) {
+        long h = SEED ^ (length * M);
+
+        int end = offset + (length & ~7);
+        for (int i = offset; i < end; i += 8) {
+            long k = (data[i] & 0xffL)
+                    | (data[i + 1] & 0xffL) << 8
+                    | (data[i + 2] & 0xffL) << 16
+                    | (data[i + 3] & 0xffL) << 24
+                    | (data[i + 4] & 0xffL) << 32
+                    | (data[i + 5] & 0xffL) << 40
+                    | (data[i + 6] & 0xffL) << 48
+                    | (data[i + 7] & 0xffL) << 56;
+            k *= M;
+            k ^= k >>> R;
+            k *= M;
+            h ^= k;
+            h *= M;
+        }
+
+        switch (length & 7) {
+            case 7:
+                h ^= (data[end + 6] & 0xffL) << 48;
+                // fall through
+            case 6:
+                h ^= (data[end + 5] & 0xffL) << 40;
+                // fall through
+            case 5:
+                h ^= (data[end + 4] & 0xffL) << 32;
+                // fall through
+            case 4:
+                h ^= (data[end + 3] & 0xffL) << 24;
+                // fall through
+            case 3:
+                h ^= (data[end + 2] & 0xffL) << 16;
+                // fall through
+            case 2:
+                h ^= (data[end + 1] & 0xffL) << 8;
+                // fall through
+            case 1:
+                h ^= data[end] & 0xffL;
+                h *= M;
+                break;
+            default:
+                break;
+        }
+
+        h ^= h >>> R;
+        h *= M;
+        h ^= h >>> R;
+        return h;
+    }
+
+    /**
+     * @param hash the hash of something.
+     * @param index a position.
+     * @return a hash of both, for the position-th event of a request identified by the hash.
+     */
+    static long combine(long hash, long index) {
+        long h = hash ^ (index + 1) * M;
+        h ^= h >>> R;
+        h *= M;
+        h ^= h >>> R;
+        return h;
+    }
+
+    /**
+     * @param hash a hash.
+     * @return the hash as 16 lower case hexadecimal digits.
+     */
+    static String toHex(long hash) {
+        char[] digits = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            digits[i] = Character.forDigit((int) (hash & 0xf), 16);
+            hash >>>= 4;
+        }
+        return new String(digits);
+    }
+}
@@ -0,0 +1,72 @@
+package com.keedio.flume.source.http.json.handler;
+
+import com.keedio.flume.source.http.RequestTooLargeException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static com.keedio.flume.source.http.json.handler.KeedioJSONHandlerConfigurationConstants.MAX_BODY_SIZE;
+
+/**
+ * <p>
+ * Stream failing as soon as more than a given number of bytes are read from it, so an oversized request is
+ * rejected after reading at most that many bytes instead of after reading and parsing it all. The bytes are those
+ * of the request body as the handler sees them, after {@link com.keedio.flume.source.http.filter.GZipFilter}
+ * decompressed them.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the handler creates one per request.
+ * </p>
+ */
+class BoundedInputStream extends FilterInputStream {
+    private final long maxBytes;
+    private long remaining;
+
+    /**
+     * @param in the request input.
+     * @param maxBytes the maximum number of bytes read.
+     */
+    BoundedInputStream(InputStream in, long maxBytes) {
+        super(in);
+        this.maxBytes = maxBytes;
+        this.remaining = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0) {
+            count(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            count(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(long n) {
+        remaining -= n;
+        if (remaining < 0) {
+            throw new RequestTooLargeException("Request body larger than " + maxBytes + " bytes", MAX_BODY_SIZE);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.keedio.flume.source.http.json.handler;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * <p>
+ * Bounded pool of the byte buffers used while reading a request, shared by every request so they are not
+ * allocated again each time. Buffers grown beyond a maximum size are left to the garbage collector instead of
+ * being kept, so a few huge requests do not pin memory forever.
+ * </p>
+ * <p>
+ * Jackson parser buffers are not pooled here: {@link org.codehaus.jackson.JsonFactory} already recycles them per
+ * thread.
+ * </p>
+ * <p>
+ * Instances are thread safe.
+ * </p>
+ */
+final class BufferPool {
+    private final ArrayBlockingQueue<byte[]> buffers;
+    private final int bufferSize;
+    private final int maxBufferSize;
+
+    /**
+     * @param poolSize maximum number of idle buffers kept, 0 to disable pooling.
+     * @param bufferSize size of new buffers.
+     * @param maxBufferSize size of the largest buffer put back into the pool.
+     */
+    BufferPool(int poolSize, int bufferSize, int maxBufferSize) {
+        this.buffers = poolSize > 0 ? new ArrayBlockingQueue<byte[]>(poolSize) : null;
+        this.bufferSize = bufferSize;
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    /**
+     * @return an idle buffer, or a new one if there are none.
+     */
+    byte[] acquire() {
+        byte[] buffer = buffers == null ? null : buffers.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * @param sizeHint the number of bytes expected. The buffer is sized for them, but never larger than the
+     * largest pooled buffer, so a claimed size alone does not allocate more.
+     * @return an idle buffer, or a new one if there are none or they are too small.
+     */
+    byte[] acquire(int sizeHint) {
+        byte[] buffer = acquire();
+        int capacity = Math.min(sizeHint, maxBufferSize);
+        if (buffer.length >= capacity) {
+            return buffer;
+        }
+        release(buffer);
+        return new byte[capacity];
+    }
+
+    /**
+     * Grows a buffer, releasing the old one.
+     *
+     * @param buffer the buffer, acquired from this pool.
+     * @param length number of bytes of the buffer in use, copied to the new one.
+     * @param capacity the minimum capacity needed.
+     * @return the new buffer.
+     */
+    byte[] grow(byte[] buffer, int length, int capacity) {
+        byte[] grown = new byte[Math.max(capacity, buffer.length * 2)];
+        System.arraycopy(buffer, 0, grown, 0, length);
+        release(buffer);
+        return grown;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used afterwards.
+     *
+     * @param buffer the buffer, acquired from this pool.
+     */
+    void release(byte[] buffer) {
+        if (buffers != null && buffer.length <= maxBufferSize && buffer.length >= bufferSize) {
+            buffers.offer(buffer);
+        }
+    }
+
+    /**
+     * @return the number of idle buffers.
+     */
+    int idle() {
+        return buffers == null ? 0 : buffers.size();
+    }
+}
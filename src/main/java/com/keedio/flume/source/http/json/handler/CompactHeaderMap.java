@@ -0,0 +1,245 @@
+package com.keedio.flume.source.http.json.handler;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>
+ * Immutable header map backed by two arrays, built once per request and shared by all of its events instead of
+ * copying a hash map into every one of them.
+ * </p>
+ * <p>
+ * Events do not get the map itself but a {@link #share() view} of it: interceptors down the line are free to add,
+ * replace or remove headers of an event, the view copies the headers into a map of its own on the first write
+ * and the other events keep seeing the shared ones.
+ * </p>
+ */
+final class CompactHeaderMap extends AbstractMap<String, String> {
+    static final CompactHeaderMap EMPTY = new CompactHeaderMap(new String[0], new String[0]);
+
+    private final String[] keys;
+    private final String[] values;
+
+    private CompactHeaderMap(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * @param headers the headers, iterated once.
+     */
+    CompactHeaderMap(Map<String, String> headers) {
+        this(new String[headers.size()], new String[headers.size()]);
+        int i = 0;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            keys[i] = header.getKey();
+            values[i++] = header.getValue();
+        }
+    }
+
+    /**
+     * @param headers the headers to add, replacing the ones with the same name.
+     * @return a map holding the headers of this one plus the given ones.
+     */
+    CompactHeaderMap with(Map<String, String> headers) {
+        if (headers.isEmpty()) {
+            return this;
+        }
+        Map<String, String> merged = new LinkedHashMap<>(this);
+        merged.putAll(headers);
+        return new CompactHeaderMap(merged);
+    }
+
+    /**
+     * @return a mutable view of the headers for a single event, which copies them on its first write.
+     */
+    Map<String, String> share() {
+        return new SharedView(this);
+    }
+
+    /**
+     * @param headers the headers of an event.
+     * @param other the headers of another event.
+     * @return whether both events have the same headers, without comparing them when both are untouched views of
+     * the same shared map.
+     */
+    static boolean sameHeaders(Map<String, String> headers, Map<String, String> other) {
+        if (headers == other) {
+            return true;
+        }
+        if (headers instanceof SharedView && other instanceof SharedView) {
+            SharedView view = (SharedView) headers;
+            SharedView otherView = (SharedView) other;
+            if (view.own == null && otherView.own == null && view.shared == otherView.shared) {
+                return true;
+            }
+        }
+        return headers.equals(other);
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : values[i];
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < keys.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (next >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<String, String> entry = new SimpleImmutableEntry<>(keys[next], values[next]);
+                        next++;
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    /**
+     * Headers of a single event: reads go to the shared map until the first write copies it.
+     */
+    private static final class SharedView extends AbstractMap<String, String> {
+        private final CompactHeaderMap shared;
+        private Map<String, String> own;
+
+        private SharedView(CompactHeaderMap shared) {
+            this.shared = shared;
+        }
+
+        private Map<String, String> current() {
+            return own == null ? shared : own;
+        }
+
+        private Map<String, String> own() {
+            if (own == null) {
+                own = new HashMap<>(shared);
+            }
+            return own;
+        }
+
+        @Override
+        public int size() {
+            return current().size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return current().containsKey(key);
+        }
+
+        @Override
+        public String get(Object key) {
+            return current().get(key);
+        }
+
+        @Override
+        public String put(String key, String value) {
+            return own().put(key, value);
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends String> headers) {
+            own().putAll(headers);
+        }
+
+        @Override
+        public String remove(Object key) {
+            return own == null && !shared.containsKey(key) ? null : own().remove(key);
+        }
+
+        @Override
+        public void clear() {
+            own = new HashMap<>();
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            if (own != null) {
+                return own.entrySet();
+            }
+            return new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    final Iterator<Map.Entry<String, String>> entries = shared.entrySet().iterator();
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private Map.Entry<String, String> last;
+
+                        @Override
+                        public boolean hasNext() {
+                            return entries.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            return last = entries.next();
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (last == null) {
+                                throw new IllegalStateException();
+                            }
+                            own().remove(last.getKey());
+                            last = null;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return SharedView.this.size();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.keedio.flume.source.http.json.handler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Time windowed Bloom filter of the hashes of the events recently committed, shared by every request. It is made
+ * of two generations: hashes go into the current one, lookups check both, and every half window the current
+ * generation becomes the previous one and a new, empty one takes its place. A hash is thus remembered for at
+ * least half the window and at most the whole window, in constant memory.
+ * </p>
+ * <p>
+ * A Bloom filter never misses a hash it holds, but may find one it does not: a new event is then dropped as a
+ * duplicate. Each generation is sized for a number of hashes and a false positive rate; over that number the
+ * rate grows, which {@link #falsePositiveRate()} estimates from the hashes added so far.
+ * </p>
+ * <p>
+ * Bits are set with compare and swap, without locking. Instances are thread safe.
+ * </p>
+ */
+final class DedupFilter {
+    private final long bits;
+    private final int hashes;
+    private final long halfWindowMillis;
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    /**
+     * @param capacity number of hashes a generation holds at the given false positive rate.
+     * @param falsePositiveRate the false positive rate of a generation at capacity.
+     * @param windowMillis milliseconds a hash is remembered for, at most.
+     */
+    DedupFilter(long capacity, double falsePositiveRate, long windowMillis) {
+        double ln2 = Math.log(2);
+        this.bits = Math.max(64, (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2)));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / capacity * ln2));
+        this.halfWindowMillis = Math.max(1, windowMillis / 2);
+        long now = System.currentTimeMillis();
+        this.current = new Generation(bits, now);
+        this.previous = new Generation(bits, now);
+    }
+
+    /**
+     * @param hash the hash of an event.
+     * @return whether the hash was probably added within the window, false if it was certainly not.
+     */
+    boolean mightContain(long hash) {
+        rotate(System.currentTimeMillis());
+        return current.contains(hash) || previous.contains(hash);
+    }
+
+    /**
+     * @param hash the hash of an event committed to the channel.
+     */
+    void put(long hash) {
+        rotate(System.currentTimeMillis());
+        current.put(hash);
+    }
+
+    /**
+     * @return the estimated probability of finding a hash that was never added.
+     */
+    double falsePositiveRate() {
+        return 1 - (1 - current.falsePositiveRate()) * (1 - previous.falsePositiveRate());
+    }
+
+    /**
+     * @return the number of bits of a generation.
+     */
+    long bits() {
+        return bits;
+    }
+
+    /**
+     * @return the number of bits set for every hash.
+     */
+    int hashes() {
+        return hashes;
+    }
+
+    private void rotate(long now) {
+        if (now - current.created >= halfWindowMillis) {
+            synchronized (this) {
+                if (now - current.created >= halfWindowMillis) {
+                    // both generations are stale after a whole window without requests
+                    previous = now - current.created >= 2 * halfWindowMillis ? new Generation(bits, now) : current;
+                    current = new Generation(bits, now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Bit array of a half window. Probes are derived from the two halves of the hash, double hashing style.
+     */
+    private final class Generation {
+        private final AtomicLongArray words;
+        private final AtomicLong count = new AtomicLong();
+        private final long created;
+
+        private Generation(long bits, long created) {
+            this.words = new AtomicLongArray((int) ((bits + 63) >>> 6));
+            this.created = created;
+        }
+
+        private boolean contains(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void put(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            boolean added = false;
+            for (int i = 0; i < hashes; i++) {
+                long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long value;
+                while (((value = words.get(word)) & mask) == 0) {
+                    if (words.compareAndSet(word, value, value | mask)) {
+                        added = true;
+                        break;
+                    }
+                }
+            }
+            if (added) {
+                count.incrementAndGet();
+            }
+        }
+
+        private double falsePositiveRate() {
+            return Math.pow(1 - Math.exp(-(double) hashes * count.get() / bits), hashes);
+        }
+    }
+}
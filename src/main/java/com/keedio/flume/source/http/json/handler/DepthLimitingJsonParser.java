@@ -0,0 +1,60 @@
+package com.keedio.flume.source.http.json.handler;
+
+import com.keedio.flume.source.http.RequestTooLargeException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.util.JsonParserDelegate;
+
+import java.io.IOException;
+
+import static com.keedio.flume.source.http.json.handler.KeedioJSONHandlerConfigurationConstants.MAX_DEPTH;
+
+/**
+ * <p>
+ * Parser failing as soon as objects and arrays are nested deeper than a given depth, root level arrays included.
+ * It sits right on top of the parser over the request input, and skips children token by token, so no subtree
+ * escapes the check, not even the ones other parsers drop.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the handler creates one per request.
+ * </p>
+ */
+class DepthLimitingJsonParser extends JsonParserDelegate {
+    private final int maxDepth;
+    private int depth;
+
+    /**
+     * @param parser the parser over the request input.
+     * @param maxDepth the maximum nesting depth, 1 for flat objects.
+     */
+    DepthLimitingJsonParser(JsonParser parser, int maxDepth) {
+        super(parser);
+        this.maxDepth = maxDepth;
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        JsonToken token = delegate.nextToken();
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            if (++depth > maxDepth) {
+                throw new RequestTooLargeException("Json nested deeper than " + maxDepth + " levels at "
+                        + delegate.getTokenLocation(), MAX_DEPTH);
+            }
+        } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+            depth--;
+        }
+        return token;
+    }
+
+    @Override
+    public JsonParser skipChildren() throws IOException {
+        JsonToken token = delegate.getCurrentToken();
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            int target = depth - 1;
+            while (depth > target && nextToken() != null) {
+                // the depth is checked as the tokens go by
+            }
+        }
+        return this;
+    }
+}
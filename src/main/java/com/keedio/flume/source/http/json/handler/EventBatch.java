@@ -0,0 +1,160 @@
+package com.keedio.flume.source.http.json.handler;
+
+import com.keedio.flume.source.http.EventBatchSink;
+import com.keedio.flume.source.http.RequestTooLargeException;
+import org.apache.flume.Event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static com.keedio.flume.source.http.json.handler.KeedioJSONHandlerConfigurationConstants.MAX_OBJECTS;
+
+/**
+ * <p>
+ * Events of a request as they are built. With a sink, every time the pending events reach the batch size they
+ * are handed to the sink and forgotten, so the memory held depends on the batch size and not on the request size.
+ * Without one, every event is kept until the whole request is read.
+ * </p>
+ * <p>
+ * The number of events of a request may be limited, a request going over the limit fails as soon as it does.
+ * </p>
+ * <p>
+ * Events may go through a {@link RequestDeduplicator}, which drops the duplicates of events already committed and
+ * is told about the sub-batches once delivered.
+ * </p>
+ * <p>
+ * Events may be packed into envelopes by an {@link EventCoalescer}: the batch size then counts envelopes, while the
+ * limit on the number of events and the duplicate filter still see every event.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the handler creates one per request.
+ * </p>
+ */
+class EventBatch {
+    private final EventBatchSink sink;
+    private final int batchSize;
+    private final int maxEvents;
+    private final RequestDeduplicator deduplicator;
+    private final EventCoalescer coalescer;
+    private List<Event> pending = new ArrayList<>();
+    private List<Event> pendingMembers = new ArrayList<>();
+    private int added;
+    private int dropped;
+
+    /**
+     * @param sink where full batches are delivered, null to keep every event.
+     * @param batchSize number of events of a full batch.
+     * @param maxEvents maximum number of events of the request, 0 for no limit.
+     */
+    EventBatch(EventBatchSink sink, int batchSize, int maxEvents) {
+        this(sink, batchSize, maxEvents, null);
+    }
+
+    /**
+     * @param sink where full batches are delivered, null to keep every event.
+     * @param batchSize number of events of a full batch.
+     * @param maxEvents maximum number of events of the request, 0 for no limit.
+     * @param deduplicator the duplicate filter of the request, null to keep every event.
+     */
+    EventBatch(EventBatchSink sink, int batchSize, int maxEvents, RequestDeduplicator deduplicator) {
+        this(sink, batchSize, maxEvents, deduplicator, null);
+    }
+
+    /**
+     * @param sink where full batches are delivered, null to keep every event.
+     * @param batchSize number of events, or envelopes, of a full batch.
+     * @param maxEvents maximum number of events of the request, 0 for no limit.
+     * @param deduplicator the duplicate filter of the request, null to keep every event.
+     * @param coalescer packs the events into envelopes, null to keep them as they are.
+     */
+    EventBatch(EventBatchSink sink, int batchSize, int maxEvents, RequestDeduplicator deduplicator,
+               EventCoalescer coalescer) {
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.maxEvents = maxEvents;
+        this.deduplicator = deduplicator;
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * @param event the next event of the request.
+     */
+    void add(Event event) {
+        if (maxEvents > 0 && size() >= maxEvents) {
+            throw new RequestTooLargeException("More than " + maxEvents + " jsons in the request", MAX_OBJECTS);
+        }
+        if (deduplicator != null && !deduplicator.accept(event)) {
+            dropped++;
+            return;
+        }
+        added++;
+        if (coalescer == null) {
+            append(event, null);
+            return;
+        }
+        if (!coalescer.accepts(event)) {
+            flushEnvelope();
+        }
+        coalescer.add(event);
+        if (coalescer.isFull()) {
+            flushEnvelope();
+        }
+    }
+
+    /**
+     * Appends the current envelope to the batch.
+     */
+    private void flushEnvelope() {
+        List<Event> members = coalescer.members();
+        append(coalescer.flush(), members);
+    }
+
+    /**
+     * @param event the next event, or envelope, of the batch.
+     * @param members the events of the envelope, null if the event is not an envelope.
+     */
+    private void append(Event event, List<Event> members) {
+        pending.add(event);
+        if (members != null && deduplicator != null) {
+            pendingMembers.addAll(members);
+        }
+        if (sink != null && pending.size() >= batchSize) {
+            List<Event> batch = pending;
+            List<Event> batchMembers = coalescer == null ? batch : pendingMembers;
+            pending = new ArrayList<>(batchSize);
+            pendingMembers = new ArrayList<>();
+            sink.process(batch);
+            if (deduplicator != null) {
+                deduplicator.committed(batchMembers);
+            }
+        }
+    }
+
+    /**
+     * @param events the next events of the request.
+     */
+    void addAll(Collection<Event> events) {
+        for (Event event : events) {
+            add(event);
+        }
+    }
+
+    /**
+     * @return the events not delivered yet, the last envelope included once the request is read.
+     */
+    List<Event> pending() {
+        if (coalescer != null && !coalescer.isEmpty()) {
+            pending.add(coalescer.flush());
+        }
+        return pending;
+    }
+
+    /**
+     * @return the number of events of the request so far, delivered, pending or dropped as duplicates, before
+     * they are packed into envelopes.
+     */
+    int size() {
+        return added + dropped;
+    }
+}
@@ -0,0 +1,160 @@
+package com.keedio.flume.source.http.json.handler;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.SimpleEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Packs consecutive events of a request into envelope events, so the channel and the sinks pay the per event cost
+ * once for many small jsons. An envelope holds up to a number of events or of body bytes, whichever comes first;
+ * a single body over the byte limit gets an envelope of its own. Only events with the same headers share an
+ * envelope, which gets those headers plus one with the number of events it holds.
+ * </p>
+ * <p>
+ * Envelopes are either a json array of the bodies, which must then be jsons, or the bodies one after the other,
+ * each prefixed by its length as a 4 byte big endian integer, for any body format.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the handler creates one per request.
+ * </p>
+ */
+final class EventCoalescer {
+    /**
+     * Layout of the envelope bodies.
+     */
+    enum Format {
+        ARRAY,
+        LENGTH_PREFIXED;
+
+        /**
+         * @param name the configured format name, case insensitive.
+         * @return the matching format.
+         * @throws IllegalArgumentException if the name does not match any format.
+         */
+        static Format fromString(String name) {
+            String trimmed = name.trim();
+            if (trimmed.equalsIgnoreCase("array")) {
+                return ARRAY;
+            } else if (trimmed.equalsIgnoreCase("lengthPrefixed")) {
+                return LENGTH_PREFIXED;
+            }
+            throw new IllegalArgumentException("Unknown envelope format " + name
+                    + ", expected array or lengthPrefixed");
+        }
+    }
+
+    private final int maxEvents;
+    private final int maxBytes;
+    private final Format format;
+    private final String countHeader;
+    private List<Event> members = new ArrayList<>();
+    private int bytes;
+
+    /**
+     * @param maxEvents largest number of events of an envelope, 0 for no limit.
+     * @param maxBytes largest size of an envelope body in bytes, 0 for no limit.
+     * @param format layout of the envelope bodies.
+     * @param countHeader name of the header set to the number of events of an envelope.
+     */
+    EventCoalescer(int maxEvents, int maxBytes, Format format, String countHeader) {
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
+        this.format = format;
+        this.countHeader = countHeader;
+    }
+
+    /**
+     * @param event the next event of the request.
+     * @return whether the event fits in the current envelope, false if the envelope must be flushed first.
+     */
+    boolean accepts(Event event) {
+        if (members.isEmpty()) {
+            return true;
+        }
+        return (maxBytes <= 0 || size() + overhead() + event.getBody().length <= maxBytes)
+                && CompactHeaderMap.sameHeaders(members.get(0).getHeaders(), event.getHeaders());
+    }
+
+    /**
+     * @param event an event the current envelope {@link #accepts(Event) accepts}.
+     */
+    void add(Event event) {
+        bytes += overhead() + event.getBody().length;
+        members.add(event);
+    }
+
+    /**
+     * @return whether the current envelope cannot take any more events.
+     */
+    boolean isFull() {
+        return (maxEvents > 0 && members.size() >= maxEvents) || (maxBytes > 0 && size() >= maxBytes);
+    }
+
+    boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    /**
+     * @return the events added since the last flush.
+     */
+    List<Event> members() {
+        return members;
+    }
+
+    /**
+     * Builds the envelope of the events added since the last flush and starts a new one.
+     *
+     * @return the envelope.
+     */
+    Event flush() {
+        byte[] body = new byte[size()];
+        int offset = 0;
+        for (Event member : members) {
+            byte[] memberBody = member.getBody();
+            if (format == Format.ARRAY) {
+                body[offset] = (byte) (offset == 0 ? '[' : ',');
+                offset++;
+            } else {
+                body[offset++] = (byte) (memberBody.length >>> 24);
+                body[offset++] = (byte) (memberBody.length >>> 16);
+                body[offset++] = (byte) (memberBody.length >>> 8);
+                body[offset++] = (byte) memberBody.length;
+            }
+            System.arraycopy(memberBody, 0, body, offset, memberBody.length);
+            offset += memberBody.length;
+        }
+        if (format == Format.ARRAY) {
+            body[offset] = ']';
+        }
+
+        // the headers of the first event are not shared with any other event once it is gone
+        Map<String, String> headers = members.get(0).getHeaders();
+        headers.put(countHeader, String.valueOf(members.size()));
+        Event envelope = new SimpleEvent();
+        envelope.setBody(body);
+        envelope.setHeaders(headers);
+
+        members = new ArrayList<>(members.size());
+        bytes = 0;
+        return envelope;
+    }
+
+    /**
+     * @return the size in bytes of the envelope body of the events added so far.
+     */
+    private int size() {
+        return format == Format.ARRAY ? bytes + 1 : bytes;
+    }
+
+    /**
+     * @return the bytes an envelope takes for every event besides its body: the comma or the opening bracket of
+     * an array, the length of a length prefixed body.
+     */
+    private int overhead() {
+        return format == Format.ARRAY ? 1 : 4;
+    }
+}
@@ -0,0 +1,140 @@
+package com.keedio.flume.source.http.json.handler;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.util.JsonParserDelegate;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Parser capturing the values found at some json paths as the tokens go by, to promote them to event headers
+ * without parsing the bodies again. Paths are labeled with the header names, see {@link JsonPathNode}. Only
+ * scalar values are captured, as their text, and if a path matches more than once the first value wins. Null
+ * values are not captured.
+ * </p>
+ * <p>
+ * Captured values are cleared when a new root level object starts, so they must be read once the object has
+ * been consumed and before asking for the next one. Subtrees skipped with {@link #skipChildren()} are still
+ * walked token by token if a path leads into them.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the handler creates one per request.
+ * </p>
+ */
+class HeaderCapturingJsonParser extends JsonParserDelegate {
+    private final JsonPathNode[] root;
+
+    /**
+     * Path nodes matched by the containers the parser is in; null for a root level array.
+     */
+    private JsonPathNode[][] frames = new JsonPathNode[16][];
+    private boolean[] arrays = new boolean[16];
+    private int depth;
+    private JsonPathNode[] fieldNodes = JsonPathNode.NO_NODES;
+
+    private final Map<String, String> captured = new HashMap<>();
+
+    /**
+     * @param parser the parser over the request input.
+     * @param headerPaths the paths to capture, labeled with their header names.
+     */
+    HeaderCapturingJsonParser(JsonParser parser, JsonPathNode headerPaths) {
+        super(parser);
+        this.root = new JsonPathNode[]{headerPaths};
+    }
+
+    /**
+     * @return the values captured from the current root level object, by header name.
+     */
+    Map<String, String> getCapturedHeaders() {
+        return captured;
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        JsonToken token = delegate.nextToken();
+        if (token == null) {
+            return null;
+        }
+
+        switch (token) {
+            case END_OBJECT:
+            case END_ARRAY:
+                if (depth > 0) {
+                    frames[--depth] = null;
+                }
+                break;
+            case FIELD_NAME:
+                fieldNodes = JsonPathNode.children(frames[depth - 1], delegate.getCurrentName());
+                break;
+            default:
+                JsonPathNode[] nodes = valueNodes();
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    if (depth == 0 || frames[depth - 1] == null) {
+                        // a root level json, on its own or in a root level array
+                        if (token == JsonToken.START_OBJECT) {
+                            captured.clear();
+                            nodes = root;
+                        } else {
+                            nodes = depth == 0 ? null : JsonPathNode.NO_NODES;
+                        }
+                    }
+                    push(nodes, token == JsonToken.START_ARRAY);
+                } else if (token != JsonToken.VALUE_NULL) {
+                    capture(nodes);
+                }
+        }
+        return token;
+    }
+
+    /**
+     * @return the path nodes matched by the value the parser is on.
+     */
+    private JsonPathNode[] valueNodes() {
+        if (depth == 0 || frames[depth - 1] == null) {
+            return JsonPathNode.NO_NODES;
+        }
+        return arrays[depth - 1] ? JsonPathNode.children(frames[depth - 1], null) : fieldNodes;
+    }
+
+    private void capture(JsonPathNode[] nodes) throws IOException {
+        for (JsonPathNode node : nodes) {
+            for (String header : node.getLabels()) {
+                if (!captured.containsKey(header)) {
+                    captured.put(header, delegate.getText());
+                }
+            }
+        }
+    }
+
+    private void push(JsonPathNode[] nodes, boolean array) {
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+            arrays = Arrays.copyOf(arrays, depth * 2);
+        }
+        arrays[depth] = array;
+        frames[depth++] = nodes;
+    }
+
+    @Override
+    public JsonParser skipChildren() throws IOException {
+        JsonToken token = delegate.getCurrentToken();
+        if (token != JsonToken.START_OBJECT && token != JsonToken.START_ARRAY) {
+            return this;
+        }
+        if (frames[depth - 1] != null && frames[depth - 1].length == 0) {
+            frames[--depth] = null;
+            delegate.skipChildren();
+        } else {
+            int target = depth - 1;
+            while (depth > target && nextToken() != null) {
+                // frames are popped as the closing tokens go by
+            }
+        }
+        return this;
+    }
+}
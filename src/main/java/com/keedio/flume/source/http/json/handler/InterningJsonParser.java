@@ -0,0 +1,45 @@
+package com.keedio.flume.source.http.json.handler;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.util.JsonParserDelegate;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * Parser returning the string values through a shared {@link StringInterner}, so the maps built by the tree mode
+ * and the captured header values reuse the instances of the values seen before.
+ * </p>
+ * <p>
+ * Field names are left alone: Jackson already canonicalizes them in the symbol table shared by every parser of
+ * the same {@link org.codehaus.jackson.JsonFactory}.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the handler creates one per request.
+ * </p>
+ */
+class InterningJsonParser extends JsonParserDelegate {
+    private final StringInterner interner;
+    private final StringInterner.Counts counts;
+
+    /**
+     * @param parser the parser over the request input.
+     * @param interner the cache of string values.
+     * @param counts where the lookups are counted.
+     */
+    InterningJsonParser(JsonParser parser, StringInterner interner, StringInterner.Counts counts) {
+        super(parser);
+        this.interner = interner;
+        this.counts = counts;
+    }
+
+    @Override
+    public String getText() throws IOException {
+        if (delegate.getCurrentToken() != JsonToken.VALUE_STRING) {
+            return delegate.getText();
+        }
+        return interner.intern(delegate.getTextCharacters(), delegate.getTextOffset(), delegate.getTextLength(),
+                counts);
+    }
+}
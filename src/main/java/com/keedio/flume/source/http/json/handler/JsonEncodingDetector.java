@@ -0,0 +1,79 @@
+package com.keedio.flume.source.http.json.handler;
+
+import org.codehaus.jackson.JsonEncoding;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+
+/**
+ * <p>
+ * Detects the Unicode encoding of a JSON input looking at its first bytes, as described in RFC 4627, section 3.
+ * A byte order mark, if present, decides the encoding and is consumed. Otherwise the position of the zero bytes
+ * around the first character, which is always ASCII in a JSON text, tells UTF-8, UTF-16 and UTF-32 apart.
+ * </p>
+ */
+final class JsonEncodingDetector {
+    /**
+     * Number of bytes that must be allowed to be pushed back into the stream handed to {@link #detect}.
+     */
+    static final int PUSHBACK_SIZE = 4;
+
+    private JsonEncodingDetector() {
+    }
+
+    /**
+     * Detects the encoding of the input, consuming the byte order mark if there is one. Every other byte read is
+     * pushed back into the stream.
+     *
+     * @param in the request input.
+     * @return the detected encoding, UTF-8 if the input is too short to tell.
+     * @throws IOException if the input cannot be read.
+     */
+    static JsonEncoding detect(PushbackInputStream in) throws IOException {
+        byte[] head = new byte[PUSHBACK_SIZE];
+        int n = 0;
+        int read;
+        while (n < head.length && (read = in.read(head, n, head.length - n)) > 0) {
+            n += read;
+        }
+
+        int b0 = n > 0 ? head[0] & 0xFF : -1;
+        int b1 = n > 1 ? head[1] & 0xFF : -1;
+        int b2 = n > 2 ? head[2] & 0xFF : -1;
+        int b3 = n > 3 ? head[3] & 0xFF : -1;
+
+        JsonEncoding encoding;
+        int bom = 0;
+        if (b0 == 0x00 && b1 == 0x00 && b2 == 0xFE && b3 == 0xFF) {
+            encoding = JsonEncoding.UTF32_BE;
+            bom = 4;
+        } else if (b0 == 0xFF && b1 == 0xFE && b2 == 0x00 && b3 == 0x00) {
+            encoding = JsonEncoding.UTF32_LE;
+            bom = 4;
+        } else if (b0 == 0xFE && b1 == 0xFF) {
+            encoding = JsonEncoding.UTF16_BE;
+            bom = 2;
+        } else if (b0 == 0xFF && b1 == 0xFE) {
+            encoding = JsonEncoding.UTF16_LE;
+            bom = 2;
+        } else if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+            encoding = JsonEncoding.UTF8;
+            bom = 3;
+        } else if (b0 == 0x00 && b1 == 0x00 && b2 == 0x00 && b3 > 0) {
+            encoding = JsonEncoding.UTF32_BE;
+        } else if (b0 > 0 && b1 == 0x00 && b2 == 0x00 && b3 == 0x00) {
+            encoding = JsonEncoding.UTF32_LE;
+        } else if (b0 == 0x00 && b1 > 0) {
+            encoding = JsonEncoding.UTF16_BE;
+        } else if (b0 > 0 && b1 == 0x00) {
+            encoding = JsonEncoding.UTF16_LE;
+        } else {
+            encoding = JsonEncoding.UTF8;
+        }
+
+        if (n > bom) {
+            in.unread(head, bom, n - bom);
+        }
+        return encoding;
+    }
+}
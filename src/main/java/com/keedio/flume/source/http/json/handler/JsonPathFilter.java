@@ -0,0 +1,120 @@
+package com.keedio.flume.source.http.json.handler;
+
+import java.util.Collection;
+
+/**
+ * <p>
+ * Compiled set of include and exclude paths deciding which parts of every json make it into the event body.
+ * See {@link JsonPathNode} for the path syntax.
+ * </p>
+ * <p>
+ * If include paths are given, only the fields along them are kept, together with everything below their last
+ * segment. Fields matching an exclude path are dropped with everything below them, even if they are included.
+ * </p>
+ * <p>
+ * Instances are immutable and shared by every request.
+ * </p>
+ */
+final class JsonPathFilter {
+    private final JsonPathNode includeRoot;
+    private final JsonPathNode excludeRoot;
+
+    /**
+     * @param includes paths to keep, empty to keep every field.
+     * @param excludes paths to drop.
+     * @throws IllegalArgumentException if a path is malformed.
+     */
+    JsonPathFilter(Collection<String> includes, Collection<String> excludes) {
+        this.includeRoot = includes.isEmpty() ? null : compile(includes);
+        this.excludeRoot = compile(excludes);
+    }
+
+    /**
+     * @return the frame of a root level object.
+     */
+    Frame root() {
+        return new Frame(includeRoot == null ? null : new JsonPathNode[]{includeRoot},
+                new JsonPathNode[]{excludeRoot});
+    }
+
+    private static JsonPathNode compile(Collection<String> paths) {
+        JsonPathNode root = new JsonPathNode();
+        for (String path : paths) {
+            root.add(path, path);
+        }
+        return root;
+    }
+
+    /**
+     * Position of the parser in the path trees while it is inside an object or an array: the include and exclude
+     * nodes matched by the path of the container.
+     */
+    static final class Frame {
+        /**
+         * Frame of a container whose whole content is kept.
+         */
+        static final Frame KEEP_ALL = new Frame(null, JsonPathNode.NO_NODES);
+
+        private final JsonPathNode[] includes;
+        private final JsonPathNode[] excludes;
+
+        /**
+         * @param includes the include nodes matched, null if everything below is included.
+         * @param excludes the exclude nodes matched.
+         */
+        private Frame(JsonPathNode[] includes, JsonPathNode[] excludes) {
+            this.includes = includes;
+            this.excludes = excludes;
+        }
+
+        /**
+         * Decides what to do with a field of the object this frame belongs to.
+         *
+         * @param name the field name.
+         * @param scalar whether the field value is a scalar.
+         * @return the frame of the field value, or null if the field must be dropped.
+         */
+        Frame field(String name, boolean scalar) {
+            return step(name, scalar);
+        }
+
+        /**
+         * Decides what to do with an element of the array this frame belongs to.
+         *
+         * @param scalar whether the element is a scalar.
+         * @return the frame of the element, or null if the element must be dropped.
+         */
+        Frame element(boolean scalar) {
+            return step(null, scalar);
+        }
+
+        private Frame step(String name, boolean scalar) {
+            JsonPathNode[] childExcludes = JsonPathNode.children(excludes, name);
+            for (JsonPathNode node : childExcludes) {
+                if (node.isTerminal()) {
+                    return null;
+                }
+            }
+
+            JsonPathNode[] childIncludes = null;
+            if (includes != null) {
+                childIncludes = JsonPathNode.children(includes, name);
+                for (JsonPathNode node : childIncludes) {
+                    if (node.isTerminal()) {
+                        childIncludes = null;
+                        break;
+                    }
+                }
+                // a path that goes on below a scalar, or nowhere, does not include it
+                if (childIncludes != null && (scalar || childIncludes.length == 0)) {
+                    return null;
+                }
+            }
+
+            if (childIncludes == null && childExcludes.length == 0) {
+                return KEEP_ALL;
+            }
+            return new Frame(childIncludes, childExcludes);
+        }
+    }
+}
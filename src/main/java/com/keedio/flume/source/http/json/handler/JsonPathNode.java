@@ -0,0 +1,116 @@
+package com.keedio.flume.source.http.json.handler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Node of a tree of json paths, one per distinct path prefix. Paths are dotted field names relative to the root
+ * object; <code>*</code> matches any field name and a <code>[*]</code> suffix descends into every element of an
+ * array, e.g. <code>Data[*].Properties.*.Max</code>.
+ * </p>
+ * <p>
+ * Every path is added with a label, kept by the node the path ends at. Trees are built once at configuration
+ * time and are read only afterwards, so they are shared by every request.
+ * </p>
+ */
+final class JsonPathNode {
+    static final JsonPathNode[] NO_NODES = new JsonPathNode[0];
+
+    private final Map<String, JsonPathNode> fields = new HashMap<>();
+    private JsonPathNode anyField;
+    private JsonPathNode elements;
+    private final List<String> labels = new ArrayList<>(1);
+
+    /**
+     * Adds a path below this node.
+     *
+     * @param path the path.
+     * @param label the label of the path.
+     * @throws IllegalArgumentException if the path is malformed.
+     */
+    void add(String path, String label) {
+        JsonPathNode node = this;
+        for (String segment : path.split("\\.", -1)) {
+            int bracket = segment.indexOf('[');
+            String name = bracket < 0 ? segment : segment.substring(0, bracket);
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Empty field name in path " + path);
+            }
+            node = node.field(name);
+
+            String elementSuffix = bracket < 0 ? "" : segment.substring(bracket);
+            if (!elementSuffix.replace("[*]", "").isEmpty()) {
+                throw new IllegalArgumentException("Only [*] array wildcards are supported, found " + path);
+            }
+            for (int i = 0; i < elementSuffix.length(); i += 3) {
+                node = node.elements();
+            }
+        }
+        node.labels.add(label);
+    }
+
+    /**
+     * @return whether some path ends at this node.
+     */
+    boolean isTerminal() {
+        return !labels.isEmpty();
+    }
+
+    /**
+     * @return the labels of the paths ending at this node.
+     */
+    List<String> getLabels() {
+        return Collections.unmodifiableList(labels);
+    }
+
+    /**
+     * @param nodes the nodes matched by the path of a container.
+     * @param name the name of a field of the container, or null for an array element.
+     * @return the nodes matched by the path of the field or element.
+     */
+    static JsonPathNode[] children(JsonPathNode[] nodes, String name) {
+        List<JsonPathNode> children = null;
+        for (JsonPathNode node : nodes) {
+            JsonPathNode exact = name == null ? node.elements : node.fields.get(name);
+            JsonPathNode any = name == null ? null : node.anyField;
+            if (exact != null || any != null) {
+                if (children == null) {
+                    children = new ArrayList<>(2);
+                }
+                if (exact != null) {
+                    children.add(exact);
+                }
+                if (any != null) {
+                    children.add(any);
+                }
+            }
+        }
+        return children == null ? NO_NODES : children.toArray(new JsonPathNode[children.size()]);
+    }
+
+    private JsonPathNode field(String name) {
+        if ("*".equals(name)) {
+            if (anyField == null) {
+                anyField = new JsonPathNode();
+            }
+            return anyField;
+        }
+        JsonPathNode child = fields.get(name);
+        if (child == null) {
+            child = new JsonPathNode();
+            fields.put(name, child);
+        }
+        return child;
+    }
+
+    private JsonPathNode elements() {
+        if (elements == null) {
+            elements = new JsonPathNode();
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,106 @@
+package com.keedio.flume.source.http.json.handler;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Cheap structural scan of a UTF-8 request finding where every json starts and ends, without decoding anything:
+ * only quotes, escapes and brackets are looked at. The jsons are the objects at the root level and the objects
+ * in root level arrays, the ones the handler turns into events.
+ * </p>
+ * <p>
+ * The scan gives up on anything else found at those levels, and on requests over the depth or object limits, so
+ * the caller parses them the usual way and they fail exactly as they always did. The inside of the jsons is not
+ * validated, the parsers do it.
+ * </p>
+ */
+final class JsonSegmentScanner {
+
+    private JsonSegmentScanner() {
+    }
+
+    /**
+     * @param buffer the request.
+     * @param length number of bytes of the request.
+     * @param maxDepth the maximum nesting depth, root level arrays included, 0 for no limit.
+     * @param maxJsons the maximum number of jsons, 0 for no limit.
+     * @return the start and end offsets of every json, one after the other, or null if the request is not a plain
+     * sequence of jsons within the limits.
+     */
+    static int[] scan(byte[] buffer, int length, int maxDepth, int maxJsons) {
+        int[] spans = new int[64];
+        int count = 0;
+        int depth = 0;
+        boolean rootArray = false;
+        int start = -1;
+
+        for (int i = 0; i < length; i++) {
+            byte b = buffer[i];
+            int base = rootArray ? 1 : 0;
+            if (depth > base) {
+                switch (b) {
+                    case '"':
+                        i = skipString(buffer, i + 1, length);
+                        if (i < 0) {
+                            return null;
+                        }
+                        break;
+                    case '{':
+                    case '[':
+                        if (++depth > maxDepth && maxDepth > 0) {
+                            return null;
+                        }
+                        break;
+                    case '}':
+                    case ']':
+                        if (--depth == base) {
+                            if (count == spans.length) {
+                                spans = Arrays.copyOf(spans, count * 2);
+                            }
+                            spans[count++] = start;
+                            spans[count++] = i + 1;
+                            if (maxJsons > 0 && count / 2 > maxJsons) {
+                                return null;
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } else if (b == '{') {
+                start = i;
+                if (++depth > maxDepth && maxDepth > 0) {
+                    return null;
+                }
+            } else if (b == '[' && !rootArray) {
+                rootArray = true;
+                if (++depth > maxDepth && maxDepth > 0) {
+                    return null;
+                }
+            } else if (b == ']' && rootArray) {
+                rootArray = false;
+                depth--;
+            } else if (!(b == ',' && rootArray) && b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                return null;
+            }
+        }
+        return depth == 0 ? Arrays.copyOf(spans, count) : null;
+    }
+
+    /**
+     * @param buffer the request.
+     * @param i offset right after the opening quote.
+     * @param length number of bytes of the request.
+     * @return the offset of the closing quote, -1 if the string is not closed.
+     */
+    private static int skipString(byte[] buffer, int i, int length) {
+        for (; i < length; i++) {
+            if (buffer[i] == '\\') {
+                i++;
+            } else if (buffer[i] == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
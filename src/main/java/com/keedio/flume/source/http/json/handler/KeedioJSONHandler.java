@@ -1,13 +1,27 @@
 package com.keedio.flume.source.http.json.handler;
 
+import com.keedio.flume.source.http.CommitListener;
+import com.keedio.flume.source.http.CompressedBody;
+import com.keedio.flume.source.http.EventBatchSink;
+import com.keedio.flume.source.http.KeedioHTTPSourceConfigurationConstants;
+import com.keedio.flume.source.http.RateLimitListener;
+import com.keedio.flume.source.http.RequestTooLargeException;
+import com.keedio.flume.source.http.json.handler.encoder.EventBodyEncoder;
+import com.keedio.flume.source.http.json.handler.encoder.EventBodyEncoderFactory;
+import com.keedio.flume.source.http.json.handler.encoder.Json4sEventBodyEncoder;
+import com.keedio.flume.source.http.json.handler.encoder.JsonEventBodyEncoder;
 import com.keedio.flume.source.http.json.handler.metrics.MetricsController;
 import com.keedio.flume.source.http.json.handler.metrics.MetricsEvent;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
-import org.apache.flume.event.EventBuilder;
+import org.apache.flume.event.SimpleEvent;
+import org.apache.flume.source.http.HTTPBadRequestException;
 import org.apache.flume.source.http.HTTPSourceHandler;
+import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.MappingIterator;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
@@ -20,9 +34,15 @@ import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
 
+import static com.keedio.flume.source.http.json.handler.KeedioJSONHandlerConfigurationConstants.*;
 import static com.keedio.flume.source.http.json.handler.metrics.MetricsEvent.EventType.*;
 
 
@@ -35,40 +55,475 @@ import static com.keedio.flume.source.http.json.handler.metrics.MetricsEvent.Eve
  *     More than one json is allowed per request. If N json arrive in one request, this handler will produce N
  *     flume events, each of them sharing the same set of headers.
  * </p>
+ * <p>
+ *     The way jsons are turned into event bodies is chosen with the <code>parseMode</code> property, see
+ *     {@link ParseMode}.
+ * </p>
+ * <p>
+ *     Jsons may come concatenated, as the elements of root level arrays, or, if the request content type is one
+ *     of the configured newline delimited json types, one per line.
+ * </p>
  *
  * Created by Luca Rosellini <lrosellini@keedio.com> on 18/5/15.
  */
-public class KeedioJSONHandler implements HTTPSourceHandler {
+public class KeedioJSONHandler implements HTTPSourceHandler, RateLimitListener {
     private static final Logger LOG = LoggerFactory.getLogger(KeedioJSONHandler.class);
     private ObjectMapper mapper;
 
     private JsonFactory jsonFactory;
     MetricsController metricsController;
     private JValueEncoder encoder = new JValueEncoder();
+    private ParseMode parseMode = ParseMode.TREE;
+    private boolean stripWhitespace;
+    private EventBodyEncoder bodyEncoder;
+    private JsonPathFilter pathFilter;
+    private JsonPathNode headerPaths;
+    private Set<String> ndjsonContentTypes = Collections.emptySet();
+    private boolean skipInvalidLines;
+    private BufferPool bufferPool = new BufferPool(DEFAULT_BUFFER_POOL_SIZE, DEFAULT_BUFFER_SIZE,
+            DEFAULT_MAX_POOLED_BUFFER_SIZE);
+    private com.sun.management.ThreadMXBean allocationCounter;
+    private StringInterner interner;
+    private Set<String> allowedHeaders = Collections.emptySet();
+    private Set<String> deniedHeaders = Collections.emptySet();
+    private Map<String, String> headerRenames = Collections.emptyMap();
+    private int batchSize;
+    private long maxContentLength;
+    private long maxBodySize;
+    private int maxObjects;
+    private int maxDepth;
+    private long parallelThreshold;
+    private int parallelSegmentSize;
+    private ForkJoinPool parallelPool;
+    private DedupFilter dedupFilter;
+    private String idempotencyHeader;
+    private String hashHeader;
+    private int coalesceMaxEvents;
+    private int coalesceMaxBytes;
+    private EventCoalescer.Format coalesceFormat;
+    private String coalesceCountHeader;
+    private String compressedEncodingHeader;
+    private String compressedLengthHeader;
+    private double compressedValidationRate;
 
     /**
      * {@inheritDoc}
      */
     @Override
     public List<Event> getEvents(HttpServletRequest request) throws IOException {
-        BufferedReader reader = request.getReader();
+        InputStream inputStream = request.getInputStream();
 
-        if (reader == null){
-            throw new IllegalArgumentException("Reader obtained from HTTP servlet request cannot be null");
+        if (inputStream == null){
+            throw new IllegalArgumentException("Input stream obtained from HTTP servlet request cannot be null");
         }
 
         String charset = request.getCharacterEncoding();
 
-        metricsController.manage(new MetricsEvent(JSON_ARRIVED));
+        metricsController.markJsonArrived();
 
         charset = validateCharset(charset);
         long t0 = System.nanoTime();
-        MappingIterator<Map<String, Object>> eventList = getMappingIterator(reader);
+        long allocated0 = allocatedBytes();
+
+        EventBatch events;
+        try {
+            events = readEvents(request, inputStream, charset);
+        } catch (IOException | RuntimeException e) {
+            RequestTooLargeException rejection = findRejection(e);
+            if (rejection == null) {
+                throw e;
+            }
+            LOG.debug("Rejecting request: {}", rejection.getMessage());
+            metricsController.countRejection(rejectionType(rejection.getLimit()));
+            request.setAttribute(RequestTooLargeException.REQUEST_ATTRIBUTE, rejection);
+            throw rejection;
+        }
+
+        metricsController.recordJsonsPerRequest(events.size());
+        if (allocated0 >= 0 && events.size() > 0) {
+            long allocated = allocatedBytes() - allocated0;
+            metricsController.recordAllocatedBytesPerEvent(allocated / events.size());
+        }
+
+        long t1 = System.nanoTime();
+        metricsController.recordEventGenerationNanos(t1-t0);
+
+        return events.pending();
+    }
+
+    /**
+     * Counts the requests the source rejected because their client went over a rate limit.
+     *
+     * @param limit the name of the limit the client went over.
+     */
+    @Override
+    public void rateLimited(String limit) {
+        metricsController.countRejection(KeedioHTTPSourceConfigurationConstants.CLIENT_BYTE_RATE.equals(limit)
+                ? BYTE_RATE_REJECTED : REQUEST_RATE_REJECTED);
+    }
+
+    /**
+     * Reads the events of a request within the admission limits.
+     *
+     * @param request the HTTP servlet request.
+     * @param inputStream the request input.
+     * @param charset the charset declared by the request.
+     * @return the events.
+     * @throws IOException if the request cannot be read or is not valid.
+     * @throws RequestTooLargeException if the request goes over an admission limit, possibly wrapped.
+     */
+    private EventBatch readEvents(HttpServletRequest request, InputStream inputStream, String charset)
+            throws IOException {
+        if (maxContentLength > 0 && request.getContentLength() > maxContentLength) {
+            throw new RequestTooLargeException("Content-Length " + request.getContentLength() + " larger than "
+                    + maxContentLength + " bytes", MAX_CONTENT_LENGTH);
+        }
+        if (maxBodySize > 0) {
+            inputStream = new BoundedInputStream(inputStream, maxBodySize);
+        }
+
+        CompressedBody compressed = (CompressedBody) request.getAttribute(CompressedBody.REQUEST_ATTRIBUTE);
+        if (compressed != null) {
+            EventBatch events = new EventBatch(null, 0, 0);
+            events.add(getCompressedEvent(request, inputStream, compressed));
+            return events;
+        }
+
+        PushbackInputStream in = new PushbackInputStream(inputStream, JsonEncodingDetector.PUSHBACK_SIZE);
+        JsonEncoding encoding = JsonEncodingDetector.detect(in);
+        if (!encoding.getJavaName().startsWith(charset.toUpperCase())) {
+            LOG.debug("Request declares charset {} but its content is {}, using the latter.", charset,
+                    encoding.getJavaName());
+        }
+
+        CompactHeaderMap httpHeaders = extractHTTPHeaders(request);
+
+        EventBatchSink sink = batchSize > 0 ? (EventBatchSink) request.getAttribute(EventBatchSink.REQUEST_ATTRIBUTE)
+                : null;
+        RequestDeduplicator deduplicator = null;
+        if (dedupFilter != null || hashHeader != null) {
+            deduplicator = new RequestDeduplicator(dedupFilter, hashHeader,
+                    idempotencyHeader == null ? null : request.getHeader(idempotencyHeader));
+            if (dedupFilter != null) {
+                request.setAttribute(CommitListener.REQUEST_ATTRIBUTE, deduplicator);
+            }
+        }
+        EventCoalescer coalescer = null;
+        if (coalesceMaxEvents > 0 || coalesceMaxBytes > 0) {
+            coalescer = new EventCoalescer(coalesceMaxEvents, coalesceMaxBytes, coalesceFormat, coalesceCountHeader);
+        }
+        EventBatch events = new EventBatch(sink, batchSize, maxObjects, deduplicator, coalescer);
+        try {
+            if (isNdjson(request.getContentType())) {
+                getNdjsonEvents(in, encoding, httpHeaders, events);
+            } else if (parallelPool != null && encoding == JsonEncoding.UTF8
+                    && request.getContentLength() >= parallelThreshold) {
+                getParallelEvents(in, httpHeaders, events);
+            } else {
+                getModeEvents(in, encoding, httpHeaders, events);
+            }
+        } finally {
+            reportDuplicates(deduplicator);
+        }
+        return events;
+    }
+
+    /**
+     * Builds the events in the configured parse mode.
+     *
+     * @param in the HTTP servlet request input, positioned after the byte order mark.
+     * @param encoding the detected encoding of the input.
+     * @param httpHeaders the headers attached to every event.
+     * @param events where the events are added, one per json.
+     * @throws IOException
+     */
+    private void getModeEvents(InputStream in, JsonEncoding encoding, CompactHeaderMap httpHeaders,
+                               EventBatch events) throws IOException {
+        switch (parseMode) {
+            case STREAMING:
+                getStreamedEvents(in, encoding, httpHeaders, events);
+                break;
+            case PASSTHROUGH:
+                getPassthroughEvents(in, encoding, httpHeaders, events);
+                break;
+            default:
+                getTreeEvents(in, encoding, httpHeaders, events);
+        }
+    }
+
+    /**
+     * Builds the events of a large UTF-8 request on every core. The whole request is read, the jsons are found by
+     * {@link JsonSegmentScanner} and split into segments of about <code>parallelSegmentSize</code> bytes, which
+     * are read in the configured parse mode on the shared fork join pool. The events are added in their original
+     * order once every segment is read; if a segment fails, the events of the segments before it are added and
+     * its failure is thrown, as if the request had been read from start to end. Requests the scanner gives up on
+     * are read on the current thread. As the whole request is held in memory, this is never combined with
+     * sub-batches.
+     *
+     * @param in the HTTP servlet request input, positioned after the byte order mark.
+     * @param httpHeaders the headers attached to every event.
+     * @param events where the events are added, one per json.
+     * @throws IOException if a json is not valid.
+     */
+    private void getParallelEvents(InputStream in, CompactHeaderMap httpHeaders, EventBatch events)
+            throws IOException {
+        byte[] buffer = bufferPool.acquire();
+        try {
+            int length = 0;
+            int n;
+            while ((n = in.read(buffer, length, buffer.length - length)) >= 0) {
+                length += n;
+                if (length == buffer.length) {
+                    buffer = bufferPool.grow(buffer, length, length + 1);
+                }
+            }
+
+            int[] spans = JsonSegmentScanner.scan(buffer, length, maxDepth, maxObjects);
+            if (spans == null || length < 2 * parallelSegmentSize) {
+                getModeEvents(new ByteArrayInputStream(buffer, 0, length), JsonEncoding.UTF8, httpHeaders, events);
+                return;
+            }
+
+            CompactHeaderMap headers = parseMode == ParseMode.STREAMING ? withEncoderHeaders(httpHeaders)
+                    : httpHeaders;
+            List<Segment> segments = new ArrayList<>();
+            int first = 0;
+            for (int i = 0; i < spans.length; i += 2) {
+                if (spans[i + 1] - spans[first] >= parallelSegmentSize || i + 2 == spans.length) {
+                    segments.add(new Segment(buffer, spans, first, i + 2, headers));
+                    first = i + 2;
+                }
+            }
+            parallelPool.invoke(new SegmentReader(segments, 0, segments.size()));
+
+            long droppedUnits = 0;
+            StringInterner.Counts internCounts = parseMode == ParseMode.TREE ? new StringInterner.Counts() : null;
+            try {
+                for (Segment segment : segments) {
+                    droppedUnits += segment.droppedUnits;
+                    if (internCounts != null) {
+                        internCounts.hits += segment.internCounts.hits;
+                        internCounts.misses += segment.internCounts.misses;
+                        internCounts.evictions += segment.internCounts.evictions;
+                    }
+                    events.addAll(segment.events.pending());
+                    if (segment.failure instanceof IOException) {
+                        throw (IOException) segment.failure;
+                    } else if (segment.failure != null) {
+                        throw (RuntimeException) segment.failure;
+                    }
+                }
+            } finally {
+                reportInterning(internCounts);
+            }
+            reportDroppedBytes(droppedUnits);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Builds the events going through a Jackson map, its String serialization and a json4s AST.
+     *
+     * @param in the HTTP servlet request input, positioned after the byte order mark.
+     * @param encoding the detected encoding of the input.
+     * @param httpHeaders the headers attached to every event.
+     * @param events where the events are added, one per json.
+     * @throws IOException
+     */
+    private void getTreeEvents(InputStream in, JsonEncoding encoding, CompactHeaderMap httpHeaders,
+                               EventBatch events) throws IOException {
+        StringInterner.Counts internCounts = new StringInterner.Counts();
+        ParserChain chain = new ParserChain(createJsonParser(in, encoding), internCounts);
+        try {
+            readTreeEvents(chain, httpHeaders, events);
+            reportDroppedBytes(chain.droppedUnits());
+        } finally {
+            reportInterning(internCounts);
+        }
+    }
+
+    /**
+     * Builds the events streaming the tokens of every json once, encoding the event body as they are read.
+     *
+     * @param in the HTTP servlet request input, positioned after the byte order mark.
+     * @param encoding the detected encoding of the input.
+     * @param httpHeaders the headers attached to every event.
+     * @param events where the events are added, one per json.
+     * @throws IOException
+     */
+    private void getStreamedEvents(InputStream in, JsonEncoding encoding, CompactHeaderMap httpHeaders,
+                                   EventBatch events) throws IOException {
+        ParserChain chain = new ParserChain(createJsonParser(in, encoding), null);
+        readStreamedEvents(chain, withEncoderHeaders(httpHeaders), events);
+        reportDroppedBytes(chain.droppedUnits());
+    }
+
+    /**
+     * Builds the events copying the original text of every json, which is validated but never materialized.
+     *
+     * @param in the HTTP servlet request input, positioned after the byte order mark.
+     * @param encoding the detected encoding of the input.
+     * @param httpHeaders the headers attached to every event.
+     * @param events where the events are added, one per json.
+     * @throws IOException
+     */
+    private void getPassthroughEvents(InputStream in, JsonEncoding encoding, CompactHeaderMap httpHeaders,
+                                      EventBatch events) throws IOException {
+        PassthroughEventSlicer slicer;
+        if (encoding == JsonEncoding.UTF8) {
+            slicer = new PassthroughEventSlicer(jsonFactory, in, stripWhitespace, headerPaths, maxDepth, bufferPool);
+        } else {
+            slicer = new PassthroughEventSlicer(jsonFactory, new InputStreamReader(in, encoding.getJavaName()),
+                    stripWhitespace, headerPaths, maxDepth);
+        }
+        readPassthroughEvents(slicer, httpHeaders, events);
+    }
+
+    /**
+     * Builds the single event of a compressed body kept as sent. Its headers record the encoding and, if the body
+     * was picked for validation, its inflated size.
+     *
+     * @param request the HTTP servlet request.
+     * @param in the compressed body.
+     * @param compressed how the body is compressed.
+     * @return the event.
+     * @throws IOException if the body cannot be read.
+     * @throws HTTPBadRequestException if the body was picked for validation and does not hold valid jsons.
+     */
+    private Event getCompressedEvent(HttpServletRequest request, InputStream in, CompressedBody compressed)
+            throws IOException {
+        int length = request.getContentLength();
+        if (maxBodySize > 0 && length > maxBodySize) {
+            throw new RequestTooLargeException("Content-Length " + length + " larger than " + maxBodySize
+                    + " bytes", MAX_BODY_SIZE);
+        }
+
+        // the Content-Length is only a hint, a buffer larger than the pooled ones is grown as bytes arrive
+        byte[] buffer = bufferPool.acquire(length >= 0 ? length + 1 : 0);
+        byte[] body;
+        int read = 0;
+        try {
+            int n;
+            while ((n = in.read(buffer, read, buffer.length - read)) >= 0) {
+                read += n;
+                if (read == buffer.length) {
+                    buffer = bufferPool.grow(buffer, read, buffer.length * 2);
+                }
+            }
+            body = Arrays.copyOf(buffer, read);
+        } finally {
+            bufferPool.release(buffer);
+        }
+        if (read < length) {
+            throw new EOFException("Request body shorter than its Content-Length " + length);
+        }
 
-        Map<String, String> httpHeaders = extractHTTPHeaders(request);
+        Map<String, String> headers = new HashMap<>();
+        headers.put(compressedEncodingHeader, compressed.getEncoding());
+        if (compressedValidationRate > 0 && ThreadLocalRandom.current().nextDouble() < compressedValidationRate) {
+            headers.put(compressedLengthHeader, String.valueOf(validate(compressed, body)));
+        }
+
+        SimpleEvent event = new SimpleEvent();
+        event.setHeaders(extractHTTPHeaders(request).with(headers).share());
+        event.setBody(body);
+        metricsController.recordEventSize(body.length);
+        return event;
+    }
+
+    /**
+     * Inflates a compressed body and checks that it holds valid jsons, without building anything from them.
+     *
+     * @return the inflated size of the body.
+     * @throws HTTPBadRequestException if the body does not hold valid jsons.
+     */
+    private long validate(CompressedBody compressed, byte[] body) throws IOException {
+        CountingInputStream in = new CountingInputStream(compressed.decode(new ByteArrayInputStream(body)));
+        try (JsonParser parser = jsonFactory.createJsonParser(in)) {
+            while (parser.nextToken() != null) {
+                // only checking the syntax
+            }
+        } catch (JsonParseException e) {
+            throw new HTTPBadRequestException("Compressed body does not hold valid jsons: " + e.getMessage(), e);
+        }
+        return in.getCount();
+    }
+
+    /**
+     * Builds the events of a newline delimited json request. Every line is read as a request of its own in the
+     * configured parse mode, so a line may hold an array of jsons too. Blank lines are ignored and, if so
+     * configured, lines that are not valid are skipped without failing the whole request.
+     *
+     * @param in the HTTP servlet request input, positioned after the byte order mark.
+     * @param encoding the detected encoding of the input.
+     * @param httpHeaders the headers attached to every event.
+     * @param events where the events are added, one per json.
+     * @throws IOException if a line is not valid and invalid lines are not skipped.
+     */
+    private void getNdjsonEvents(InputStream in, JsonEncoding encoding, CompactHeaderMap httpHeaders,
+                                 EventBatch events) throws IOException {
+        NdjsonLineReader lines;
+        if (encoding == JsonEncoding.UTF8) {
+            lines = new NdjsonLineReader(in, bufferPool);
+        } else {
+            lines = new NdjsonLineReader(new InputStreamReader(in, encoding.getJavaName()), bufferPool);
+        }
+        CompactHeaderMap headers = parseMode == ParseMode.STREAMING ? withEncoderHeaders(httpHeaders) : httpHeaders;
+
+        long droppedUnits = 0;
+        StringInterner.Counts internCounts = parseMode == ParseMode.TREE ? new StringInterner.Counts() : null;
+        try {
+            while (lines.next()) {
+                if (lines.length() == 0) {
+                    continue;
+                }
+
+                // the events of a line are only added once the whole line is read
+                EventBatch lineEvents = new EventBatch(null, 0, 0);
+                try {
+                    if (parseMode == ParseMode.PASSTHROUGH) {
+                        InputStream line = new ByteArrayInputStream(lines.buffer(), lines.offset(), lines.length());
+                        readPassthroughEvents(new PassthroughEventSlicer(jsonFactory, line, stripWhitespace,
+                                headerPaths, maxDepth, bufferPool), headers, lineEvents);
+                    } else {
+                        ParserChain chain = new ParserChain(
+                                jsonFactory.createJsonParser(lines.buffer(), lines.offset(), lines.length()),
+                                internCounts);
+                        if (parseMode == ParseMode.STREAMING) {
+                            readStreamedEvents(chain, headers, lineEvents);
+                        } else {
+                            readTreeEvents(chain, headers, lineEvents);
+                        }
+                        droppedUnits += chain.droppedUnits();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (!skipInvalidLines || findRejection(e) != null) {
+                        throw e;
+                    }
+                    LOG.debug("Skipping invalid json at line " + lines.lineNumber(), e);
+                    continue;
+                }
+                events.addAll(lineEvents.pending());
+            }
+        } finally {
+            lines.release();
+            reportInterning(internCounts);
+        }
+        reportDroppedBytes(droppedUnits);
+    }
+
+    /**
+     * Reads every json through the tree path.
+     *
+     * @param chain the parser over the jsons.
+     * @param headers the headers attached to every event.
+     * @param events where the events are added, one per json.
+     * @throws IOException if a json is not well formed.
+     */
+    private void readTreeEvents(ParserChain chain, CompactHeaderMap headers, EventBatch events) throws IOException {
+        MappingIterator<Map<String, Object>> eventList = getMappingIterator(chain.parser);
 
-        List<Event> result = new ArrayList<>();
-        int nJsons = 0;
         while (eventList.hasNext()){
             Map<String, Object> event = parseNextEvent(eventList);
 
@@ -78,17 +533,131 @@ public class KeedioJSONHandler implements HTTPSourceHandler {
 
             JsonAST.JValue jval = JsonMethods$.MODULE$.parse(new StringInput(asString),false);
 
-            result.add(EventBuilder.withBody(encoder.toBytes(jval), httpHeaders));
-            metricsController.manage(new MetricsEvent(EVENT_SIZE, asString.length()));
-            nJsons++;
+            metricsController.recordEventSize(asString.length());
+            events.add(newEvent(encoder.toBytes(jval), chain.eventHeaders(headers)));
         }
+    }
 
-        metricsController.manage(new MetricsEvent(NJSONS_ARRIVED,nJsons));
+    /**
+     * Reads every json through the configured body encoder.
+     *
+     * @param chain the parser over the jsons.
+     * @param headers the headers attached to every event.
+     * @param events where the events are added, one per json.
+     * @throws IOException if a json is not well formed or cannot be encoded.
+     */
+    private void readStreamedEvents(ParserChain chain, CompactHeaderMap headers, EventBatch events)
+            throws IOException {
+        byte[] body;
+        while ((body = writeNextEvent(chain.parser)) != null){
+            metricsController.recordEventSize(body.length);
+            events.add(newEvent(body, chain.eventHeaders(headers)));
+        }
+    }
 
-        long t1 = System.nanoTime();
-        metricsController.manage(new MetricsEvent(EVENT_GENERATION, t1-t0));
+    /**
+     * Reads every json slicing its original text.
+     *
+     * @param slicer the slicer over the jsons, released once read.
+     * @param httpHeaders the headers attached to every event.
+     * @param events where the events are added, one per json.
+     * @throws IOException if a json is not well formed.
+     */
+    private void readPassthroughEvents(PassthroughEventSlicer slicer, CompactHeaderMap httpHeaders,
+                                       EventBatch events) throws IOException {
+        try {
+            byte[] body;
+            while ((body = sliceNextEvent(slicer)) != null){
+                Map<String, String> headers = httpHeaders.share();
+                if (!slicer.getCapturedHeaders().isEmpty()) {
+                    headers = new HashMap<>(httpHeaders);
+                    headers.putAll(slicer.getCapturedHeaders());
+                }
+                metricsController.recordEventSize(body.length);
+                events.add(newEvent(body, headers));
+            }
+        } finally {
+            slicer.release();
+        }
+    }
 
-        return result;
+    /**
+     * @param httpHeaders the request headers.
+     * @return the request headers plus the ones set by the body encoder.
+     */
+    private CompactHeaderMap withEncoderHeaders(CompactHeaderMap httpHeaders) {
+        return httpHeaders.with(bodyEncoder.getHeaders());
+    }
+
+    /**
+     * Builds an event without copying its headers, unlike {@link org.apache.flume.event.EventBuilder}.
+     *
+     * @param body the event body.
+     * @param headers the event headers, owned by the event from now on.
+     * @return the event.
+     */
+    private static Event newEvent(byte[] body, Map<String, String> headers) {
+        Event event = new SimpleEvent();
+        event.setBody(body);
+        event.setHeaders(headers);
+        return event;
+    }
+
+    /**
+     * Slices the next json out of the request.
+     *
+     * @param slicer the slicer over the HTTP request.
+     *
+     * @return the event body, or null if there are no more jsons in the request.
+     * @throws IOException if the json is not well formed.
+     */
+    private byte[] sliceNextEvent(PassthroughEventSlicer slicer) throws IOException {
+        byte[] body;
+        try {
+
+            long t0 = System.nanoTime();
+            body = slicer.next();
+            long t1 = System.nanoTime();
+
+            if (body != null) {
+                metricsController.recordParseNanos(t1-t0);
+            }
+        } catch (IOException ex) {
+            metricsController.markJsonError();
+            throw ex;
+        }
+        return body;
+    }
+
+    /**
+     * Streams the next json from the request into an event body.
+     *
+     * @param jsonParser the parser over the HTTP request.
+     *
+     * @return the event body, or null if there are no more jsons in the request.
+     * @throws IOException if the json is not well formed or cannot be encoded.
+     */
+    private byte[] writeNextEvent(JsonParser jsonParser) throws IOException {
+        byte[] body = null;
+        try {
+
+            long t0 = System.nanoTime();
+            JsonToken token = jsonParser.nextToken();
+            if (token != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JsonParseException("Expected a JSON object, found " + token,
+                            jsonParser.getTokenLocation());
+                }
+                body = bodyEncoder.encode(jsonParser);
+                long t1 = System.nanoTime();
+
+                metricsController.recordParseNanos(t1-t0);
+            }
+        } catch (IOException ex) {
+            metricsController.markJsonError();
+            throw ex;
+        }
+        return body;
     }
 
     /**
@@ -106,48 +675,191 @@ public class KeedioJSONHandler implements HTTPSourceHandler {
             event = eventList.next();
             long t1 = System.nanoTime();
 
-            metricsController.manage(new MetricsEvent(PARSE_OK, t1-t0));
+            metricsController.recordParseNanos(t1-t0);
         } catch (Exception ex) {
-            metricsController.manage(new MetricsEvent(JSON_ERROR));
+            metricsController.markJsonError();
             throw ex;
         }
         return event;
     }
 
     /**
-     * Extracts HTTP headers for later usage.
+     * Extracts HTTP headers for later usage. Only the allowed headers not denied are kept, renamed if so
+     * configured.
      *
      * @param request the http servlet request.
-     * @return the parsed HTTP header map
+     * @return the parsed HTTP header map, shared by every event of the request.
      */
-    private Map<String, String> extractHTTPHeaders(HttpServletRequest request) {
-        Map<String, String> httpHeaders = new HashMap<>();
+    private CompactHeaderMap extractHTTPHeaders(HttpServletRequest request) {
+        Map<String, String> httpHeaders = new LinkedHashMap<>();
 
         Enumeration<String> headerNames = request.getHeaderNames();
 
         while (headerNames.hasMoreElements()) {
             String hName = headerNames.nextElement();
-            httpHeaders.put(hName, request.getHeader(hName));
+            String key = hName.toLowerCase();
+            if ((allowedHeaders.isEmpty() || allowedHeaders.contains(key)) && !deniedHeaders.contains(key)) {
+                String renamed = headerRenames.get(key);
+                httpHeaders.put(renamed == null ? hName : renamed, request.getHeader(hName));
+            }
+        }
+        return httpHeaders.isEmpty() ? CompactHeaderMap.EMPTY : new CompactHeaderMap(httpHeaders);
+    }
+
+    /**
+     * Creates a parser over the request input. UTF-8 input is parsed straight from its bytes, any other
+     * encoding is decoded first.
+     *
+     * @param in the HTTP servlet request input, positioned after the byte order mark.
+     * @param encoding the detected encoding of the input.
+     * @return the parser.
+     * @throws IOException
+     */
+    private JsonParser createJsonParser(InputStream in, JsonEncoding encoding) throws IOException {
+        if (encoding == JsonEncoding.UTF8) {
+            return jsonFactory.createJsonParser(in);
+        }
+        return jsonFactory.createJsonParser(new InputStreamReader(in, encoding.getJavaName()));
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, or -1 if allocations are not measured.
+     */
+    private long allocatedBytes() {
+        return allocationCounter == null ? -1
+                : allocationCounter.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Reports the intern cache lookups done while reading the request, if the cache is enabled.
+     *
+     * @param counts the lookups counted, null if values were not interned.
+     */
+    private void reportInterning(StringInterner.Counts counts) {
+        if (interner != null && counts != null) {
+            metricsController.countInterning(counts.hits, counts.misses, counts.evictions);
+        }
+    }
+
+    /**
+     * Reports the events dropped as duplicates while reading the request, if duplicates are dropped.
+     *
+     * @param deduplicator the duplicate filter of the request, null if there is none.
+     */
+    private void reportDuplicates(RequestDeduplicator deduplicator) {
+        if (dedupFilter != null && deduplicator != null) {
+            metricsController.countDuplicates(deduplicator.hits(), deduplicator.misses(),
+                    Math.round(dedupFilter.falsePositiveRate() * 1e6));
+        }
+    }
+
+    /**
+     * Reports the size of the input dropped by field projection while reading the request.
+     *
+     * @param droppedUnits bytes, or characters for non UTF-8 input, dropped.
+     */
+    private void reportDroppedBytes(long droppedUnits) {
+        if (pathFilter != null) {
+            metricsController.markDroppedBytes(droppedUnits);
+        }
+    }
+
+    /**
+     * @param contentType the request content type, possibly with parameters.
+     * @return whether the request holds newline delimited jsons.
+     */
+    private boolean isNdjson(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int parameters = contentType.indexOf(';');
+        String mediaType = parameters < 0 ? contentType : contentType.substring(0, parameters);
+        return ndjsonContentTypes.contains(mediaType.trim().toLowerCase());
+    }
+
+    /**
+     * @param e an exception thrown while reading a request.
+     * @return the admission limit rejection that caused it, null if there is none.
+     */
+    private static RequestTooLargeException findRejection(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof RequestTooLargeException) {
+                return (RequestTooLargeException) t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param limit the name of the admission limit a request went over.
+     * @return the metrics event counting the rejections because of the limit.
+     */
+    private static MetricsEvent.EventType rejectionType(String limit) {
+        switch (limit) {
+            case MAX_CONTENT_LENGTH:
+                return CONTENT_LENGTH_REJECTED;
+            case MAX_BODY_SIZE:
+                return BODY_SIZE_REJECTED;
+            case KeedioHTTPSourceConfigurationConstants.MAX_INFLATED_SIZE:
+                return INFLATED_SIZE_REJECTED;
+            case KeedioHTTPSourceConfigurationConstants.MAX_INFLATE_RATIO:
+                return INFLATE_RATIO_REJECTED;
+            case MAX_OBJECTS:
+                return OBJECT_COUNT_REJECTED;
+            case MAX_DEPTH:
+                return DEPTH_REJECTED;
+            default:
+                throw new IllegalStateException("Unknown admission limit " + limit);
+        }
+    }
+
+    /**
+     * Splits a comma separated list of paths.
+     *
+     * @param paths the list, possibly null.
+     * @return the trimmed, non empty paths.
+     */
+    private static List<String> splitPaths(String paths) {
+        List<String> result = new ArrayList<>();
+        if (paths != null) {
+            for (String path : paths.split(",")) {
+                if (!path.trim().isEmpty()) {
+                    result.add(path.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits a comma separated list of case insensitive names.
+     *
+     * @param names the list, possibly null.
+     * @return the trimmed, non empty names, in lower case.
+     */
+    private static Set<String> lowerCaseNames(String names) {
+        Set<String> result = new HashSet<>();
+        for (String name : splitPaths(names)) {
+            result.add(name.toLowerCase());
         }
-        return httpHeaders;
+        return result;
     }
 
     /**
      * Returns an iterator over the jsons contained in the request.
      *
-     * @param reader the buffered reader extracted from the HTTP servlet request.
+     * @param jsonParser the parser over the HTTP servlet request input.
      *
      * @return an iterator over the parsed JSONs.
      * @throws IOException
      */
-    private MappingIterator<Map<String, Object>> getMappingIterator(Reader reader) throws IOException {
-        JsonParser jsonParser = jsonFactory.createJsonParser(reader);
+    private MappingIterator<Map<String, Object>> getMappingIterator(JsonParser jsonParser) throws IOException {
         MappingIterator<Map<String,Object>> eventList;
         try {
             eventList = mapper.readValues(jsonParser, new TypeReference<TreeMap<String,Object>>(){});
 
         } catch (IOException e) {
-            metricsController.manage(new MetricsEvent(JSON_ERROR));
+            metricsController.markJsonError();
             throw e;
         }
         return eventList;
@@ -162,7 +874,7 @@ public class KeedioJSONHandler implements HTTPSourceHandler {
      */
     private String validateCharset(String charset) {
         if (charset == null) {
-            LOG.debug("Charset is null, default charset of UTF-8 will be used.");
+            LOG.debug("Charset is null, default charset of UTF-8 will be assumed.");
 
             charset = "UTF-8";
         } else if (!("utf-8".equalsIgnoreCase(charset)
@@ -172,7 +884,7 @@ public class KeedioJSONHandler implements HTTPSourceHandler {
             LOG.error("Unsupported character set in request {}. JSON handler supports UTF-8, UTF-16 and UTF-32 only.",
                     charset);
 
-            metricsController.manage(new MetricsEvent(JSON_ERROR));
+            metricsController.markJsonError();
             throw new UnsupportedCharsetException("JSON handler supports UTF-8, UTF-16 and UTF-32 only.");
         }
         return charset;
@@ -183,8 +895,307 @@ public class KeedioJSONHandler implements HTTPSourceHandler {
      */
     @Override
     public void configure(Context context) {
+        if (context == null) {
+            context = new Context();
+        }
+
         mapper = new ObjectMapper();
         jsonFactory = new JsonFactory();
+
+        parseMode = ParseMode.fromString(context.getString(PARSE_MODE, DEFAULT_PARSE_MODE));
+        stripWhitespace = context.getBoolean(STRIP_WHITESPACE, DEFAULT_STRIP_WHITESPACE);
+        bodyEncoder = EventBodyEncoderFactory.getInstance(context.getString(ENCODER, DEFAULT_ENCODER),
+                new Context(context.getSubProperties(ENCODER + ".")));
+
+        List<String> includePaths = splitPaths(context.getString(INCLUDE_PATHS));
+        List<String> excludePaths = splitPaths(context.getString(EXCLUDE_PATHS));
+        pathFilter = null;
+        if (!includePaths.isEmpty() || !excludePaths.isEmpty()) {
+            pathFilter = new JsonPathFilter(includePaths, excludePaths);
+            LOG.info("Projecting jsons, including {} and excluding {}", includePaths, excludePaths);
+            if (parseMode == ParseMode.PASSTHROUGH) {
+                LOG.warn("Include and exclude paths are ignored in passthrough mode, bodies are copied verbatim.");
+            }
+        }
+
+        Map<String, String> headerPathProperties = context.getSubProperties(HEADER_PATHS + ".");
+        headerPaths = null;
+        if (!headerPathProperties.isEmpty()) {
+            headerPaths = new JsonPathNode();
+            for (Map.Entry<String, String> header : headerPathProperties.entrySet()) {
+                headerPaths.add(header.getValue().trim(), header.getKey());
+            }
+            LOG.info("Promoting json paths to headers {}", headerPathProperties);
+        }
+
+        ndjsonContentTypes = lowerCaseNames(context.getString(NDJSON_CONTENT_TYPES, DEFAULT_NDJSON_CONTENT_TYPES));
+        skipInvalidLines = context.getBoolean(SKIP_INVALID_LINES, DEFAULT_SKIP_INVALID_LINES);
+
+        bufferPool = new BufferPool(context.getInteger(BUFFER_POOL_SIZE, DEFAULT_BUFFER_POOL_SIZE),
+                context.getInteger(BUFFER_SIZE, DEFAULT_BUFFER_SIZE),
+                context.getInteger(MAX_POOLED_BUFFER_SIZE, DEFAULT_MAX_POOLED_BUFFER_SIZE));
+
+        allowedHeaders = lowerCaseNames(context.getString(ALLOWED_HEADERS));
+        deniedHeaders = lowerCaseNames(context.getString(DENIED_HEADERS));
+        headerRenames = new HashMap<>();
+        for (Map.Entry<String, String> rename : context.getSubProperties(RENAME_HEADERS + ".").entrySet()) {
+            headerRenames.put(rename.getKey().toLowerCase(), rename.getValue().trim());
+        }
+        if (!allowedHeaders.isEmpty() || !deniedHeaders.isEmpty() || !headerRenames.isEmpty()) {
+            LOG.info("Keeping HTTP headers {}, dropping {} and renaming {}", new Object[]{
+                    allowedHeaders.isEmpty() ? "all" : allowedHeaders, deniedHeaders, headerRenames});
+        }
+
+        batchSize = context.getInteger(BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        maxContentLength = context.getLong(MAX_CONTENT_LENGTH, DEFAULT_MAX_CONTENT_LENGTH);
+        maxBodySize = context.getLong(MAX_BODY_SIZE, DEFAULT_MAX_BODY_SIZE);
+        maxObjects = context.getInteger(MAX_OBJECTS, DEFAULT_MAX_OBJECTS);
+        maxDepth = context.getInteger(MAX_DEPTH, DEFAULT_MAX_DEPTH);
+
+        long dedupCapacity = context.getLong(DEDUP_CAPACITY, DEFAULT_DEDUP_CAPACITY);
+        dedupFilter = null;
+        if (dedupCapacity > 0) {
+            dedupFilter = new DedupFilter(dedupCapacity, Double.parseDouble(context.getString(
+                    DEDUP_FALSE_POSITIVE_RATE, String.valueOf(DEFAULT_DEDUP_FALSE_POSITIVE_RATE))),
+                    context.getLong(DEDUP_WINDOW, DEFAULT_DEDUP_WINDOW));
+            LOG.info("Dropping duplicates of up to {} events per half window, {} bits and {} hashes per generation",
+                    new Object[]{dedupCapacity, dedupFilter.bits(), dedupFilter.hashes()});
+        }
+        idempotencyHeader = context.getString(IDEMPOTENCY_HEADER);
+        hashHeader = context.getString(HASH_HEADER);
+
+        coalesceMaxEvents = context.getInteger(COALESCE_MAX_EVENTS, DEFAULT_COALESCE_MAX_EVENTS);
+        coalesceMaxBytes = context.getInteger(COALESCE_MAX_BYTES, DEFAULT_COALESCE_MAX_BYTES);
+        coalesceFormat = EventCoalescer.Format.fromString(context.getString(COALESCE_FORMAT, DEFAULT_COALESCE_FORMAT));
+        coalesceCountHeader = context.getString(COALESCE_COUNT_HEADER, DEFAULT_COALESCE_COUNT_HEADER);
+        compressedEncodingHeader = context.getString(COMPRESSED_ENCODING_HEADER, DEFAULT_COMPRESSED_ENCODING_HEADER);
+        compressedLengthHeader = context.getString(COMPRESSED_LENGTH_HEADER, DEFAULT_COMPRESSED_LENGTH_HEADER);
+        compressedValidationRate = Double.parseDouble(context.getString(COMPRESSED_VALIDATION_RATE,
+                String.valueOf(DEFAULT_COMPRESSED_VALIDATION_RATE)));
+        if (coalesceMaxEvents > 0 || coalesceMaxBytes > 0) {
+            LOG.info("Packing up to {} jsons or {} bytes per event, as {}", new Object[]{
+                    coalesceMaxEvents > 0 ? coalesceMaxEvents : "any", coalesceMaxBytes > 0 ? coalesceMaxBytes : "any",
+                    coalesceFormat});
+            boolean jsonBodies = parseMode != ParseMode.STREAMING || bodyEncoder instanceof JsonEventBodyEncoder
+                    || bodyEncoder instanceof Json4sEventBodyEncoder;
+            if (coalesceFormat == EventCoalescer.Format.ARRAY && !jsonBodies) {
+                LOG.warn("Bodies of the {} encoder may not be jsons, packing them as a json array may not be valid.",
+                        bodyEncoder.getClass().getSimpleName());
+            }
+            if (hashHeader != null) {
+                LOG.warn("Every json gets its own {} header, jsons are not packed together.", hashHeader);
+            }
+        }
+
+        parallelThreshold = context.getLong(PARALLEL_THRESHOLD, DEFAULT_PARALLEL_THRESHOLD);
+        if (parallelThreshold > 0 && batchSize > 0) {
+            // a request read in parallel is held whole in memory, which the sub-batches are meant to avoid
+            throw new IllegalArgumentException(PARALLEL_THRESHOLD + " and " + BATCH_SIZE + " cannot be combined");
+        }
+        parallelSegmentSize = context.getInteger(PARALLEL_SEGMENT_SIZE, DEFAULT_PARALLEL_SEGMENT_SIZE);
+        int parallelism = context.getInteger(PARALLELISM, DEFAULT_PARALLELISM);
+        if (parallelPool != null) {
+            parallelPool.shutdown();
+        }
+        parallelPool = null;
+        if (parallelThreshold > 0) {
+            parallelPool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+            LOG.info("Parsing requests of {} bytes or more on {} threads", parallelThreshold,
+                    parallelPool.getParallelism());
+        }
+
+        int internCacheSize = context.getInteger(INTERN_CACHE_SIZE, DEFAULT_INTERN_CACHE_SIZE);
+        interner = null;
+        if (internCacheSize > 0) {
+            interner = new StringInterner(internCacheSize,
+                    context.getInteger(INTERN_MAX_LENGTH, DEFAULT_INTERN_MAX_LENGTH));
+            if (parseMode != ParseMode.TREE) {
+                LOG.warn("The intern cache is only used in tree mode, {} mode keeps no string values.", parseMode);
+            }
+        }
+
+        allocationCounter = null;
+        if (context.getBoolean(MEASURE_ALLOCATIONS, DEFAULT_MEASURE_ALLOCATIONS)) {
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            if (threadBean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+                allocationCounter = (com.sun.management.ThreadMXBean) threadBean;
+                allocationCounter.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                LOG.warn("Per thread allocation counters are not supported by this JVM, allocations are not measured.");
+            }
+        }
+        LOG.info("Using parse mode {}", parseMode);
+    }
+
+    /**
+     * Parser over the request input, wrapped as configured: nesting is limited, string values are interned, values
+     * promoted to headers are captured, jsons are projected and root level arrays are unwrapped.
+     */
+    private final class ParserChain {
+        /**
+         * The parser events are read from.
+         */
+        private final JsonParser parser;
+        private final HeaderCapturingJsonParser capturingParser;
+        private final ProjectingJsonParser projectingParser;
+
+        /**
+         * @param jsonParser the parser over the request input.
+         * @param internCounts where the intern cache lookups are counted, null not to intern string values.
+         */
+        private ParserChain(JsonParser jsonParser, StringInterner.Counts internCounts) {
+            if (maxDepth > 0) {
+                jsonParser = new DepthLimitingJsonParser(jsonParser, maxDepth);
+            }
+            if (interner != null && internCounts != null) {
+                jsonParser = new InterningJsonParser(jsonParser, interner, internCounts);
+            }
+            capturingParser = headerPaths == null ? null : new HeaderCapturingJsonParser(jsonParser, headerPaths);
+            JsonParser captured = capturingParser == null ? jsonParser : capturingParser;
+            projectingParser = pathFilter == null ? null : new ProjectingJsonParser(captured, pathFilter);
+            parser = new RootArrayUnwrappingJsonParser(projectingParser == null ? captured : projectingParser);
+        }
+
+        /**
+         * Adds the values captured from the json just read to the request headers.
+         *
+         * @param headers the headers shared by every event of the request.
+         * @return the headers of the event.
+         */
+        private Map<String, String> eventHeaders(CompactHeaderMap headers) {
+            if (capturingParser == null || capturingParser.getCapturedHeaders().isEmpty()) {
+                return headers.share();
+            }
+            Map<String, String> eventHeaders = new HashMap<>(headers);
+            eventHeaders.putAll(capturingParser.getCapturedHeaders());
+            return eventHeaders;
+        }
+
+        /**
+         * @return the size of the input dropped by the projection so far.
+         */
+        private long droppedUnits() {
+            return projectingParser == null ? 0 : projectingParser.getDroppedUnits();
+        }
+    }
+
+    /**
+     * Consecutive jsons of a request read by one task of the fork join pool, and what came out of them.
+     */
+    private final class Segment {
+        private final byte[] buffer;
+        private final int[] spans;
+        private final int from;
+        private final int to;
+        private final CompactHeaderMap headers;
+        private final EventBatch events = new EventBatch(null, 0, 0);
+        private final StringInterner.Counts internCounts = new StringInterner.Counts();
+        private long droppedUnits;
+        private Exception failure;
+
+        /**
+         * @param buffer the request.
+         * @param spans the start and end offsets of the jsons of the request.
+         * @param from index in the spans of the start of the first json of the segment.
+         * @param to index in the spans of the start of the first json after the segment.
+         * @param headers the headers attached to every event.
+         */
+        private Segment(byte[] buffer, int[] spans, int from, int to, CompactHeaderMap headers) {
+            this.buffer = buffer;
+            this.spans = spans;
+            this.from = from;
+            this.to = to;
+            this.headers = headers;
+        }
+
+        /**
+         * Reads the jsons of the segment one by one, stopping at the first that is not valid.
+         */
+        private void read() {
+            try {
+                for (int i = from; i < to; i += 2) {
+                    int offset = spans[i];
+                    int length = spans[i + 1] - spans[i];
+                    if (parseMode == ParseMode.PASSTHROUGH) {
+                        readPassthroughEvents(new PassthroughEventSlicer(jsonFactory,
+                                new ByteArrayInputStream(buffer, offset, length), stripWhitespace, headerPaths,
+                                maxDepth, bufferPool), headers, events);
+                    } else {
+                        ParserChain chain = new ParserChain(jsonFactory.createJsonParser(buffer, offset, length),
+                                parseMode == ParseMode.TREE ? internCounts : null);
+                        if (parseMode == ParseMode.STREAMING) {
+                            readStreamedEvents(chain, headers, events);
+                        } else {
+                            readTreeEvents(chain, headers, events);
+                        }
+                        droppedUnits += chain.droppedUnits();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Reads a range of segments, splitting it in halves until there is a single segment left.
+     */
+    private static final class SegmentReader extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Segment> segments;
+        private final int from;
+        private final int to;
+
+        private SegmentReader(List<Segment> segments, int from, int to) {
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                segments.get(from).read();
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SegmentReader(segments, from, middle), new SegmentReader(segments, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        private long getCount() {
+            return count;
+        }
     }
 
     /**
@@ -0,0 +1,243 @@
+package com.keedio.flume.source.http.json.handler;
+
+/**
+ * Configuration keys understood by {@link KeedioJSONHandler}. Keys are relative to the handler namespace, i.e.
+ * <code>agent.sources.http.handler.&lt;key&gt;</code>.
+ */
+public final class KeedioJSONHandlerConfigurationConstants {
+
+    /**
+     * How incoming jsons are turned into event bodies. See {@link ParseMode}.
+     */
+    public static final String PARSE_MODE = "parseMode";
+    public static final String DEFAULT_PARSE_MODE = "tree";
+
+    /**
+     * Whether whitespace outside string values is removed from the bodies built in passthrough mode.
+     */
+    public static final String STRIP_WHITESPACE = "stripWhitespace";
+    public static final boolean DEFAULT_STRIP_WHITESPACE = false;
+
+    /**
+     * Event body encoder used in streaming mode: a built-in name (json, json4s, smile, avro) or the fully qualified
+     * class name of an EventBodyEncoder. Its own properties go under the <code>encoder.</code> prefix.
+     */
+    public static final String ENCODER = "encoder";
+    public static final String DEFAULT_ENCODER = "json";
+
+    /**
+     * Comma separated paths of the fields kept in tree and streaming modes, every field if empty. See
+     * {@link JsonPathFilter} for the path syntax.
+     */
+    public static final String INCLUDE_PATHS = "includePaths";
+
+    /**
+     * Comma separated paths of the fields dropped in tree and streaming modes.
+     */
+    public static final String EXCLUDE_PATHS = "excludePaths";
+
+    /**
+     * Prefix of the json paths promoted to event headers, as <code>headerPaths.&lt;header&gt; = &lt;path&gt;</code>.
+     * The first scalar value found at the path becomes the header value. See {@link JsonPathNode} for the path
+     * syntax.
+     */
+    public static final String HEADER_PATHS = "headerPaths";
+
+    /**
+     * Comma separated content types of the requests holding newline delimited jsons, one json per line.
+     */
+    public static final String NDJSON_CONTENT_TYPES = "ndjsonContentTypes";
+    public static final String DEFAULT_NDJSON_CONTENT_TYPES =
+            "application/x-ndjson,application/ndjson,application/jsonl,application/x-jsonlines";
+
+    /**
+     * Whether invalid lines of newline delimited json requests are skipped instead of failing the whole request.
+     */
+    public static final String SKIP_INVALID_LINES = "skipInvalidLines";
+    public static final boolean DEFAULT_SKIP_INVALID_LINES = false;
+
+    /**
+     * Maximum number of idle read buffers kept for reuse across requests, 0 to disable pooling.
+     */
+    public static final String BUFFER_POOL_SIZE = "bufferPoolSize";
+    public static final int DEFAULT_BUFFER_POOL_SIZE = 32;
+
+    /**
+     * Initial size in bytes of the pooled read buffers.
+     */
+    public static final String BUFFER_SIZE = "bufferSize";
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * Size in bytes of the largest read buffer put back into the pool, bigger ones are left to the garbage collector.
+     */
+    public static final String MAX_POOLED_BUFFER_SIZE = "maxPooledBufferSize";
+    public static final int DEFAULT_MAX_POOLED_BUFFER_SIZE = 1048576;
+
+    /**
+     * Whether the bytes allocated per event while reading a request are measured and reported. Relies on the
+     * per thread allocation counters of the JVM, ignored if they are not supported.
+     */
+    public static final String MEASURE_ALLOCATIONS = "measureAllocations";
+    public static final boolean DEFAULT_MEASURE_ALLOCATIONS = false;
+
+    /**
+     * Number of slots of the cache of repeated string values used by the tree parse mode, 0 to disable it.
+     */
+    public static final String INTERN_CACHE_SIZE = "internCacheSize";
+    public static final int DEFAULT_INTERN_CACHE_SIZE = 0;
+
+    /**
+     * Length of the longest string value kept in the cache of repeated values.
+     */
+    public static final String INTERN_MAX_LENGTH = "internMaxLength";
+    public static final int DEFAULT_INTERN_MAX_LENGTH = 32;
+
+    /**
+     * Comma separated HTTP headers copied to the events, case insensitive. Empty to copy every header.
+     */
+    public static final String ALLOWED_HEADERS = "allowedHeaders";
+
+    /**
+     * Comma separated HTTP headers never copied to the events, case insensitive.
+     */
+    public static final String DENIED_HEADERS = "deniedHeaders";
+
+    /**
+     * Prefix of the properties renaming HTTP headers in the events,
+     * <code>renameHeaders.&lt;HTTP header&gt;=&lt;event header&gt;</code>.
+     */
+    public static final String RENAME_HEADERS = "renameHeaders";
+
+    /**
+     * Number of events handed to the channel at once while a request is still being read, when the source
+     * supports it. 0 to hand over every event of a request at once, when the whole request has been read.
+     */
+    public static final String BATCH_SIZE = "batchSize";
+    public static final int DEFAULT_BATCH_SIZE = 0;
+
+    /**
+     * Largest Content-Length accepted, in bytes as sent, compressed or not. Checked before reading the request.
+     * 0 for no limit.
+     */
+    public static final String MAX_CONTENT_LENGTH = "maxContentLength";
+    public static final long DEFAULT_MAX_CONTENT_LENGTH = 0;
+
+    /**
+     * Largest request body read, in bytes once decompressed. Checked while reading, so it also holds for requests
+     * without a Content-Length. 0 for no limit.
+     */
+    public static final String MAX_BODY_SIZE = "maxBodySize";
+    public static final long DEFAULT_MAX_BODY_SIZE = 0;
+
+    /**
+     * Largest number of jsons in a request. 0 for no limit.
+     */
+    public static final String MAX_OBJECTS = "maxObjects";
+    public static final int DEFAULT_MAX_OBJECTS = 0;
+
+    /**
+     * Deepest nesting of objects and arrays in a request, root level arrays included. 0 for no limit.
+     */
+    public static final String MAX_DEPTH = "maxDepth";
+    public static final int DEFAULT_MAX_DEPTH = 0;
+
+    /**
+     * <code>Content-Length</code> in bytes from which UTF-8 requests holding several jsons are read on every core,
+     * 0 to always read requests on the Jetty thread. Such requests are held whole in memory, so it cannot be
+     * combined with {@link #BATCH_SIZE}.
+     */
+    public static final String PARALLEL_THRESHOLD = "parallelThreshold";
+    public static final long DEFAULT_PARALLEL_THRESHOLD = 0;
+
+    /**
+     * Size in bytes of the segments of a request read in parallel, each read as a single task.
+     */
+    public static final String PARALLEL_SEGMENT_SIZE = "parallelSegmentSize";
+    public static final int DEFAULT_PARALLEL_SEGMENT_SIZE = 65536;
+
+    /**
+     * Number of threads reading requests in parallel, shared by every request, 0 for one per core.
+     */
+    public static final String PARALLELISM = "parallelism";
+    public static final int DEFAULT_PARALLELISM = 0;
+
+    /**
+     * Number of distinct events the duplicate filter remembers per half window at the configured false positive
+     * rate, 0 to keep duplicates.
+     */
+    public static final String DEDUP_CAPACITY = "dedupCapacity";
+    public static final long DEFAULT_DEDUP_CAPACITY = 0;
+
+    /**
+     * Probability of dropping a new event as a duplicate when the duplicate filter is at capacity.
+     */
+    public static final String DEDUP_FALSE_POSITIVE_RATE = "dedupFalsePositiveRate";
+    public static final double DEFAULT_DEDUP_FALSE_POSITIVE_RATE = 0.0001;
+
+    /**
+     * Milliseconds an event committed to the channel is remembered by the duplicate filter, at most. Events are
+     * remembered for at least half of it.
+     */
+    public static final String DEDUP_WINDOW = "dedupWindow";
+    public static final long DEFAULT_DEDUP_WINDOW = 600000;
+
+    /**
+     * HTTP header holding the idempotency key of a request. Events of requests carrying it are identified by the
+     * key and their position instead of the hash of their body.
+     */
+    public static final String IDEMPOTENCY_HEADER = "idempotencyHeader";
+
+    /**
+     * Event header set to the 64 bit hash identifying the event, as 16 hexadecimal digits.
+     */
+    public static final String HASH_HEADER = "hashHeader";
+
+    /**
+     * Largest number of jsons packed into one event, 0 for no limit. Jsons are packed only if this or
+     * <code>coalesceMaxBytes</code> is set.
+     */
+    public static final String COALESCE_MAX_EVENTS = "coalesceMaxEvents";
+    public static final int DEFAULT_COALESCE_MAX_EVENTS = 0;
+
+    /**
+     * Largest body in bytes of an event packing several jsons, 0 for no limit.
+     */
+    public static final String COALESCE_MAX_BYTES = "coalesceMaxBytes";
+    public static final int DEFAULT_COALESCE_MAX_BYTES = 0;
+
+    /**
+     * Body of an event packing several jsons: <code>array</code>, a json array of the bodies, or
+     * <code>lengthPrefixed</code>, every body prefixed by its length as a 4 byte big endian integer.
+     */
+    public static final String COALESCE_FORMAT = "coalesceFormat";
+    public static final String DEFAULT_COALESCE_FORMAT = "array";
+
+    /**
+     * Header of an event packing several jsons set to their number.
+     */
+    public static final String COALESCE_COUNT_HEADER = "coalesceCountHeader";
+    public static final String DEFAULT_COALESCE_COUNT_HEADER = "jsonCount";
+
+    /**
+     * Header of the event of a compressed body kept as sent set to its <code>Content-Encoding</code>.
+     */
+    public static final String COMPRESSED_ENCODING_HEADER = "compressedEncodingHeader";
+    public static final String DEFAULT_COMPRESSED_ENCODING_HEADER = "contentEncoding";
+
+    /**
+     * Header of the event of a compressed body kept as sent set to its inflated size in bytes, when known.
+     */
+    public static final String COMPRESSED_LENGTH_HEADER = "compressedLengthHeader";
+    public static final String DEFAULT_COMPRESSED_LENGTH_HEADER = "uncompressedLength";
+
+    /**
+     * Fraction of the compressed bodies kept as sent that are inflated and checked to hold valid jsons, between 0
+     * and 1.
+     */
+    public static final String COMPRESSED_VALIDATION_RATE = "compressedValidationRate";
+    public static final double DEFAULT_COMPRESSED_VALIDATION_RATE = 0;
+
+    private KeedioJSONHandlerConfigurationConstants() {
+    }
+}
@@ -0,0 +1,169 @@
+package com.keedio.flume.source.http.json.handler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * Splits newline delimited json input into lines, trimmed of surrounding whitespace. UTF-8 input is split byte by
+ * byte into a reused buffer, input in any other encoding is read as characters and every line is transcoded to
+ * UTF-8. Buffers are taken from a {@link BufferPool} and must be given back with {@link #release()}.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the handler creates one per request.
+ * </p>
+ */
+class NdjsonLineReader {
+    private final InputStream in;
+    private final BufferedReader reader;
+    private final BufferPool bufferPool;
+
+    private byte[] readBuffer;
+    private int readPosition;
+    private int readLimit;
+
+    private byte[] line;
+    private int lineStart;
+    private int lineEnd;
+    private long lineNumber;
+
+    /**
+     * @param in the request input, UTF-8 encoded.
+     * @param bufferPool the pool buffers are taken from.
+     */
+    NdjsonLineReader(InputStream in, BufferPool bufferPool) {
+        this.in = in;
+        this.reader = null;
+        this.bufferPool = bufferPool;
+        this.readBuffer = bufferPool.acquire();
+        this.line = bufferPool.acquire();
+    }
+
+    /**
+     * @param reader the request input, already decoded.
+     * @param bufferPool the pool buffers are taken from.
+     */
+    NdjsonLineReader(Reader reader, BufferPool bufferPool) {
+        this.in = null;
+        this.reader = new BufferedReader(reader);
+        this.bufferPool = bufferPool;
+        this.line = bufferPool.acquire();
+    }
+
+    /**
+     * Returns the buffers taken from the pool. The reader must not be used afterwards.
+     */
+    void release() {
+        if (readBuffer != null) {
+            bufferPool.release(readBuffer);
+            readBuffer = null;
+        }
+        if (line != null) {
+            bufferPool.release(line);
+            line = null;
+        }
+    }
+
+    /**
+     * Reads the next line, blank lines included.
+     *
+     * @return whether there was a line to read.
+     * @throws IOException if the input cannot be read.
+     */
+    boolean next() throws IOException {
+        boolean read = in != null ? readBytes() : readChars();
+        if (read) {
+            lineNumber++;
+            while (lineStart < lineEnd && isWhitespace(line[lineStart])) {
+                lineStart++;
+            }
+            while (lineEnd > lineStart && isWhitespace(line[lineEnd - 1])) {
+                lineEnd--;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * @return the buffer holding the current line, valid until the next call to {@link #next()}.
+     */
+    byte[] buffer() {
+        return line;
+    }
+
+    /**
+     * @return the offset of the current line in the buffer.
+     */
+    int offset() {
+        return lineStart;
+    }
+
+    /**
+     * @return the length of the current line, zero for blank lines.
+     */
+    int length() {
+        return lineEnd - lineStart;
+    }
+
+    /**
+     * @return the number of the current line, starting from 1.
+     */
+    long lineNumber() {
+        return lineNumber;
+    }
+
+    private boolean readBytes() throws IOException {
+        lineStart = 0;
+        lineEnd = 0;
+        while (true) {
+            if (readPosition == readLimit) {
+                readLimit = in.read(readBuffer, 0, readBuffer.length);
+                readPosition = 0;
+                if (readLimit <= 0) {
+                    readLimit = 0;
+                    return lineEnd > 0;
+                }
+            }
+
+            int newline = readPosition;
+            while (newline < readLimit && readBuffer[newline] != '\n') {
+                newline++;
+            }
+            append(readBuffer, readPosition, newline - readPosition);
+            if (newline < readLimit) {
+                readPosition = newline + 1;
+                return true;
+            }
+            readPosition = readLimit;
+        }
+    }
+
+    private boolean readChars() throws IOException {
+        String text = reader.readLine();
+        if (text == null) {
+            return false;
+        }
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(text));
+        lineStart = 0;
+        lineEnd = 0;
+        append(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+        return true;
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        if (lineEnd + length > line.length) {
+            line = bufferPool.grow(line, lineEnd, lineEnd + length);
+        }
+        System.arraycopy(bytes, offset, line, lineEnd, length);
+        lineEnd += length;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
@@ -0,0 +1,34 @@
+package com.keedio.flume.source.http.json.handler;
+
+/**
+ * Strategies available to {@link KeedioJSONHandler} to turn incoming jsons into flume event bodies.
+ */
+public enum ParseMode {
+    /**
+     * Every json is parsed to a map, serialized back to a String, parsed again as a json4s AST and encoded by
+     * JValueEncoder.
+     */
+    TREE,
+
+    /**
+     * Every json is streamed once from the request and its event body is written directly by the configured
+     * {@link com.keedio.flume.source.http.json.handler.encoder.EventBodyEncoder}. The default encoder produces the
+     * same bodies as {@link #TREE}.
+     */
+    STREAMING,
+
+    /**
+     * Every json is validated and its original text is copied verbatim into the event body, optionally stripped
+     * of insignificant whitespace. Jsons are never materialized.
+     */
+    PASSTHROUGH;
+
+    /**
+     * @param name the configured mode name, case insensitive.
+     * @return the matching mode.
+     * @throws IllegalArgumentException if the name does not match any mode.
+     */
+    public static ParseMode fromString(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
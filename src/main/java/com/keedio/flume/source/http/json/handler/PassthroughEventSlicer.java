@@ -0,0 +1,332 @@
+package com.keedio.flume.source.http.json.handler;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * <p>
+ * Slices every root level JSON object out of the request input without materializing it. The parser is only
+ * asked for structural tokens, so string contents and numbers are validated but never decoded, and the text of
+ * every object is copied verbatim, optionally stripped of insignificant whitespace, into the event body.
+ * </p>
+ * <p>
+ * UTF-8 input is sliced byte by byte. Input in any other encoding is read as characters and the slices are
+ * transcoded to UTF-8. The objects of root level arrays are sliced one by one, without the brackets and commas
+ * around them.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the handler creates one per request.
+ * </p>
+ */
+class PassthroughEventSlicer {
+    private final RecordedInput input;
+    private final JsonParser parser;
+    private final HeaderCapturingJsonParser capturingParser;
+    private final boolean stripWhitespace;
+
+    /**
+     * @param jsonFactory the factory used to create the parser validating the input.
+     * @param in the request input, UTF-8 encoded.
+     * @param stripWhitespace whether whitespace outside string values should be removed from the bodies.
+     * @param headerPaths the paths whose values are captured as headers, null if none.
+     * @param maxDepth the maximum nesting depth, 0 for no limit.
+     * @param bufferPool the pool the recording buffer is taken from.
+     * @throws IOException if the parser cannot be created.
+     */
+    PassthroughEventSlicer(JsonFactory jsonFactory, InputStream in, boolean stripWhitespace,
+                           JsonPathNode headerPaths, int maxDepth, BufferPool bufferPool) throws IOException {
+        this(new RecordingInputStream(in, bufferPool), jsonFactory, stripWhitespace, headerPaths, maxDepth);
+    }
+
+    /**
+     * @param jsonFactory the factory used to create the parser validating the input.
+     * @param reader the request input, already decoded.
+     * @param stripWhitespace whether whitespace outside string values should be removed from the bodies.
+     * @param headerPaths the paths whose values are captured as headers, null if none.
+     * @param maxDepth the maximum nesting depth, 0 for no limit.
+     * @throws IOException if the parser cannot be created.
+     */
+    PassthroughEventSlicer(JsonFactory jsonFactory, Reader reader, boolean stripWhitespace,
+                           JsonPathNode headerPaths, int maxDepth) throws IOException {
+        this(new RecordingReader(reader), jsonFactory, stripWhitespace, headerPaths, maxDepth);
+    }
+
+    private PassthroughEventSlicer(RecordedInput input, JsonFactory jsonFactory, boolean stripWhitespace,
+                                   JsonPathNode headerPaths, int maxDepth) throws IOException {
+        this.input = input;
+        JsonParser jsonParser = input instanceof Reader ? jsonFactory.createJsonParser((Reader) input)
+                : jsonFactory.createJsonParser((InputStream) input);
+        if (maxDepth > 0) {
+            jsonParser = new DepthLimitingJsonParser(jsonParser, maxDepth);
+        }
+        if (headerPaths == null) {
+            this.capturingParser = null;
+        } else {
+            this.capturingParser = new HeaderCapturingJsonParser(jsonParser, headerPaths);
+            jsonParser = capturingParser;
+        }
+        this.parser = new RootArrayUnwrappingJsonParser(jsonParser);
+        this.stripWhitespace = stripWhitespace;
+    }
+
+    /**
+     * Returns the buffers taken from the pool. The slicer must not be used afterwards.
+     */
+    void release() {
+        input.release();
+    }
+
+    /**
+     * @return the values captured from the last sliced object, by header name.
+     */
+    Map<String, String> getCapturedHeaders() {
+        return capturingParser == null ? Collections.<String, String>emptyMap()
+                : capturingParser.getCapturedHeaders();
+    }
+
+    /**
+     * Reads the next root level object.
+     *
+     * @return the object text, UTF-8 encoded, or null if there are no more objects in the input.
+     * @throws IOException if the input is not well formed.
+     */
+    byte[] next() throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected a JSON object, found " + token, parser.getTokenLocation());
+        }
+
+        /*
+         * Jackson 1.x reports byte offsets through getCharOffset() when parsing from a byte stream. In both cases
+         * the current location points to the closing brace, which is the last unit consumed.
+         */
+        long start = parser.getTokenLocation().getCharOffset();
+        parser.skipChildren();
+        long end = parser.getCurrentLocation().getCharOffset() + 1;
+
+        byte[] body = input.slice(start, end);
+        input.discardBefore(end);
+
+        return stripWhitespace ? strip(body) : body;
+    }
+
+    /**
+     * Removes whitespace found outside string values. Multi-byte UTF-8 sequences never contain ASCII bytes, so
+     * the text can be scanned byte by byte.
+     *
+     * @param text a well formed json, UTF-8 encoded.
+     * @return the json without insignificant whitespace.
+     */
+    static byte[] strip(byte[] text) {
+        byte[] out = new byte[text.length];
+        int n = 0;
+        boolean inString = false;
+        boolean escaped = false;
+
+        for (byte c : text) {
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                continue;
+            }
+            out[n++] = c;
+        }
+
+        if (n == out.length) {
+            return out;
+        }
+        byte[] stripped = new byte[n];
+        System.arraycopy(out, 0, stripped, 0, n);
+        return stripped;
+    }
+
+    /**
+     * Input keeping everything read since the last discarded offset, so the text of the object being parsed can
+     * be sliced once the parser has validated it.
+     */
+    private interface RecordedInput {
+        /**
+         * @param start absolute offset of the first unit of the object, or of the separator before it: array
+         *              elements after the first one are located by the parser at the preceding comma.
+         * @param end absolute offset after the last unit.
+         * @return the recorded text from the opening brace on, UTF-8 encoded.
+         */
+        byte[] slice(long start, long end);
+
+        /**
+         * Forgets everything before the given absolute offset.
+         */
+        void discardBefore(long offset);
+
+        /**
+         * Returns the recording buffer to its pool, if it came from one.
+         */
+        void release();
+    }
+
+    /**
+     * Byte stream recording what is read through it.
+     */
+    private static class RecordingInputStream extends FilterInputStream implements RecordedInput {
+        private final BufferPool bufferPool;
+        private byte[] recorded;
+        private long recordedStart;
+        private int recordedLength;
+
+        RecordingInputStream(InputStream in, BufferPool bufferPool) {
+            super(in);
+            this.bufferPool = bufferPool;
+            this.recorded = bufferPool.acquire();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                ensureCapacity(recordedLength + 1);
+                recorded[recordedLength++] = (byte) b;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                ensureCapacity(recordedLength + n);
+                System.arraycopy(b, off, recorded, recordedLength, n);
+                recordedLength += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new UnsupportedOperationException("Skipping would lose recorded input");
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public byte[] slice(long start, long end) {
+            int from = (int) (start - recordedStart);
+            while (recorded[from] != '{') {
+                from++;
+            }
+            byte[] slice = new byte[(int) (end - recordedStart) - from];
+            System.arraycopy(recorded, from, slice, 0, slice.length);
+            return slice;
+        }
+
+        @Override
+        public void discardBefore(long offset) {
+            int n = (int) (offset - recordedStart);
+            System.arraycopy(recorded, n, recorded, 0, recordedLength - n);
+            recordedLength -= n;
+            recordedStart = offset;
+        }
+
+        @Override
+        public void release() {
+            if (recorded != null) {
+                bufferPool.release(recorded);
+                recorded = null;
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > recorded.length) {
+                recorded = bufferPool.grow(recorded, recordedLength, capacity);
+            }
+        }
+    }
+
+    /**
+     * Character stream recording what is read through it.
+     */
+    private static class RecordingReader extends Reader implements RecordedInput {
+        private final Reader in;
+        private char[] recorded = new char[8192];
+        private long recordedStart;
+        private int recordedLength;
+
+        RecordingReader(Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int n = in.read(cbuf, off, len);
+            if (n > 0) {
+                ensureCapacity(recordedLength + n);
+                System.arraycopy(cbuf, off, recorded, recordedLength, n);
+                recordedLength += n;
+            }
+            return n;
+        }
+
+        @Override
+        public byte[] slice(long start, long end) {
+            int from = (int) (start - recordedStart);
+            while (recorded[from] != '{') {
+                from++;
+            }
+            ByteBuffer encoded = StandardCharsets.UTF_8.encode(
+                    CharBuffer.wrap(recorded, from, (int) (end - recordedStart) - from));
+            byte[] slice = new byte[encoded.remaining()];
+            encoded.get(slice);
+            return slice;
+        }
+
+        @Override
+        public void discardBefore(long offset) {
+            int n = (int) (offset - recordedStart);
+            System.arraycopy(recorded, n, recorded, 0, recordedLength - n);
+            recordedLength -= n;
+            recordedStart = offset;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > recorded.length) {
+                char[] grown = new char[Math.max(capacity, recorded.length * 2)];
+                System.arraycopy(recorded, 0, grown, 0, recordedLength);
+                recorded = grown;
+            }
+        }
+
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.keedio.flume.source.http.json.handler;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.util.JsonParserDelegate;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Parser hiding the parts of every json a {@link JsonPathFilter} drops. Dropped fields and array elements are
+ * skipped at the token level by the underlying parser, so they are validated but never decoded nor materialized,
+ * and whatever consumes this parser, tree or streaming, only ever sees the projected json.
+ * </p>
+ * <p>
+ * To decide on a field before exposing its name, the value token is read ahead. While this parser is on a
+ * {@link JsonToken#FIELD_NAME}, the underlying one is already on the value.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the handler creates one per request.
+ * </p>
+ */
+class ProjectingJsonParser extends JsonParserDelegate {
+    private final JsonPathFilter filter;
+
+    /**
+     * Frames of the containers the parser is in; null for a root level array.
+     */
+    private JsonPathFilter.Frame[] frames = new JsonPathFilter.Frame[16];
+    private int depth;
+
+    private JsonToken current;
+    private String pendingName;
+    private JsonToken pendingValue;
+    private JsonPathFilter.Frame pendingFrame;
+
+    private long dropStart = -1;
+    private long droppedUnits;
+
+    /**
+     * @param parser the parser over the request input.
+     * @param filter the paths to keep and drop.
+     */
+    ProjectingJsonParser(JsonParser parser, JsonPathFilter filter) {
+        super(parser);
+        this.filter = filter;
+    }
+
+    /**
+     * @return the size of the input dropped so far: bytes for UTF-8 input, characters otherwise.
+     */
+    long getDroppedUnits() {
+        return droppedUnits;
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        if (pendingValue != null) {
+            current = pendingValue;
+            pendingValue = null;
+            if (isStart(current)) {
+                push(pendingFrame);
+            }
+            return current;
+        }
+
+        while (true) {
+            JsonToken token = delegate.nextToken();
+            if (dropStart >= 0) {
+                long end = (token == null ? delegate.getCurrentLocation() : delegate.getTokenLocation())
+                        .getCharOffset();
+                droppedUnits += end - dropStart;
+                dropStart = -1;
+            }
+
+            if (token == null) {
+                return current = null;
+            }
+            if (isEnd(token)) {
+                if (depth > 0) {
+                    frames[--depth] = null;
+                }
+                return current = token;
+            }
+
+            if (depth == 0) {
+                if (isStart(token)) {
+                    push(token == JsonToken.START_OBJECT ? filter.root() : null);
+                }
+                return current = token;
+            }
+
+            JsonPathFilter.Frame frame = frames[depth - 1];
+            if (frame == JsonPathFilter.Frame.KEEP_ALL) {
+                if (isStart(token)) {
+                    push(frame);
+                }
+                return current = token;
+            }
+
+            if (token == JsonToken.FIELD_NAME) {
+                String name = delegate.getCurrentName();
+                long nameStart = delegate.getTokenLocation().getCharOffset();
+                JsonToken value = delegate.nextToken();
+
+                JsonPathFilter.Frame child = frame.field(name, value.isScalarValue());
+                if (child == null) {
+                    delegate.skipChildren();
+                    dropStart = nameStart;
+                    continue;
+                }
+                pendingName = name;
+                pendingValue = value;
+                pendingFrame = child;
+                return current = token;
+            }
+
+            JsonPathFilter.Frame child;
+            if (frame == null) {
+                // objects in a root level array are jsons of their own
+                child = token == JsonToken.START_OBJECT ? filter.root() : JsonPathFilter.Frame.KEEP_ALL;
+            } else {
+                child = frame.element(token.isScalarValue());
+            }
+            if (child == null) {
+                long start = delegate.getTokenLocation().getCharOffset();
+                delegate.skipChildren();
+                dropStart = start;
+                continue;
+            }
+            if (isStart(token)) {
+                push(child);
+            }
+            return current = token;
+        }
+    }
+
+    private static boolean isStart(JsonToken token) {
+        return token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY;
+    }
+
+    private static boolean isEnd(JsonToken token) {
+        return token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY;
+    }
+
+    private void push(JsonPathFilter.Frame frame) {
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        frames[depth++] = frame;
+    }
+
+    @Override
+    public JsonParser skipChildren() throws IOException {
+        if (isStart(current)) {
+            int target = depth - 1;
+            while (depth > target && nextToken() != null) {
+                // the frames are popped as the closing tokens go by
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public JsonToken getCurrentToken() {
+        return current;
+    }
+
+    @Override
+    public boolean hasCurrentToken() {
+        return current != null;
+    }
+
+    @Override
+    public void clearCurrentToken() {
+        current = null;
+        delegate.clearCurrentToken();
+    }
+
+    @Override
+    public String getCurrentName() throws IOException {
+        return current == JsonToken.FIELD_NAME ? pendingName : delegate.getCurrentName();
+    }
+
+    @Override
+    public String getText() throws IOException {
+        return current == JsonToken.FIELD_NAME ? pendingName : delegate.getText();
+    }
+
+    @Override
+    public char[] getTextCharacters() throws IOException {
+        return current == JsonToken.FIELD_NAME ? pendingName.toCharArray() : delegate.getTextCharacters();
+    }
+
+    @Override
+    public int getTextLength() throws IOException {
+        return current == JsonToken.FIELD_NAME ? pendingName.length() : delegate.getTextLength();
+    }
+
+    @Override
+    public int getTextOffset() throws IOException {
+        return current == JsonToken.FIELD_NAME ? 0 : delegate.getTextOffset();
+    }
+}
@@ -0,0 +1,107 @@
+package com.keedio.flume.source.http.json.handler;
+
+import com.keedio.flume.source.http.CommitListener;
+import org.apache.flume.Event;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Drops the events of a request already committed to the channel by an earlier request, a client retrying a
+ * request that failed or timed out for instance. Every event is identified by the hash of its body or, if the
+ * request carries an idempotency key, by the hash of the key and the position of the event in the request.
+ * </p>
+ * <p>
+ * Events are checked against the shared {@link DedupFilter} as they are built, but their hashes only go into the
+ * filter once they are in the channel: after their sub-batch is delivered, or when the source reports the request
+ * as committed. The events of a failed request are not known as duplicates when the client retries it.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the handler creates one per request.
+ * </p>
+ */
+class RequestDeduplicator implements CommitListener {
+    private final DedupFilter filter;
+    private final String hashHeader;
+    private final boolean keyed;
+    private final long keyHash;
+    private final Map<Event, Long> pending = new IdentityHashMap<>();
+    private long index;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param filter the hashes of the events committed recently, null to only set the hash header.
+     * @param hashHeader name of the event header set to the hash of the event, null not to set it.
+     * @param idempotencyKey the idempotency key of the request, null to hash the event bodies.
+     */
+    RequestDeduplicator(DedupFilter filter, String hashHeader, String idempotencyKey) {
+        this.filter = filter;
+        this.hashHeader = hashHeader;
+        this.keyed = idempotencyKey != null;
+        byte[] key = keyed ? idempotencyKey.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        this.keyHash = BodyHash.hash(key, 0, key.length);
+    }
+
+    /**
+     * @param event the next event of the request.
+     * @return whether the event is new, false if it is a duplicate to drop.
+     */
+    boolean accept(Event event) {
+        byte[] body = event.getBody();
+        long hash = keyed ? BodyHash.combine(keyHash, index++) : BodyHash.hash(body, 0, body.length);
+        if (hashHeader != null) {
+            event.getHeaders().put(hashHeader, BodyHash.toHex(hash));
+        }
+        if (filter == null) {
+            return true;
+        }
+        if (filter.mightContain(hash)) {
+            hits++;
+            return false;
+        }
+        misses++;
+        pending.put(event, hash);
+        return true;
+    }
+
+    /**
+     * @param events events of the request just committed to the channel.
+     */
+    void committed(Collection<Event> events) {
+        for (Event event : events) {
+            Long hash = pending.remove(event);
+            if (hash != null) {
+                filter.put(hash);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void committed() {
+        for (Long hash : pending.values()) {
+            filter.put(hash);
+        }
+        pending.clear();
+    }
+
+    /**
+     * @return the number of events dropped as duplicates.
+     */
+    long hits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of events found to be new.
+     */
+    long misses() {
+        return misses;
+    }
+}
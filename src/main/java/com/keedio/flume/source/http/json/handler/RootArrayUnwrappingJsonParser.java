@@ -0,0 +1,64 @@
+package com.keedio.flume.source.http.json.handler;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.util.JsonParserDelegate;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * Parser hiding the brackets of root level arrays, so a request holding <code>[{...}, {...}]</code> reads as the
+ * concatenated objects <code>{...} {...}</code>. The elements are streamed one by one as they arrive, the array
+ * is never buffered.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the handler creates one per request.
+ * </p>
+ */
+class RootArrayUnwrappingJsonParser extends JsonParserDelegate {
+    private int depth;
+    private boolean inRootArray;
+
+    /**
+     * @param parser the parser over the request input.
+     */
+    RootArrayUnwrappingJsonParser(JsonParser parser) {
+        super(parser);
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        while (true) {
+            JsonToken token = delegate.nextToken();
+            if (token == null) {
+                return null;
+            }
+            if (depth == 0 && token == JsonToken.START_ARRAY && !inRootArray) {
+                inRootArray = true;
+                continue;
+            }
+            if (depth == 0 && token == JsonToken.END_ARRAY && inRootArray) {
+                inRootArray = false;
+                continue;
+            }
+
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                depth++;
+            } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+                depth--;
+            }
+            return token;
+        }
+    }
+
+    @Override
+    public JsonParser skipChildren() throws IOException {
+        JsonToken token = delegate.getCurrentToken();
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            delegate.skipChildren();
+            depth--;
+        }
+        return this;
+    }
+}
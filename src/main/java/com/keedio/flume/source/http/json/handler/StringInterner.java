@@ -0,0 +1,89 @@
+package com.keedio.flume.source.http.json.handler;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ * Bounded canonicalizing cache of short strings, so the values repeated over and over by the jsons, host names,
+ * OS names, widget types and the like, share a single instance instead of being allocated again for every event.
+ * </p>
+ * <p>
+ * The cache is a direct mapped table: every string has a single slot, picked by its hash, and a miss replaces
+ * whatever the slot held. Lookups compare the characters straight from the parser buffer, so a hit allocates
+ * nothing. Slots are read and written without locking, a race between two threads at worst costs a miss.
+ * </p>
+ * <p>
+ * Instances are thread safe and shared by every request.
+ * </p>
+ */
+final class StringInterner {
+    private final AtomicReferenceArray<String> slots;
+    private final int mask;
+    private final int maxLength;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two.
+     * @param maxLength length of the longest string cached, longer ones are always allocated.
+     */
+    StringInterner(int capacity, int maxLength) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @param chars buffer holding the characters.
+     * @param offset offset of the first character.
+     * @param length number of characters.
+     * @param counts where the outcome of the lookup is counted.
+     * @return the cached string equal to the characters, or a new one.
+     */
+    String intern(char[] chars, int offset, int length, Counts counts) {
+        if (length > maxLength) {
+            return new String(chars, offset, length);
+        }
+
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & mask;
+
+        String cached = slots.get(slot);
+        if (cached != null && equals(cached, chars, offset, length)) {
+            counts.hits++;
+            return cached;
+        }
+
+        String value = new String(chars, offset, length);
+        slots.lazySet(slot, value);
+        counts.misses++;
+        if (cached != null) {
+            counts.evictions++;
+        }
+        return value;
+    }
+
+    private static boolean equals(String s, char[] chars, int offset, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Outcome of the lookups done while reading a request. Not thread safe, counted per request and reported
+     * once to keep lookups free of contention.
+     */
+    static final class Counts {
+        long hits;
+        long misses;
+        long evictions;
+    }
+}
@@ -0,0 +1,273 @@
+package com.keedio.flume.source.http.json.handler.encoder;
+
+import com.google.common.base.Preconditions;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.flume.Context;
+import org.apache.flume.FlumeException;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.map.JsonMappingException;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Encodes every JSON as an Avro binary datum of a configured record schema. Bodies carry no schema, the
+ * <code>flume.avro.schema.url</code> or <code>flume.avro.schema.literal</code> header tells downstream consumers,
+ * such as the HDFS sink Avro serializer, how to read them.
+ * </p>
+ * <p>
+ * Properties:
+ * <ul>
+ *     <li><code>schemaFile</code> (required): local path of the <code>.avsc</code> schema.</li>
+ *     <li><code>schemaUrl</code>: URL the schema is published at. If set it is sent in the
+ *     <code>flume.avro.schema.url</code> header, otherwise the whole schema goes in
+ *     <code>flume.avro.schema.literal</code>.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * JSON values are mapped to the schema types: unions take the first branch able to hold the value, missing
+ * record fields take their default value, or are rejected if they have none, and unknown fields are ignored. Objects that cannot be represented
+ * are rejected with a {@link JsonMappingException}.
+ * </p>
+ */
+public class AvroEventBodyEncoder implements EventBodyEncoder {
+    public static final String SCHEMA_FILE = "schemaFile";
+    public static final String SCHEMA_URL = "schemaUrl";
+    public static final String SCHEMA_URL_HEADER = "flume.avro.schema.url";
+    public static final String SCHEMA_LITERAL_HEADER = "flume.avro.schema.literal";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ThreadLocal<Buffers> buffers = new ThreadLocal<>();
+
+    private Schema schema;
+    private GenericDatumWriter<Object> datumWriter;
+    private Map<String, String> headers;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] encode(JsonParser parser) throws IOException {
+        JsonNode json = mapper.readTree(parser);
+        Object datum = toAvro(json, schema, schema.getName());
+
+        Buffers b = buffers.get();
+        if (b == null) {
+            b = new Buffers();
+            buffers.set(b);
+        }
+        b.out.reset();
+        b.encoder = EncoderFactory.get().binaryEncoder(b.out, b.encoder);
+
+        datumWriter.write(datum, b.encoder);
+        b.encoder.flush();
+        return b.out.toByteArray();
+    }
+
+    /**
+     * Converts a JSON value to the Avro representation of the given schema.
+     *
+     * @param json the value.
+     * @param s the schema the value must follow.
+     * @param path the path of the value, for error reporting.
+     * @return the Avro datum.
+     * @throws JsonMappingException if the value cannot be represented with the schema.
+     */
+    private Object toAvro(JsonNode json, Schema s, String path) throws JsonMappingException {
+        switch (s.getType()) {
+            case NULL:
+                if (json == null || json.isNull()) {
+                    return null;
+                }
+                break;
+            case BOOLEAN:
+                if (json.isBoolean()) {
+                    return json.getBooleanValue();
+                }
+                break;
+            case INT:
+                if (json.isInt()) {
+                    return json.getIntValue();
+                }
+                break;
+            case LONG:
+                if (json.isInt() || json.isLong()) {
+                    return json.getLongValue();
+                }
+                break;
+            case FLOAT:
+                if (json.isNumber()) {
+                    return (float) json.getDoubleValue();
+                }
+                break;
+            case DOUBLE:
+                if (json.isNumber()) {
+                    return json.getDoubleValue();
+                }
+                break;
+            case STRING:
+                if (json.isTextual()) {
+                    return json.getTextValue();
+                }
+                break;
+            case BYTES:
+                if (json.isTextual()) {
+                    return ByteBuffer.wrap(json.getTextValue().getBytes(StandardCharsets.ISO_8859_1));
+                }
+                break;
+            case FIXED:
+                if (json.isTextual() && json.getTextValue().length() == s.getFixedSize()) {
+                    return new GenericData.Fixed(s, json.getTextValue().getBytes(StandardCharsets.ISO_8859_1));
+                }
+                break;
+            case ENUM:
+                if (json.isTextual() && s.hasEnumSymbol(json.getTextValue())) {
+                    return new GenericData.EnumSymbol(s, json.getTextValue());
+                }
+                break;
+            case ARRAY:
+                if (json.isArray()) {
+                    List<Object> array = new ArrayList<>(json.size());
+                    for (int i = 0; i < json.size(); i++) {
+                        array.add(toAvro(json.get(i), s.getElementType(), path + "[" + i + "]"));
+                    }
+                    return array;
+                }
+                break;
+            case MAP:
+                if (json.isObject()) {
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    Iterator<Map.Entry<String, JsonNode>> fields = json.getFields();
+                    while (fields.hasNext()) {
+                        Map.Entry<String, JsonNode> field = fields.next();
+                        map.put(field.getKey(), toAvro(field.getValue(), s.getValueType(),
+                                path + "." + field.getKey()));
+                    }
+                    return map;
+                }
+                break;
+            case RECORD:
+                if (json.isObject()) {
+                    GenericData.Record record = new GenericData.Record(s);
+                    for (Schema.Field field : s.getFields()) {
+                        String fieldPath = path + "." + field.name();
+                        JsonNode value = json.get(field.name());
+                        if (value == null) {
+                            value = field.defaultValue();
+                        }
+                        if (value == null) {
+                            throw new JsonMappingException("Missing field " + fieldPath);
+                        }
+                        record.put(field.pos(), toAvro(value, field.schema(), fieldPath));
+                    }
+                    return record;
+                }
+                break;
+            case UNION:
+                for (Schema branch : s.getTypes()) {
+                    if (matches(json, branch)) {
+                        return toAvro(json, branch, path);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        throw new JsonMappingException("Value at " + path + " does not match Avro schema " + s);
+    }
+
+    /**
+     * Tells whether a JSON value can be held by a union branch, without looking into nested values.
+     */
+    private static boolean matches(JsonNode json, Schema branch) {
+        if (json == null || json.isNull()) {
+            return branch.getType() == Schema.Type.NULL;
+        }
+        switch (branch.getType()) {
+            case BOOLEAN:
+                return json.isBoolean();
+            case INT:
+                return json.isInt();
+            case LONG:
+                return json.isInt() || json.isLong();
+            case FLOAT:
+            case DOUBLE:
+                return json.isNumber();
+            case STRING:
+                return json.isTextual();
+            case ENUM:
+                return json.isTextual() && branch.hasEnumSymbol(json.getTextValue());
+            case BYTES:
+            case FIXED:
+                return json.isTextual();
+            case ARRAY:
+                return json.isArray();
+            case MAP:
+            case RECORD:
+                return json.isObject();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void configure(Context context) {
+        String schemaFile = context.getString(SCHEMA_FILE);
+        Preconditions.checkArgument(schemaFile != null, "Avro encoder requires the " + SCHEMA_FILE + " property");
+
+        try {
+            schema = new Schema.Parser().parse(new File(schemaFile));
+        } catch (IOException e) {
+            throw new FlumeException("Unable to read Avro schema " + schemaFile, e);
+        }
+        Preconditions.checkArgument(schema.getType() == Schema.Type.RECORD,
+                "Avro encoder requires a record schema, found " + schema.getType());
+
+        datumWriter = new GenericDatumWriter<>(schema);
+
+        Map<String, String> schemaHeaders = new HashMap<>();
+        String schemaUrl = context.getString(SCHEMA_URL);
+        if (schemaUrl != null) {
+            schemaHeaders.put(SCHEMA_URL_HEADER, schemaUrl);
+        } else {
+            schemaHeaders.put(SCHEMA_LITERAL_HEADER, schema.toString());
+        }
+        headers = Collections.unmodifiableMap(schemaHeaders);
+    }
+
+    /**
+     * Per thread output buffers, reused across events.
+     */
+    private static class Buffers {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        BinaryEncoder encoder;
+    }
+}
@@ -0,0 +1,374 @@
+package com.keedio.flume.source.http.json.handler.encoder;
+
+import com.google.common.base.Charsets;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.SerializableString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Single-pass serializer that turns the JSON object the parser is currently positioned on into the compact
+ * byte representation used as flume Event body.
+ * </p>
+ * <p>
+ * The output is the same the tree based path produces (Jackson map, String, json4s AST, JValueEncoder):
+ * root level fields are sorted by name and, if repeated, the last occurrence wins. Nested objects keep their
+ * fields in the order they arrive; a repeated name keeps the place of its first occurrence and the value of the
+ * last one, as in the map the tree path reads. Strings are escaped as {@link JsonStrings} does.
+ * </p>
+ * <p>
+ * Instances are not thread safe, {@link JsonEventBodyEncoder} keeps one per thread.
+ * </p>
+ */
+class CompactJsonEventWriter {
+    private final ExposedByteArrayOutputStream scratch = new ExposedByteArrayOutputStream();
+    private final JsonFactory jsonFactory;
+    private final JsonGenerator generator;
+    private final List<Set<String>> names = new ArrayList<>();
+
+    private byte[] quoted = new byte[256];
+
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int nElements;
+
+    /**
+     * @param jsonFactory the factory used to create the scratch generator.
+     * @throws IOException if the generator cannot be created.
+     */
+    CompactJsonEventWriter(JsonFactory jsonFactory) throws IOException {
+        this.jsonFactory = jsonFactory;
+        generator = jsonFactory.createJsonGenerator(scratch, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+    }
+
+    /**
+     * Consumes the object the parser is positioned on and returns its compact serialization.
+     *
+     * @param parser the parser, positioned on a {@link JsonToken#START_OBJECT} token.
+     * @return the serialized object, UTF-8 encoded.
+     * @throws IOException if the input is not well formed.
+     */
+    byte[] write(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected a JSON object, found " + parser.getCurrentToken(),
+                    parser.getCurrentLocation());
+        }
+
+        /*
+         * Every field name and value is written as an element of a scratch array, so the generator deals with
+         * escaping and number formatting. Element offsets are recorded to assemble the sorted object afterwards.
+         */
+        generator.writeStartArray();
+        generator.flush();
+        scratch.reset();
+        nElements = 0;
+
+        Map<String, Integer> fields = new TreeMap<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_OBJECT) {
+            if (token == null) {
+                throw new JsonParseException("Unexpected end of input inside a JSON object",
+                        parser.getCurrentLocation());
+            }
+            String name = parser.getCurrentName();
+            parser.nextToken();
+
+            writeString(name);
+            endElement();
+            copyValue(parser, 0);
+            endElement();
+
+            fields.put(name, nElements - 2);
+        }
+
+        byte[] body = assemble(fields);
+
+        generator.writeEndArray();
+        generator.flush();
+
+        return body;
+    }
+
+    /**
+     * Copies the value the parser is positioned on.
+     *
+     * @param depth the nesting level of the objects of the value, 0 for root level fields.
+     */
+    private void copyValue(JsonParser parser, int depth) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == null) {
+            throw new JsonParseException("Unexpected end of input inside a JSON value", parser.getCurrentLocation());
+        }
+        switch (token) {
+            case START_OBJECT:
+                copyObject(parser, depth);
+                break;
+            case START_ARRAY:
+                generator.writeStartArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    copyValue(parser, depth);
+                }
+                generator.writeEndArray();
+                break;
+            case VALUE_STRING:
+                writeString(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                break;
+            default:
+                generator.copyCurrentEvent(parser);
+        }
+    }
+
+    /**
+     * Copies a nested object, merging its repeated names once it is written.
+     */
+    private void copyObject(JsonParser parser, int depth) throws IOException {
+        if (names.size() == depth) {
+            names.add(new HashSet<String>());
+        }
+        Set<String> seen = names.get(depth);
+        seen.clear();
+        boolean repeated = false;
+
+        generator.writeStartObject();
+        generator.flush();
+        int start = scratch.size() - 1;
+
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_OBJECT) {
+            if (token == null) {
+                throw new JsonParseException("Unexpected end of input inside a JSON object",
+                        parser.getCurrentLocation());
+            }
+            String name = parser.getCurrentName();
+            repeated |= !seen.add(name);
+            if (JsonStrings.hasSurrogate(name)) {
+                generator.writeFieldName(new QuotedName(name));
+            } else {
+                generator.writeFieldName(name);
+            }
+            parser.nextToken();
+            copyValue(parser, depth + 1);
+        }
+        generator.writeEndObject();
+
+        if (repeated) {
+            merge(start);
+        }
+    }
+
+    /**
+     * Rewrites the object written from the given scratch position keeping every name once, in the place of its
+     * first occurrence and with the value of the last one. The object is compact, so every field runs from its
+     * name up to the separator before the next one.
+     *
+     * @param start the scratch position of the opening brace.
+     */
+    private void merge(int start) throws IOException {
+        generator.flush();
+        byte[] object = Arrays.copyOfRange(scratch.buffer(), start, scratch.size());
+
+        Map<String, int[]> fields = new LinkedHashMap<>();
+        try (JsonParser parser = jsonFactory.createJsonParser(object)) {
+            parser.nextToken();
+            String name = null;
+            int nameStart = 0;
+            JsonToken token;
+            do {
+                token = parser.nextToken();
+                // a parser over bytes reports byte offsets as its character offsets, and the location of a name
+                // after the first one is that of the separator before it
+                int at = (int) parser.getTokenLocation().getCharOffset();
+                if (name != null) {
+                    fields.put(name, new int[]{nameStart, at});
+                }
+                if (token == JsonToken.FIELD_NAME) {
+                    name = parser.getCurrentName();
+                    nameStart = object[at] == ',' ? at + 1 : at;
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+            } while (token == JsonToken.FIELD_NAME);
+        }
+
+        scratch.truncate(start);
+        scratch.write('{');
+        boolean first = true;
+        for (int[] field : fields.values()) {
+            if (!first) {
+                scratch.write(',');
+            }
+            first = false;
+            scratch.write(object, field[0], field[1] - field[0]);
+        }
+        scratch.write('}');
+    }
+
+    private void writeString(String s) throws IOException {
+        if (JsonStrings.hasSurrogate(s)) {
+            char[] chars = s.toCharArray();
+            writeString(chars, 0, chars.length);
+        } else {
+            generator.writeString(s);
+        }
+    }
+
+    /**
+     * Writes a string value, escaping it as {@link JsonStrings} does when the generator would not.
+     */
+    private void writeString(char[] chars, int offset, int length) throws IOException {
+        if (!JsonStrings.hasSurrogate(chars, offset, offset + length)) {
+            generator.writeString(chars, offset, length);
+            return;
+        }
+        if (quoted.length < length * 6 + 2) {
+            quoted = new byte[length * 6 + 2];
+        }
+        int end = JsonStrings.quote(chars, offset, offset + length, quoted, 0);
+        generator.writeRawUTF8String(quoted, 1, end - 2);
+    }
+
+    /**
+     * Builds the final object body out of the recorded scratch elements.
+     *
+     * @param fields index of the name element of every root field, sorted by field name.
+     * @return the serialized object.
+     */
+    private byte[] assemble(Map<String, Integer> fields) {
+        int size = 2 + Math.max(0, fields.size() - 1);
+        for (Integer element : fields.values()) {
+            size += length(element) + 1 + length(element + 1);
+        }
+
+        byte[] body = new byte[size];
+        byte[] buf = scratch.buffer();
+        int pos = 0;
+
+        body[pos++] = '{';
+        for (Integer element : fields.values()) {
+            if (pos > 1) {
+                body[pos++] = ',';
+            }
+            pos = copy(buf, element, body, pos);
+            body[pos++] = ':';
+            pos = copy(buf, element + 1, body, pos);
+        }
+        body[pos] = '}';
+
+        return body;
+    }
+
+    /**
+     * Flushes the generator and records the bounds of the element just written, skipping the separator the
+     * generator writes between array elements.
+     *
+     * @throws IOException if the generator cannot be flushed.
+     */
+    private void endElement() throws IOException {
+        generator.flush();
+
+        if (nElements == starts.length) {
+            int[] grownStarts = new int[starts.length * 2];
+            int[] grownEnds = new int[ends.length * 2];
+            System.arraycopy(starts, 0, grownStarts, 0, nElements);
+            System.arraycopy(ends, 0, grownEnds, 0, nElements);
+            starts = grownStarts;
+            ends = grownEnds;
+        }
+
+        starts[nElements] = nElements > 0 ? ends[nElements - 1] + 1 : 0;
+        ends[nElements] = scratch.size();
+        nElements++;
+    }
+
+    /**
+     * @param element the element index.
+     * @return the length in bytes of the element.
+     */
+    private int length(int element) {
+        return ends[element] - starts[element];
+    }
+
+    /**
+     * Copies a scratch element into the body.
+     *
+     * @return the body position after the copied element.
+     */
+    private int copy(byte[] buf, int element, byte[] body, int pos) {
+        int len = length(element);
+        System.arraycopy(buf, starts[element], body, pos, len);
+        return pos + len;
+    }
+
+    /**
+     * Byte array stream exposing its internal buffer to avoid a copy per element.
+     */
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ExposedByteArrayOutputStream() {
+            super(8192);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        void truncate(int size) {
+            count = size;
+        }
+    }
+
+    /**
+     * Field name escaped as {@link JsonStrings} does, for the names the generator would escape differently.
+     */
+    private static class QuotedName implements SerializableString {
+        private final String name;
+        private final byte[] quoted;
+
+        QuotedName(String name) {
+            this.name = name;
+            byte[] withQuotes = JsonStrings.quote(name);
+            this.quoted = Arrays.copyOfRange(withQuotes, 1, withQuotes.length - 1);
+        }
+
+        @Override
+        public String getValue() {
+            return name;
+        }
+
+        @Override
+        public int charLength() {
+            return name.length();
+        }
+
+        @Override
+        public char[] asQuotedChars() {
+            return new String(quoted, Charsets.UTF_8).toCharArray();
+        }
+
+        @Override
+        public byte[] asUnquotedUTF8() {
+            return name.getBytes(Charsets.UTF_8);
+        }
+
+        @Override
+        public byte[] asQuotedUTF8() {
+            return quoted;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.keedio.flume.source.http.json.handler.encoder;
+
+import org.apache.flume.conf.Configurable;
+import org.codehaus.jackson.JsonParser;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * <p>
+ * Turns the JSON objects streamed out of a request into flume Event bodies.
+ * </p>
+ * <p>
+ * A single instance serves every request of the handler, so implementations must be thread safe. They are
+ * created through {@link EventBodyEncoderFactory} and configured with the <code>encoder.</code> sub-properties
+ * of the handler.
+ * </p>
+ */
+public interface EventBodyEncoder extends Configurable {
+
+    /**
+     * Encodes the JSON object the parser is positioned on, consuming it: the next token the parser returns is
+     * the one following the object.
+     *
+     * @param parser the parser, positioned on a {@link org.codehaus.jackson.JsonToken#START_OBJECT} token.
+     * @return the event body.
+     * @throws IOException if the object is not well formed or cannot be represented by this encoder.
+     */
+    byte[] encode(JsonParser parser) throws IOException;
+
+    /**
+     * @return headers describing the body format, added to every event. Empty if there are none.
+     */
+    Map<String, String> getHeaders();
+}
@@ -0,0 +1,55 @@
+package com.keedio.flume.source.http.json.handler.encoder;
+
+import org.apache.flume.Context;
+import org.apache.flume.FlumeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+
+/**
+ * Creates {@link EventBodyEncoder} instances from their configured name.
+ */
+public class EventBodyEncoderFactory {
+    private static final Logger LOG = LoggerFactory.getLogger(EventBodyEncoderFactory.class);
+
+    private EventBodyEncoderFactory() {
+    }
+
+    /**
+     * Creates and configures an encoder.
+     *
+     * @param encoderType the name of a built-in encoder (see {@link EventBodyEncoderType}) or the fully qualified
+     *                    class name of a custom one, which must have a public no-args constructor.
+     * @param context the encoder configuration.
+     * @return the configured encoder.
+     * @throws FlumeException if the encoder cannot be instantiated.
+     */
+    @SuppressWarnings("unchecked")
+    public static EventBodyEncoder getInstance(String encoderType, Context context) {
+        Class<? extends EventBodyEncoder> encoderClass;
+        try {
+            encoderClass = EventBodyEncoderType.valueOf(encoderType.trim().toUpperCase(Locale.ENGLISH))
+                    .getEncoderClass();
+        } catch (IllegalArgumentException e) {
+            LOG.debug("Not a built-in encoder, trying to load class {}", encoderType);
+            encoderClass = null;
+        }
+
+        try {
+            if (encoderClass == null) {
+                Class<?> c = Class.forName(encoderType.trim());
+                if (!EventBodyEncoder.class.isAssignableFrom(c)) {
+                    throw new FlumeException(encoderType + " is not an EventBodyEncoder");
+                }
+                encoderClass = (Class<? extends EventBodyEncoder>) c;
+            }
+
+            EventBodyEncoder encoder = encoderClass.newInstance();
+            encoder.configure(context);
+            return encoder;
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            throw new FlumeException("Unable to instantiate event body encoder " + encoderType, e);
+        }
+    }
+}
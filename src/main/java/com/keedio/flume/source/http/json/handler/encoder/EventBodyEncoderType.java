@@ -0,0 +1,41 @@
+package com.keedio.flume.source.http.json.handler.encoder;
+
+/**
+ * Built-in event body encoders, selectable by their lower case name.
+ */
+public enum EventBodyEncoderType {
+    /**
+     * Compact JSON, the same bytes JValueEncoder produces.
+     */
+    JSON(JsonEventBodyEncoder.class),
+
+    /**
+     * The original json4s AST encoded by JValueEncoder.
+     */
+    JSON4S(Json4sEventBodyEncoder.class),
+
+    /**
+     * Jackson Smile binary JSON.
+     */
+    SMILE(SmileEventBodyEncoder.class),
+
+    /**
+     * Avro binary, following a configured schema.
+     */
+    AVRO(AvroEventBodyEncoder.class),
+
+    /**
+     * Placeholder for custom encoders, given by their fully qualified class name.
+     */
+    OTHER(null);
+
+    private final Class<? extends EventBodyEncoder> encoderClass;
+
+    EventBodyEncoderType(Class<? extends EventBodyEncoder> encoderClass) {
+        this.encoderClass = encoderClass;
+    }
+
+    public Class<? extends EventBodyEncoder> getEncoderClass() {
+        return encoderClass;
+    }
+}
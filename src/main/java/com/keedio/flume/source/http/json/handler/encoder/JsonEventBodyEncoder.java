@@ -0,0 +1,101 @@
+package com.keedio.flume.source.http.json.handler.encoder;
+
+import com.keedio.flume.source.http.json.handler.encoder.JsonShape.ObjectShape;
+import org.apache.flume.Context;
+import org.apache.flume.FlumeException;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * <p>
+ * Encodes every JSON as compact JSON, writing it in a single pass over its tokens. Bodies are byte for byte the
+ * ones the json4s path produces, see {@link CompactJsonEventWriter}.
+ * </p>
+ * <p>
+ * Properties:
+ * <ul>
+ *     <li><code>shapeFile</code>: local path of a sample json or a JSON schema describing the expected jsons. If
+ *     set, the writer is specialized for that shape, see {@link ShapeCompiledEventWriter}. Jsons that do not
+ *     follow it are still encoded, only more slowly.</li>
+ * </ul>
+ * </p>
+ */
+public class JsonEventBodyEncoder implements EventBodyEncoder {
+    public static final String SHAPE_FILE = "shapeFile";
+
+    private static final Logger LOG = LoggerFactory.getLogger(JsonEventBodyEncoder.class);
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final ThreadLocal<CompactJsonEventWriter> writers = new ThreadLocal<>();
+    private final ThreadLocal<ShapeCompiledEventWriter> compiledWriters = new ThreadLocal<>();
+
+    private ObjectShape shape;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] encode(JsonParser parser) throws IOException {
+        if (shape != null) {
+            return encodeWithShape(parser);
+        }
+
+        CompactJsonEventWriter writer = writers.get();
+        if (writer == null) {
+            writer = new CompactJsonEventWriter(jsonFactory);
+            writers.set(writer);
+        }
+
+        try {
+            return writer.write(parser);
+        } catch (IOException e) {
+            // the writer may have been left in the middle of an object
+            writers.remove();
+            throw e;
+        }
+    }
+
+    private byte[] encodeWithShape(JsonParser parser) throws IOException {
+        ShapeCompiledEventWriter writer = compiledWriters.get();
+        if (writer == null) {
+            writer = new ShapeCompiledEventWriter(shape);
+            compiledWriters.set(writer);
+        }
+        return writer.write(parser);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, String> getHeaders() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void configure(Context context) {
+        String shapeFile = context.getString(SHAPE_FILE);
+        if (shapeFile == null) {
+            shape = null;
+            return;
+        }
+
+        try {
+            shape = JsonShape.compile(new ObjectMapper().readTree(new File(shapeFile)));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new FlumeException("Unable to compile json shape " + shapeFile, e);
+        }
+        LOG.info("Using json shape {} with {} root fields", shapeFile, shape.size());
+    }
+}
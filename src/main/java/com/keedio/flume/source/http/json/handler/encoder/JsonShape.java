@@ -0,0 +1,237 @@
+package com.keedio.flume.source.http.json.handler.encoder;
+
+import org.codehaus.jackson.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Expected structure of the incoming jsons, compiled once from a sample document or a JSON schema. Only objects
+ * and arrays are described: objects know their field names, in the order they usually arrive, with their
+ * serialized form ready to be copied, and arrays know the shape of their elements.
+ * </p>
+ * <p>
+ * Shapes are immutable and shared by every thread.
+ * </p>
+ */
+abstract class JsonShape {
+
+    /**
+     * Compiles the shape described by a JSON schema (<code>type</code>, <code>properties</code> and
+     * <code>items</code> keywords), or by a sample document if the node does not look like a schema.
+     *
+     * @param node a JSON schema or a sample document.
+     * @return the shape of the root object.
+     * @throws IllegalArgumentException if the node does not describe an object.
+     */
+    static ObjectShape compile(JsonNode node) {
+        JsonShape shape = isSchema(node) ? fromSchema(node) : fromSample(node);
+        if (!(shape instanceof ObjectShape)) {
+            throw new IllegalArgumentException("Expected jsons must be objects");
+        }
+        return (ObjectShape) shape;
+    }
+
+    /**
+     * @return whether the node is a JSON schema rather than a sample document.
+     */
+    private static boolean isSchema(JsonNode node) {
+        return node.has("$schema") || (node.has("properties") && node.get("properties").isObject()
+                && hasType(node, "object"));
+    }
+
+    private static boolean hasType(JsonNode schema, String type) {
+        JsonNode types = schema.get("type");
+        if (types == null) {
+            return false;
+        }
+        if (types.isArray()) {
+            for (JsonNode t : types) {
+                if (type.equals(t.getTextValue())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return type.equals(types.getTextValue());
+    }
+
+    private static JsonShape fromSchema(JsonNode schema) {
+        if (schema.has("properties") || hasType(schema, "object")) {
+            List<String> names = new ArrayList<>();
+            List<JsonShape> children = new ArrayList<>();
+            JsonNode properties = schema.get("properties");
+            if (properties != null) {
+                Iterator<Map.Entry<String, JsonNode>> fields = properties.getFields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    names.add(field.getKey());
+                    children.add(fromSchema(field.getValue()));
+                }
+            }
+            return new ObjectShape(names, children);
+        }
+        if (schema.has("items") || hasType(schema, "array")) {
+            JsonNode items = schema.get("items");
+            return new ArrayShape(items != null && items.isObject() ? fromSchema(items) : null);
+        }
+        return null;
+    }
+
+    private static JsonShape fromSample(JsonNode sample) {
+        if (sample.isObject()) {
+            List<String> names = new ArrayList<>();
+            List<JsonShape> children = new ArrayList<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = sample.getFields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                names.add(field.getKey());
+                children.add(fromSample(field.getValue()));
+            }
+            return new ObjectShape(names, children);
+        }
+        if (sample.isArray()) {
+            JsonShape element = null;
+            for (JsonNode item : sample) {
+                element = merge(element, fromSample(item));
+            }
+            return new ArrayShape(element);
+        }
+        return null;
+    }
+
+    /**
+     * Merges two shapes found for the same position, e.g. the elements of an array. Fields missing in one of the
+     * objects are added after the known ones; on conflicting kinds the first shape wins.
+     */
+    private static JsonShape merge(JsonShape a, JsonShape b) {
+        if (a == null) {
+            return b;
+        }
+        if (a instanceof ObjectShape && b instanceof ObjectShape) {
+            ObjectShape oa = (ObjectShape) a;
+            ObjectShape ob = (ObjectShape) b;
+            List<String> names = new ArrayList<>(Arrays.asList(oa.names));
+            List<JsonShape> children = new ArrayList<>(Arrays.asList(oa.children));
+            for (int i = 0; i < ob.names.length; i++) {
+                int known = names.indexOf(ob.names[i]);
+                if (known < 0) {
+                    names.add(ob.names[i]);
+                    children.add(ob.children[i]);
+                } else {
+                    children.set(known, merge(children.get(known), ob.children[i]));
+                }
+            }
+            return new ObjectShape(names, children);
+        }
+        if (a instanceof ArrayShape && b instanceof ArrayShape) {
+            return new ArrayShape(merge(((ArrayShape) a).element, ((ArrayShape) b).element));
+        }
+        return a;
+    }
+
+    /**
+     * Shape of a JSON object.
+     */
+    static final class ObjectShape extends JsonShape {
+        private final String[] names;
+        private final JsonShape[] children;
+        private final byte[][] serializedNames;
+        private final int[] ranks;
+        private final Map<String, Integer> index = new HashMap<>();
+
+        private ObjectShape(List<String> names, List<JsonShape> children) {
+            this.names = new String[names.size()];
+            this.children = children.toArray(new JsonShape[children.size()]);
+            this.serializedNames = new byte[this.names.length][];
+            this.ranks = new int[this.names.length];
+
+            String[] sorted = new String[this.names.length];
+            for (int i = 0; i < this.names.length; i++) {
+                // the parser interns field names, so known names can be matched by reference
+                this.names[i] = names.get(i).intern();
+                this.serializedNames[i] = serializeName(this.names[i]);
+                this.index.put(this.names[i], i);
+                sorted[i] = this.names[i];
+            }
+            Arrays.sort(sorted);
+            for (int i = 0; i < sorted.length; i++) {
+                ranks[index.get(sorted[i])] = i;
+            }
+        }
+
+        /**
+         * Finds a field, trying first the position following the previous field.
+         *
+         * @param name the field name read from the parser.
+         * @param guess the position the field is expected at.
+         * @return the field position, or -1 if the field is unknown.
+         */
+        int indexOf(String name, int guess) {
+            if (guess < names.length && names[guess] == name) {
+                return guess;
+            }
+            Integer i = index.get(name);
+            return i == null ? -1 : i;
+        }
+
+        int size() {
+            return names.length;
+        }
+
+        String name(int field) {
+            return names[field];
+        }
+
+        /**
+         * @return the position of the field when fields are sorted by name.
+         */
+        int rank(int field) {
+            return ranks[field];
+        }
+
+        /**
+         * @return the field name, quoted and escaped, followed by a colon.
+         */
+        byte[] serializedName(int field) {
+            return serializedNames[field];
+        }
+
+        /**
+         * @return the shape of the field value, or null if it is not an object or an array.
+         */
+        JsonShape child(int field) {
+            return children[field];
+        }
+
+        private static byte[] serializeName(String name) {
+            byte[] quoted = JsonStrings.quote(name);
+            byte[] serialized = Arrays.copyOf(quoted, quoted.length + 1);
+            serialized[quoted.length] = ':';
+            return serialized;
+        }
+    }
+
+    /**
+     * Shape of a JSON array.
+     */
+    static final class ArrayShape extends JsonShape {
+        private final JsonShape element;
+
+        private ArrayShape(JsonShape element) {
+            this.element = element;
+        }
+
+        /**
+         * @return the shape of the elements, or null if they are not objects or arrays.
+         */
+        JsonShape element() {
+            return element;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.keedio.flume.source.http.json.handler.encoder;
+
+/**
+ * Quotes strings the way the json4s path writes them: quotes, backslashes and control characters are escaped,
+ * everything else is UTF-8 encoded, surrogate pairs as a single 4 byte sequence. Only lone surrogates, which have
+ * no UTF-8 encoding, are escaped.
+ */
+final class JsonStrings {
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    private JsonStrings() {
+    }
+
+    /**
+     * @return whether any of the characters is a surrogate, which the Jackson generator escapes.
+     */
+    static boolean hasSurrogate(char[] chars, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (Character.isSurrogate(chars[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether any of the characters is a surrogate, which the Jackson generator escapes.
+     */
+    static boolean hasSurrogate(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isSurrogate(s.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param s the string.
+     * @return the string quoted and escaped, UTF-8 encoded.
+     */
+    static byte[] quote(String s) {
+        byte[] out = new byte[s.length() * 6 + 2];
+        int end = quote(s.toCharArray(), 0, s.length(), out, 0);
+        byte[] quoted = new byte[end];
+        System.arraycopy(out, 0, quoted, 0, end);
+        return quoted;
+    }
+
+    /**
+     * Quotes and escapes characters.
+     *
+     * @param out the destination, with room for 6 bytes per character plus the quotes.
+     * @return the position after the closing quote.
+     */
+    static int quote(char[] chars, int from, int to, byte[] out, int pos) {
+        out[pos++] = '"';
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    out[pos++] = (byte) c;
+                } else {
+                    out[pos++] = '\\';
+                    switch (c) {
+                        case '"':
+                        case '\\':
+                            out[pos++] = (byte) c;
+                            break;
+                        case '\b':
+                            out[pos++] = 'b';
+                            break;
+                        case '\t':
+                            out[pos++] = 't';
+                            break;
+                        case '\f':
+                            out[pos++] = 'f';
+                            break;
+                        case '\n':
+                            out[pos++] = 'n';
+                            break;
+                        case '\r':
+                            out[pos++] = 'r';
+                            break;
+                        default:
+                            pos = escape(c, out, pos - 1);
+                    }
+                }
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(chars[i + 1])) {
+                int cp = Character.toCodePoint(c, chars[++i]);
+                out[pos++] = (byte) (0xF0 | (cp >> 18));
+                out[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                out[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                pos = escape(c, out, pos);
+            } else {
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        out[pos++] = '"';
+        return pos;
+    }
+
+    /**
+     * Writes a character as a unicode escape.
+     *
+     * @return the position after the escape.
+     */
+    private static int escape(char c, byte[] out, int pos) {
+        out[pos++] = '\\';
+        out[pos++] = 'u';
+        out[pos++] = HEX[c >> 12];
+        out[pos++] = HEX[(c >> 8) & 0xF];
+        out[pos++] = HEX[(c >> 4) & 0xF];
+        out[pos++] = HEX[c & 0xF];
+        return pos;
+    }
+}
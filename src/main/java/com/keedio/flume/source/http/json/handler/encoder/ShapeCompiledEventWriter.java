@@ -0,0 +1,381 @@
+package com.keedio.flume.source.http.json.handler.encoder;
+
+import com.keedio.flume.source.http.json.handler.encoder.JsonShape.ArrayShape;
+import com.keedio.flume.source.http.json.handler.encoder.JsonShape.ObjectShape;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Specialized counterpart of {@link CompactJsonEventWriter} for jsons following a known {@link JsonShape}. It
+ * writes the compact UTF-8 body straight into its own buffer, with the same string escaping, number formatting
+ * and handling of repeated names as the generic writer, so bodies are byte for byte the ones it produces.
+ * </p>
+ * <p>
+ * Known field names are matched by reference against the names interned by the parser, trying first the field
+ * that followed in the sample, and copied already serialized. Root fields go to fixed slots in name order, so no
+ * sorting is needed. Whatever does not match the shape, unknown fields or values of an unexpected kind, falls
+ * back to generic writing for that value only, and unknown root fields are merged in name order.
+ * </p>
+ * <p>
+ * Instances are not thread safe, {@link JsonEventBodyEncoder} keeps one per thread.
+ * </p>
+ */
+class ShapeCompiledEventWriter {
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+    private final ObjectShape root;
+    private final int[] slotStarts;
+    private final int[] slotEnds;
+    private final int[] slotFields;
+    private final List<ObjectFields> fields = new ArrayList<>();
+
+    private byte[] buf = new byte[8192];
+    private int pos;
+
+    /**
+     * @param root the expected shape of the jsons.
+     */
+    ShapeCompiledEventWriter(ObjectShape root) {
+        this.root = root;
+        this.slotStarts = new int[root.size()];
+        this.slotEnds = new int[root.size()];
+        this.slotFields = new int[root.size()];
+    }
+
+    /**
+     * Consumes the object the parser is positioned on and returns its compact serialization.
+     *
+     * @param parser the parser, positioned on a {@link JsonToken#START_OBJECT} token.
+     * @return the serialized object, UTF-8 encoded.
+     * @throws IOException if the input is not well formed.
+     */
+    byte[] write(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected a JSON object, found " + parser.getCurrentToken(),
+                    parser.getCurrentLocation());
+        }
+
+        pos = 0;
+        Arrays.fill(slotStarts, -1);
+        Map<String, int[]> unknownFields = null;
+
+        int guess = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_OBJECT) {
+            if (token == null) {
+                throw new JsonParseException("Unexpected end of input inside a JSON object",
+                        parser.getCurrentLocation());
+            }
+            String name = parser.getCurrentName();
+            int field = root.indexOf(name, guess);
+            token = parser.nextToken();
+
+            int start = pos;
+            if (field >= 0) {
+                writeValue(parser, token, root.child(field), 0);
+
+                int slot = root.rank(field);
+                slotStarts[slot] = start;
+                slotEnds[slot] = pos;
+                slotFields[slot] = field;
+                guess = field + 1;
+            } else {
+                writeQuoted(name);
+                writeByte(':');
+                writeValue(parser, token, null, 0);
+
+                if (unknownFields == null) {
+                    unknownFields = new TreeMap<>();
+                }
+                unknownFields.put(name, new int[]{start, pos});
+            }
+        }
+
+        return assemble(unknownFields);
+    }
+
+    /**
+     * Builds the final object body out of the root slots and the unknown fields, sorted by name.
+     */
+    private byte[] assemble(Map<String, int[]> unknownFields) {
+        int size = 2;
+        int nFields = 0;
+        for (int slot = 0; slot < slotStarts.length; slot++) {
+            if (slotStarts[slot] >= 0) {
+                size += root.serializedName(slotFields[slot]).length + slotEnds[slot] - slotStarts[slot];
+                nFields++;
+            }
+        }
+        if (unknownFields != null) {
+            for (int[] bounds : unknownFields.values()) {
+                size += bounds[1] - bounds[0];
+                nFields++;
+            }
+        }
+        size += Math.max(0, nFields - 1);
+
+        byte[] body = new byte[size];
+        int out = 0;
+        body[out++] = '{';
+
+        Iterator<Map.Entry<String, int[]>> unknown = unknownFields == null ? null
+                : unknownFields.entrySet().iterator();
+        Map.Entry<String, int[]> nextUnknown = unknown != null && unknown.hasNext() ? unknown.next() : null;
+
+        for (int slot = 0; slot < slotStarts.length; slot++) {
+            if (slotStarts[slot] < 0) {
+                continue;
+            }
+            String name = root.name(slotFields[slot]);
+            while (nextUnknown != null && nextUnknown.getKey().compareTo(name) < 0) {
+                out = copy(nextUnknown.getValue()[0], nextUnknown.getValue()[1], body, out);
+                nextUnknown = unknown.hasNext() ? unknown.next() : null;
+            }
+
+            if (out > 1) {
+                body[out++] = ',';
+            }
+            byte[] serializedName = root.serializedName(slotFields[slot]);
+            System.arraycopy(serializedName, 0, body, out, serializedName.length);
+            out += serializedName.length;
+            System.arraycopy(buf, slotStarts[slot], body, out, slotEnds[slot] - slotStarts[slot]);
+            out += slotEnds[slot] - slotStarts[slot];
+        }
+        while (nextUnknown != null) {
+            out = copy(nextUnknown.getValue()[0], nextUnknown.getValue()[1], body, out);
+            nextUnknown = unknown.hasNext() ? unknown.next() : null;
+        }
+
+        body[out] = '}';
+        return body;
+    }
+
+    /**
+     * Copies a whole serialized field, preceded by a comma if it is not the first one.
+     */
+    private int copy(int start, int end, byte[] body, int out) {
+        if (out > 1) {
+            body[out++] = ',';
+        }
+        System.arraycopy(buf, start, body, out, end - start);
+        return out + end - start;
+    }
+
+    /**
+     * Writes the value the parser is positioned on.
+     *
+     * @param shape the expected shape of the value, null if unknown.
+     * @param depth the nesting level of the objects of the value, 0 for root level fields.
+     */
+    private void writeValue(JsonParser parser, JsonToken token, JsonShape shape, int depth) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                writeObject(parser, shape instanceof ObjectShape ? (ObjectShape) shape : null, depth);
+                break;
+            case START_ARRAY:
+                writeArray(parser, shape instanceof ArrayShape ? (ArrayShape) shape : null, depth);
+                break;
+            case VALUE_STRING:
+                writeQuoted(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                break;
+            case VALUE_NUMBER_INT:
+                String digits = parser.getText();
+                // the generator writes the parsed number, so a negative zero loses its sign
+                writeAscii("-0".equals(digits) ? "0" : digits);
+                break;
+            case VALUE_NUMBER_FLOAT:
+                double value = parser.getDoubleValue();
+                if (Double.isInfinite(value) || Double.isNaN(value)) {
+                    // out of range literals, the generator quotes them
+                    writeQuoted(Double.toString(value));
+                } else {
+                    writeAscii(Double.toString(value));
+                }
+                break;
+            case VALUE_TRUE:
+                writeBytes(TRUE);
+                break;
+            case VALUE_FALSE:
+                writeBytes(FALSE);
+                break;
+            case VALUE_NULL:
+                writeBytes(NULL);
+                break;
+            default:
+                throw new JsonParseException("Unexpected token " + token, parser.getCurrentLocation());
+        }
+    }
+
+    /**
+     * Writes a nested object, merging its repeated names once it is written.
+     */
+    private void writeObject(JsonParser parser, ObjectShape shape, int depth) throws IOException {
+        if (fields.size() == depth) {
+            fields.add(new ObjectFields());
+        }
+        ObjectFields objectFields = fields.get(depth);
+        objectFields.clear();
+        boolean repeated = false;
+
+        int start = pos;
+        writeByte('{');
+        int guess = 0;
+        boolean first = true;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_OBJECT) {
+            if (token == null) {
+                throw new JsonParseException("Unexpected end of input inside a JSON object",
+                        parser.getCurrentLocation());
+            }
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+
+            String name = parser.getCurrentName();
+            repeated |= !objectFields.add(name, pos);
+            int field = shape == null ? -1 : shape.indexOf(name, guess);
+            JsonShape child = null;
+            if (field >= 0) {
+                writeBytes(shape.serializedName(field));
+                child = shape.child(field);
+                guess = field + 1;
+            } else {
+                writeQuoted(name);
+                writeByte(':');
+            }
+            writeValue(parser, parser.nextToken(), child, depth + 1);
+        }
+        writeByte('}');
+
+        if (repeated) {
+            merge(start, objectFields);
+        }
+    }
+
+    /**
+     * Rewrites the object written from the given position keeping, as the map the tree path reads, each name at
+     * the place of its first occurrence with the value of the last one.
+     */
+    private void merge(int start, ObjectFields objectFields) {
+        byte[] object = Arrays.copyOfRange(buf, start, pos);
+
+        Map<String, int[]> merged = new LinkedHashMap<>();
+        for (int i = 0; i < objectFields.size; i++) {
+            // each field but the last one is followed by a comma, the last one by the closing brace
+            int end = i + 1 < objectFields.size ? objectFields.starts[i + 1] - 1 : pos - 1;
+            merged.put(objectFields.names.get(i), new int[]{objectFields.starts[i] - start, end - start});
+        }
+
+        pos = start;
+        writeByte('{');
+        boolean first = true;
+        for (int[] field : merged.values()) {
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            ensureCapacity(field[1] - field[0]);
+            System.arraycopy(object, field[0], buf, pos, field[1] - field[0]);
+            pos += field[1] - field[0];
+        }
+        writeByte('}');
+    }
+
+    private void writeArray(JsonParser parser, ArrayShape shape, int depth) throws IOException {
+        writeByte('[');
+        JsonShape element = shape == null ? null : shape.element();
+        boolean first = true;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) {
+                throw new JsonParseException("Unexpected end of input inside a JSON array",
+                        parser.getCurrentLocation());
+            }
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            writeValue(parser, token, element, depth);
+        }
+        writeByte(']');
+    }
+
+    private void writeQuoted(String s) {
+        ensureCapacity(s.length() * 6 + 2);
+        pos = JsonStrings.quote(s.toCharArray(), 0, s.length(), buf, pos);
+    }
+
+    private void writeQuoted(char[] chars, int offset, int length) {
+        ensureCapacity(length * 6 + 2);
+        pos = JsonStrings.quote(chars, offset, offset + length, buf, pos);
+    }
+
+    private void writeAscii(String s) {
+        ensureCapacity(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buf[pos++] = (byte) c;
+    }
+
+    private void ensureCapacity(int n) {
+        if (pos + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(pos + n, buf.length * 2));
+        }
+    }
+
+    /**
+     * Names and start positions of the fields of the object being written at one nesting level, reused across
+     * objects.
+     */
+    private static class ObjectFields {
+        private final Set<String> seen = new HashSet<>();
+        private final List<String> names = new ArrayList<>();
+        private int[] starts = new int[16];
+        private int size;
+
+        void clear() {
+            seen.clear();
+            names.clear();
+            size = 0;
+        }
+
+        /**
+         * @return false if the object already had a field with this name.
+         */
+        boolean add(String name, int start) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+            }
+            names.add(name);
+            starts[size++] = start;
+            return seen.add(name);
+        }
+    }
+}
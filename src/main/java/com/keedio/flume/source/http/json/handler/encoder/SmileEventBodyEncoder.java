@@ -0,0 +1,74 @@
+package com.keedio.flume.source.http.json.handler.encoder;
+
+import org.apache.flume.Context;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.smile.SmileFactory;
+import org.codehaus.jackson.smile.SmileGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * <p>
+ * Encodes every JSON as Jackson Smile, a binary JSON format. Tokens are copied straight from the request parser
+ * to the Smile generator, so the object is never materialized.
+ * </p>
+ * <p>
+ * Properties:
+ * <ul>
+ *     <li><code>sharedNames</code> (default true): back-reference repeated field names inside a body.</li>
+ *     <li><code>sharedStringValues</code> (default false): back-reference repeated short string values.</li>
+ * </ul>
+ * </p>
+ */
+public class SmileEventBodyEncoder implements EventBodyEncoder {
+    public static final String SHARED_NAMES = "sharedNames";
+    public static final String SHARED_STRING_VALUES = "sharedStringValues";
+    public static final String CONTENT_TYPE = "application/x-jackson-smile";
+
+    private final SmileFactory smileFactory = new SmileFactory();
+    private final ThreadLocal<ByteArrayOutputStream> buffers = new ThreadLocal<>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] encode(JsonParser parser) throws IOException {
+        ByteArrayOutputStream out = buffers.get();
+        if (out == null) {
+            out = new ByteArrayOutputStream(8192);
+            buffers.set(out);
+        }
+        out.reset();
+
+        JsonGenerator generator = smileFactory.createJsonGenerator(out);
+        try {
+            generator.copyCurrentStructure(parser);
+        } finally {
+            generator.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, String> getHeaders() {
+        return Collections.singletonMap("Content-Type", CONTENT_TYPE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void configure(Context context) {
+        smileFactory.configure(SmileGenerator.Feature.CHECK_SHARED_NAMES,
+                context.getBoolean(SHARED_NAMES, true));
+        smileFactory.configure(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES,
+                context.getBoolean(SHARED_STRING_VALUES, false));
+    }
+}
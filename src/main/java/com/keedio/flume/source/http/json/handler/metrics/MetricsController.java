@@ -22,6 +22,22 @@ public class MetricsController /*extends MonitoredCounterGroup*/ implements Metr
     Timer eventGenerationTime;
     Histogram eventSize;
     Histogram jsonsPerRequest;
+    Meter droppedBytes;
+    Histogram allocatedBytesPerEvent;
+    Counter internHits;
+    Counter internMisses;
+    Counter internEvictions;
+    Counter contentLengthRejections;
+    Counter bodySizeRejections;
+    Counter objectCountRejections;
+    Counter depthRejections;
+    Counter dedupHits;
+    Counter dedupMisses;
+    Histogram dedupFalsePositivePpm;
+    Counter requestRateRejections;
+    Counter byteRateRejections;
+    Counter inflatedSizeRejections;
+    Counter inflateRatioRejections;
 
     private MetricRegistry metrics;
 
@@ -62,7 +78,43 @@ public class MetricsController /*extends MonitoredCounterGroup*/ implements Metr
             "httpsourcehandler.meter.jsonsPerRequest.min",
             "httpsourcehandler.meter.jsonsPerRequest.95ThPercentile",
             "httpsourcehandler.meter.jsonsPerRequest.99ThPercentile",
-            "httpsourcehandler.meter.jsonsPerRequest.stddev"
+            "httpsourcehandler.meter.jsonsPerRequest.stddev",
+
+            "httpsourcehandler.meter.droppedBytes.count",
+            "httpsourcehandler.meter.droppedBytes.mean-rate",
+            "httpsourcehandler.meter.droppedBytes.one-minute-rate",
+            "httpsourcehandler.meter.droppedBytes.fifteen-minute-rate",
+
+            "httpsourcehandler.meter.allocatedBytesPerEvent.mean",
+            "httpsourcehandler.meter.allocatedBytesPerEvent.max",
+            "httpsourcehandler.meter.allocatedBytesPerEvent.min",
+            "httpsourcehandler.meter.allocatedBytesPerEvent.95ThPercentile",
+            "httpsourcehandler.meter.allocatedBytesPerEvent.99ThPercentile",
+            "httpsourcehandler.meter.allocatedBytesPerEvent.stddev",
+
+            "httpsourcehandler.counter.internHits.count",
+            "httpsourcehandler.counter.internMisses.count",
+            "httpsourcehandler.counter.internEvictions.count",
+
+            "httpsourcehandler.counter.contentLengthRejections.count",
+            "httpsourcehandler.counter.bodySizeRejections.count",
+            "httpsourcehandler.counter.objectCountRejections.count",
+            "httpsourcehandler.counter.depthRejections.count",
+
+            "httpsourcehandler.counter.dedupHits.count",
+            "httpsourcehandler.counter.dedupMisses.count",
+
+            "httpsourcehandler.meter.dedupFalsePositivePpm.mean",
+            "httpsourcehandler.meter.dedupFalsePositivePpm.max",
+            "httpsourcehandler.meter.dedupFalsePositivePpm.min",
+            "httpsourcehandler.meter.dedupFalsePositivePpm.95ThPercentile",
+            "httpsourcehandler.meter.dedupFalsePositivePpm.99ThPercentile",
+            "httpsourcehandler.meter.dedupFalsePositivePpm.stddev",
+
+            "httpsourcehandler.counter.requestRateRejections.count",
+            "httpsourcehandler.counter.byteRateRejections.count",
+            "httpsourcehandler.counter.inflatedSizeRejections.count",
+            "httpsourcehandler.counter.inflateRatioRejections.count"
     };
 
 
@@ -80,42 +132,208 @@ public class MetricsController /*extends MonitoredCounterGroup*/ implements Metr
         eventGenerationTime = metrics.timer("eventGenerationTime");
         eventSize = metrics.histogram("eventSize");
         jsonsPerRequest = metrics.histogram("jsonsPerRequest");
+        droppedBytes = metrics.meter("droppedBytes");
+        allocatedBytesPerEvent = metrics.histogram("allocatedBytesPerEvent");
+        internHits = metrics.counter("internHits");
+        internMisses = metrics.counter("internMisses");
+        internEvictions = metrics.counter("internEvictions");
+        contentLengthRejections = metrics.counter("contentLengthRejections");
+        bodySizeRejections = metrics.counter("bodySizeRejections");
+        objectCountRejections = metrics.counter("objectCountRejections");
+        depthRejections = metrics.counter("depthRejections");
+        dedupHits = metrics.counter("dedupHits");
+        dedupMisses = metrics.counter("dedupMisses");
+        dedupFalsePositivePpm = metrics.histogram("dedupFalsePositivePpm");
+        requestRateRejections = metrics.counter("requestRateRejections");
+        byteRateRejections = metrics.counter("byteRateRejections");
+        inflatedSizeRejections = metrics.counter("inflatedSizeRejections");
+        inflateRatioRejections = metrics.counter("inflateRatioRejections");
 
         JmxReporter.forRegistry(metrics)
                     .inDomain(domainName)
                     .build().start();
     }
 
+    /**
+     * Counts a request arriving to the handler.
+     */
+    public void markJsonArrived() {
+        receivedJsons.mark();
+    }
+
+    /**
+     * Counts a json, or a request, that could not be read.
+     */
+    public void markJsonError() {
+        jsonError.mark();
+    }
+
+    /**
+     * @param nanos time taken to parse one json.
+     */
+    public void recordParseNanos(long nanos) {
+        requestParseTime.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param nanos time taken to build all of the events of a request.
+     */
+    public void recordEventGenerationNanos(long nanos) {
+        eventGenerationTime.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param size size of the body of one event.
+     */
+    public void recordEventSize(long size) {
+        eventSize.update(size);
+    }
+
+    /**
+     * @param jsons number of events built from a request.
+     */
+    public void recordJsonsPerRequest(long jsons) {
+        jsonsPerRequest.update(jsons);
+    }
+
+    /**
+     * @param bytes bytes, or characters for non UTF-8 input, of a request dropped by field projection.
+     */
+    public void markDroppedBytes(long bytes) {
+        droppedBytes.mark(bytes);
+    }
+
+    /**
+     * @param bytes bytes allocated per event while reading a request.
+     */
+    public void recordAllocatedBytesPerEvent(long bytes) {
+        allocatedBytesPerEvent.update(bytes);
+    }
+
+    /**
+     * Adds the intern cache lookups of a request.
+     *
+     * @param hits lookups finding the value in the cache.
+     * @param misses lookups adding the value to the cache.
+     * @param evictions values evicted to make room for others.
+     */
+    public void countInterning(long hits, long misses, long evictions) {
+        internHits.inc(hits);
+        internMisses.inc(misses);
+        internEvictions.inc(evictions);
+    }
+
+    /**
+     * Adds the duplicate filter lookups of a request.
+     *
+     * @param hits events dropped as duplicates.
+     * @param misses events kept.
+     * @param falsePositivePpm estimated false positive rate of the filter, in parts per million.
+     */
+    public void countDuplicates(long hits, long misses, long falsePositivePpm) {
+        dedupHits.inc(hits);
+        dedupMisses.inc(misses);
+        dedupFalsePositivePpm.update(falsePositivePpm);
+    }
+
+    /**
+     * Counts a request rejected for going over a limit.
+     *
+     * @param reason one of the <code>*_REJECTED</code> event types.
+     */
+    public void countRejection(MetricsEvent.EventType reason) {
+        switch (reason) {
+            case CONTENT_LENGTH_REJECTED:
+                contentLengthRejections.inc();
+                break;
+            case BODY_SIZE_REJECTED:
+                bodySizeRejections.inc();
+                break;
+            case OBJECT_COUNT_REJECTED:
+                objectCountRejections.inc();
+                break;
+            case DEPTH_REJECTED:
+                depthRejections.inc();
+                break;
+            case REQUEST_RATE_REJECTED:
+                requestRateRejections.inc();
+                break;
+            case BYTE_RATE_REJECTED:
+                byteRateRejections.inc();
+                break;
+            case INFLATED_SIZE_REJECTED:
+                inflatedSizeRejections.inc();
+                break;
+            case INFLATE_RATIO_REJECTED:
+                inflateRatioRejections.inc();
+                break;
+            default:
+                logger.warn("EventType '" + reason + "' is not a rejection");
+        }
+    }
+
     /**
      * This method manages metric based on events received.
      * <p/>
-     * For new metrics will need to create the corresponding event type in
-     * MetricsEvent class and then define their behavior here
+     * Kept for compatibility, it only forwards the event to the matching recording method above, which callers
+     * should use instead: they allocate nothing per call.
      *
      * @param event event to manage
-     * @return
-     * @see
      */
     public void manage(MetricsEvent event) {
 
         switch (event.getCode()) {
             case JSON_ARRIVED:
-                receivedJsons.mark();
+                markJsonArrived();
                 break;
             case JSON_ERROR:
-                jsonError.mark();
+                markJsonError();
                 break;
             case PARSE_OK:
-                requestParseTime.update(event.getValue(), TimeUnit.NANOSECONDS);
+                recordParseNanos(event.getValue());
                 break;
             case EVENT_SIZE:
-                eventSize.update(event.getValue());
+                recordEventSize(event.getValue());
                 break;
             case EVENT_GENERATION:
-                eventGenerationTime.update(event.getValue(), TimeUnit.NANOSECONDS);
+                recordEventGenerationNanos(event.getValue());
                 break;
             case NJSONS_ARRIVED:
-                jsonsPerRequest.update(event.getValue());
+                recordJsonsPerRequest(event.getValue());
+                break;
+            case BYTES_DROPPED:
+                markDroppedBytes(event.getValue());
+                break;
+            case BYTES_ALLOCATED:
+                recordAllocatedBytesPerEvent(event.getValue());
+                break;
+            case INTERN_HIT:
+                internHits.inc(event.getValue());
+                break;
+            case INTERN_MISS:
+                internMisses.inc(event.getValue());
+                break;
+            case INTERN_EVICTION:
+                internEvictions.inc(event.getValue());
+                break;
+            case DEDUP_HIT:
+                dedupHits.inc(event.getValue());
+                break;
+            case DEDUP_MISS:
+                dedupMisses.inc(event.getValue());
+                break;
+            case DEDUP_FALSE_POSITIVE:
+                dedupFalsePositivePpm.update(event.getValue());
+                break;
+            case CONTENT_LENGTH_REJECTED:
+            case BODY_SIZE_REJECTED:
+            case OBJECT_COUNT_REJECTED:
+            case DEPTH_REJECTED:
+            case REQUEST_RATE_REJECTED:
+            case BYTE_RATE_REJECTED:
+            case INFLATED_SIZE_REJECTED:
+            case INFLATE_RATIO_REJECTED:
+                countRejection(event.getCode());
                 break;
             default:
                 logger.warn("EventType '"+event.getCode()+"' not recognized");
@@ -343,4 +561,236 @@ public class MetricsController /*extends MonitoredCounterGroup*/ implements Metr
     public double jsonsPerRequestStdDev() {
         return jsonsPerRequest.getSnapshot().getStdDev();
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long droppedBytesCount() {
+        return droppedBytes.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double droppedBytesMeanRate() {
+        return droppedBytes.getMeanRate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double droppedBytesOneMinuteRate() {
+        return droppedBytes.getOneMinuteRate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double droppedBytesFifteenMinuteRate() {
+        return droppedBytes.getFifteenMinuteRate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double allocatedBytesPerEventMean() {
+        return allocatedBytesPerEvent.getSnapshot().getMean();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long allocatedBytesPerEventMax() {
+        return allocatedBytesPerEvent.getSnapshot().getMax();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long allocatedBytesPerEventMin() {
+        return allocatedBytesPerEvent.getSnapshot().getMin();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double allocatedBytesPerEvent95ThPercentile() {
+        return allocatedBytesPerEvent.getSnapshot().get95thPercentile();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double allocatedBytesPerEvent99ThPercentile() {
+        return allocatedBytesPerEvent.getSnapshot().get99thPercentile();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double allocatedBytesPerEventStdDev() {
+        return allocatedBytesPerEvent.getSnapshot().getStdDev();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long internHitsCount() {
+        return internHits.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long internMissesCount() {
+        return internMisses.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long internEvictionsCount() {
+        return internEvictions.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long contentLengthRejectionsCount() {
+        return contentLengthRejections.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long bodySizeRejectionsCount() {
+        return bodySizeRejections.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long objectCountRejectionsCount() {
+        return objectCountRejections.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long depthRejectionsCount() {
+        return depthRejections.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long dedupHitsCount() {
+        return dedupHits.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long dedupMissesCount() {
+        return dedupMisses.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double dedupFalsePositivePpmMean() {
+        return dedupFalsePositivePpm.getSnapshot().getMean();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long dedupFalsePositivePpmMax() {
+        return dedupFalsePositivePpm.getSnapshot().getMax();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long dedupFalsePositivePpmMin() {
+        return dedupFalsePositivePpm.getSnapshot().getMin();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double dedupFalsePositivePpm95ThPercentile() {
+        return dedupFalsePositivePpm.getSnapshot().get95thPercentile();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double dedupFalsePositivePpm99ThPercentile() {
+        return dedupFalsePositivePpm.getSnapshot().get99thPercentile();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double dedupFalsePositivePpmStdDev() {
+        return dedupFalsePositivePpm.getSnapshot().getStdDev();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long requestRateRejectionsCount() {
+        return requestRateRejections.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long byteRateRejectionsCount() {
+        return byteRateRejections.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long inflatedSizeRejectionsCount() {
+        return inflatedSizeRejections.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long inflateRatioRejectionsCount() {
+        return inflateRatioRejections.getCount();
+    }
 }
@@ -1,11 +1,18 @@
 package com.keedio.flume.source.http.json.handler.metrics;
 
 /**
+ * Metric update handed to {@link MetricsController#manage(MetricsEvent)}. Kept for compatibility, the recording
+ * methods of the controller do the same without allocating an event per update.
+ *
  * Created by Luca Rosellini <lrosellini@keedio.com> on 26/5/15.
  */
 public class MetricsEvent {
     public enum EventType{
-        JSON_ARRIVED,JSON_ERROR,PARSE_OK,EVENT_GENERATION,EVENT_SIZE,NJSONS_ARRIVED,UNKNOWN;
+        JSON_ARRIVED,JSON_ERROR,PARSE_OK,EVENT_GENERATION,EVENT_SIZE,NJSONS_ARRIVED,BYTES_DROPPED,BYTES_ALLOCATED,
+        INTERN_HIT,INTERN_MISS,INTERN_EVICTION,
+        CONTENT_LENGTH_REJECTED,BODY_SIZE_REJECTED,OBJECT_COUNT_REJECTED,DEPTH_REJECTED,
+        DEDUP_HIT,DEDUP_MISS,DEDUP_FALSE_POSITIVE,
+        REQUEST_RATE_REJECTED,BYTE_RATE_REJECTED,INFLATED_SIZE_REJECTED,INFLATE_RATIO_REJECTED,UNKNOWN;
     }
 
     private long value;
@@ -168,4 +168,149 @@ public interface MetricsMBean {
      * @return std dev percentile size of the events received.
      */
     double jsonsPerRequestStdDev();
+
+    /**
+     * @return number of input bytes dropped by field projection.
+     */
+    long droppedBytesCount();
+
+    /**
+     * @return mean rate of input bytes dropped by field projection.
+     */
+    double droppedBytesMeanRate();
+
+    /**
+     * @return one minute rate of input bytes dropped by field projection.
+     */
+    double droppedBytesOneMinuteRate();
+
+    /**
+     * @return fifteen minute rate of input bytes dropped by field projection.
+     */
+    double droppedBytesFifteenMinuteRate();
+
+    /**
+     * @return mean bytes allocated per event while reading requests.
+     */
+    double allocatedBytesPerEventMean();
+
+    /**
+     * @return max bytes allocated per event while reading requests.
+     */
+    long allocatedBytesPerEventMax();
+
+    /**
+     * @return min bytes allocated per event while reading requests.
+     */
+    long allocatedBytesPerEventMin();
+
+    /**
+     * @return 95th percentile of the bytes allocated per event while reading requests.
+     */
+    double allocatedBytesPerEvent95ThPercentile();
+
+    /**
+     * @return 99th percentile of the bytes allocated per event while reading requests.
+     */
+    double allocatedBytesPerEvent99ThPercentile();
+
+    /**
+     * @return std dev of the bytes allocated per event while reading requests.
+     */
+    double allocatedBytesPerEventStdDev();
+
+    /**
+     * @return number of string values found in the intern cache.
+     */
+    long internHitsCount();
+
+    /**
+     * @return number of string values not found in the intern cache.
+     */
+    long internMissesCount();
+
+    /**
+     * @return number of string values replaced in the intern cache by a miss.
+     */
+    long internEvictionsCount();
+
+    /**
+     * @return number of requests rejected for a Content-Length over the limit.
+     */
+    long contentLengthRejectionsCount();
+
+    /**
+     * @return number of requests rejected for a body, once decompressed, over the limit.
+     */
+    long bodySizeRejectionsCount();
+
+    /**
+     * @return number of requests rejected for holding more jsons than the limit.
+     */
+    long objectCountRejectionsCount();
+
+    /**
+     * @return number of requests rejected for nesting deeper than the limit.
+     */
+    long depthRejectionsCount();
+
+    /**
+     * @return number of events dropped as duplicates of events committed recently.
+     */
+    long dedupHitsCount();
+
+    /**
+     * @return number of events checked for duplicates and found to be new.
+     */
+    long dedupMissesCount();
+
+    /**
+     * @return mean estimated false positive rate of the duplicate filter, in parts per million.
+     */
+    double dedupFalsePositivePpmMean();
+
+    /**
+     * @return max estimated false positive rate of the duplicate filter, in parts per million.
+     */
+    long dedupFalsePositivePpmMax();
+
+    /**
+     * @return min estimated false positive rate of the duplicate filter, in parts per million.
+     */
+    long dedupFalsePositivePpmMin();
+
+    /**
+     * @return 95th percentile of the estimated false positive rate of the duplicate filter, in parts per million.
+     */
+    double dedupFalsePositivePpm95ThPercentile();
+
+    /**
+     * @return 99th percentile of the estimated false positive rate of the duplicate filter, in parts per million.
+     */
+    double dedupFalsePositivePpm99ThPercentile();
+
+    /**
+     * @return std dev of the estimated false positive rate of the duplicate filter, in parts per million.
+     */
+    double dedupFalsePositivePpmStdDev();
+
+    /**
+     * @return number of requests rejected because their client went over its requests per second.
+     */
+    long requestRateRejectionsCount();
+
+    /**
+     * @return number of requests rejected because their client went over its bytes per second.
+     */
+    long byteRateRejectionsCount();
+
+    /**
+     * @return number of compressed requests rejected for inflating over the size limit.
+     */
+    long inflatedSizeRejectionsCount();
+
+    /**
+     * @return number of compressed requests rejected for inflating over the ratio limit.
+     */
+    long inflateRatioRejectionsCount();
 }
@@ -0,0 +1,243 @@
+package com.keedio.flume.source.http.spill;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Append only log of event batches on disk, made of memory mapped {@link SpillSegment} files of a fixed size. Each
+ * batch is a record; batches are drained in the order they were appended, and a segment is deleted once every
+ * batch in it is drained. The log never takes more than its maximum size in segments: appends are refused once
+ * it is full.
+ * </p>
+ * <p>
+ * The log is reopened as it was left when the source starts again, batches drained before the restart are not
+ * replayed. Appends are synchronized, batches must be drained by a single thread.
+ * </p>
+ */
+public class SpillLog {
+    private static final Logger LOG = LoggerFactory.getLogger(SpillLog.class);
+    private static final String SUFFIX = ".spill";
+
+    private final File dir;
+    private final long maxBytes;
+    private final int segmentSize;
+    private final Deque<SpillSegment> segments = new ArrayDeque<>();
+    private long sequence;
+
+    /**
+     * @param dir directory of the segments, created if needed.
+     * @param maxBytes maximum size in bytes of the segments together.
+     * @param segmentSize size in bytes of a segment, the largest batch is a bit smaller.
+     * @throws IOException if the directory or the segments in it cannot be opened.
+     */
+    public SpillLog(File dir, long maxBytes, int segmentSize) throws IOException {
+        if (segmentSize <= SpillSegment.HEADER + 4 || maxBytes < segmentSize) {
+            throw new IllegalArgumentException("Spill segments of " + segmentSize + " bytes do not fit in "
+                    + maxBytes + " bytes");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create spill directory " + dir);
+        }
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.segmentSize = segmentSize;
+
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File parent, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+        for (File file : files) {
+            SpillSegment segment = SpillSegment.open(file);
+            segment.seal();
+            segments.add(segment);
+            String name = file.getName();
+            sequence = Math.max(sequence, Long.parseLong(name.substring(0, name.length() - SUFFIX.length())) + 1);
+        }
+        if (!segments.isEmpty()) {
+            LOG.info("Reopened spill log in " + dir + ", " + pendingBytes() + " bytes to drain in "
+                    + segments.size() + " segments");
+        }
+    }
+
+    /**
+     * @param events a batch of events.
+     * @return whether the batch was appended, false if the log is full or the batch larger than a segment.
+     * @throws IOException if a new segment cannot be created.
+     */
+    public synchronized boolean append(List<Event> events) throws IOException {
+        byte[] record = serialize(events);
+        SpillSegment tail = segments.peekLast();
+        if (tail == null || tail.isSealed() || !tail.append(record)) {
+            if (record.length > segmentSize - SpillSegment.HEADER - 4
+                    || (long) (segments.size() + 1) * segmentSize > maxBytes) {
+                return false;
+            }
+            if (tail != null) {
+                tail.seal();
+            }
+            tail = SpillSegment.create(new File(dir, String.format("%020d", sequence++) + SUFFIX), segmentSize);
+            segments.add(tail);
+            tail.append(record);
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * @return the oldest batch not drained yet, null if the log is empty.
+     * @throws IOException if the batch cannot be read back.
+     */
+    public List<Event> peek() throws IOException {
+        SpillSegment head;
+        while ((head = head()) != null) {
+            byte[] record = head.peek();
+            if (record != null) {
+                return deserialize(record);
+            }
+            synchronized (this) {
+                // a sealed segment gets no more appends, once drained it is gone
+                if (!head.isSealed() || !head.isDrained()) {
+                    return null;
+                }
+                segments.remove(head);
+            }
+            head.delete();
+        }
+        return null;
+    }
+
+    /**
+     * Marks the batch returned by {@link #peek()} as drained.
+     */
+    public void remove() {
+        SpillSegment head = head();
+        if (head != null) {
+            head.remove();
+        }
+    }
+
+    /**
+     * Waits for a batch to be appended, if the log is empty.
+     *
+     * @param millis milliseconds to wait at most.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public synchronized void await(long millis) throws InterruptedException {
+        if (isEmpty()) {
+            wait(millis);
+        }
+    }
+
+    /**
+     * @return whether every batch appended has been drained.
+     */
+    public synchronized boolean isEmpty() {
+        for (SpillSegment segment : segments) {
+            if (!segment.isDrained()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of bytes of the batches not drained yet.
+     */
+    public synchronized long pendingBytes() {
+        long pending = 0;
+        for (SpillSegment segment : segments) {
+            pending += segment.pendingBytes();
+        }
+        return pending;
+    }
+
+    /**
+     * @return the number of bytes taken on disk by the segments.
+     */
+    public synchronized long diskBytes() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Writes every segment to disk.
+     */
+    public synchronized void close() {
+        for (SpillSegment segment : segments) {
+            segment.force();
+        }
+    }
+
+    private synchronized SpillSegment head() {
+        return segments.peekFirst();
+    }
+
+    static byte[] serialize(List<Event> events) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(events.size());
+        for (Event event : events) {
+            Map<String, String> headers = event.getHeaders();
+            out.writeInt(headers.size());
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                writeBytes(out, header.getKey().getBytes(StandardCharsets.UTF_8));
+                writeBytes(out, header.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+            writeBytes(out, event.getBody());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static List<Event> deserialize(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        int count = in.readInt();
+        List<Event> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int headerCount = in.readInt();
+            Map<String, String> headers = new HashMap<>();
+            for (int j = 0; j < headerCount; j++) {
+                String key = new String(readBytes(in), StandardCharsets.UTF_8);
+                headers.put(key, new String(readBytes(in), StandardCharsets.UTF_8));
+            }
+            events.add(EventBuilder.withBody(readBytes(in), headers));
+        }
+        return events;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
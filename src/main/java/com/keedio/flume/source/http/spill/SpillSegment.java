@@ -0,0 +1,174 @@
+package com.keedio.flume.source.http.spill;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * File of the spill log, memory mapped as a whole. It starts with the offset of the first record not drained yet,
+ * followed by the records, each one its length and its bytes. Files are zero filled when created, a zero length
+ * marks the end of the records.
+ * </p>
+ * <p>
+ * The length of a record is written after its bytes, so a process dying in the middle of an append leaves the
+ * record out. Writes go to the page cache, they survive the process but not the machine, unless {@link #force()}
+ * is called.
+ * </p>
+ * <p>
+ * Appends are made by one thread at a time and reads by a single draining thread.
+ * </p>
+ */
+final class SpillSegment {
+    static final int HEADER = 8;
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private volatile int writeOffset;
+    private volatile int readOffset;
+    private volatile boolean sealed;
+
+    private SpillSegment(File file, MappedByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @param file the file to create.
+     * @param size size of the file in bytes.
+     * @return a new empty segment.
+     * @throws IOException if the file cannot be created or mapped.
+     */
+    static SpillSegment create(File file, int size) throws IOException {
+        SpillSegment segment = new SpillSegment(file, map(file, size));
+        segment.readOffset = HEADER;
+        segment.writeOffset = HEADER;
+        segment.buffer.putLong(0, HEADER);
+        return segment;
+    }
+
+    /**
+     * @param file a file left by an earlier run.
+     * @return the segment, positioned on the first record not drained yet and after the last one.
+     * @throws IOException if the file cannot be mapped or is not a segment.
+     */
+    static SpillSegment open(File file) throws IOException {
+        SpillSegment segment = new SpillSegment(file, map(file, (int) file.length()));
+        int size = segment.buffer.capacity();
+        long read = segment.buffer.getLong(0);
+        if (read < HEADER || read > size) {
+            throw new IOException("Corrupted spill segment " + file + ", read offset " + read);
+        }
+        int offset = HEADER;
+        while (offset + 4 <= size) {
+            int length = segment.buffer.getInt(offset);
+            if (length <= 0 || length > size - offset - 4) {
+                break;
+            }
+            offset += 4 + length;
+        }
+        segment.writeOffset = offset;
+        segment.readOffset = (int) Math.min(read, offset);
+        return segment;
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * @param record the bytes of the record.
+     * @return whether the record fits, false if the segment is full.
+     */
+    boolean append(byte[] record) {
+        int offset = writeOffset;
+        if (record.length > buffer.capacity() - offset - 4) {
+            return false;
+        }
+        ByteBuffer target = buffer.duplicate();
+        target.position(offset + 4);
+        target.put(record);
+        buffer.putInt(offset, record.length);
+        writeOffset = offset + 4 + record.length;
+        return true;
+    }
+
+    /**
+     * @return the bytes of the first record not drained yet, null if there is none.
+     */
+    byte[] peek() {
+        int offset = readOffset;
+        if (offset >= writeOffset) {
+            return null;
+        }
+        byte[] record = new byte[buffer.getInt(offset)];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset + 4);
+        source.get(record);
+        return record;
+    }
+
+    /**
+     * Marks the record returned by {@link #peek()} as drained, so it is not replayed after a restart.
+     */
+    void remove() {
+        int offset = readOffset;
+        if (offset < writeOffset) {
+            readOffset = offset + 4 + buffer.getInt(offset);
+            buffer.putLong(0, readOffset);
+        }
+    }
+
+    /**
+     * @return the number of bytes of the records not drained yet.
+     */
+    long pendingBytes() {
+        return writeOffset - readOffset;
+    }
+
+    /**
+     * @return whether every record appended has been drained.
+     */
+    boolean isDrained() {
+        return readOffset >= writeOffset;
+    }
+
+    /**
+     * Closes the segment for appends, the next ones go to a new segment.
+     */
+    void seal() {
+        sealed = true;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * Writes the changes of the segment to disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Deletes the file. The mapping is released once the segment is garbage collected.
+     */
+    void delete() {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    File file() {
+        return file;
+    }
+}
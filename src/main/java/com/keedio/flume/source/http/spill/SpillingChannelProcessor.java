@@ -0,0 +1,229 @@
+package com.keedio.flume.source.http.spill;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.channel.ChannelProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * Channel processor of a source taking the batches the channels refuse into a {@link SpillLog}, so the request is
+ * answered as accepted instead of unavailable, and replaying them in order from a drain thread once the channels
+ * have room. While the log holds batches, new ones go to the log too, behind them. Batches the log cannot take,
+ * once it is full, fail with the exception of the channel as they would without it.
+ * </p>
+ * <p>
+ * Batches go through the processor of the source, interceptors included, when drained, so a spilled batch goes
+ * through the interceptors a second time. The channels of a batch are all written again as well: a required
+ * channel that committed the batch before another one refused it gets its events twice. A batch that keeps
+ * failing for other reasons than a full channel, an interceptor throwing or a damaged record, is dropped after
+ * {@value #MAX_FAILURES} attempts so the batches behind it are not held forever.
+ * </p>
+ * <p>
+ * Metrics are published through JMX under the name of the source: the fill level of the log, the rates of
+ * spilled and drained events and of dropped batches.
+ * </p>
+ */
+public class SpillingChannelProcessor extends ChannelProcessor {
+    private static final Logger LOG = LoggerFactory.getLogger(SpillingChannelProcessor.class);
+    private static final long MIN_BACKOFF = 10;
+    private static final long MAX_BACKOFF = 1000;
+    static final int MAX_FAILURES = 5;
+
+    private final ChannelProcessor delegate;
+    private final SpillLog log;
+    private final String name;
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final Meter spilledEvents;
+    private final Meter drainedEvents;
+    private final Meter rejectedEvents;
+    private final Meter droppedBatches;
+    private JmxReporter reporter;
+    private Thread drainer;
+    private volatile boolean running;
+
+    /**
+     * @param delegate the channel processor of the source.
+     * @param log the log of the batches the channels refuse.
+     * @param name name of the source, for the drain thread and the metrics.
+     */
+    public SpillingChannelProcessor(ChannelProcessor delegate, final SpillLog log, String name) {
+        super(delegate.getSelector());
+        this.delegate = delegate;
+        this.log = log;
+        this.name = name;
+
+        spilledEvents = metrics.meter("spilledEvents");
+        drainedEvents = metrics.meter("drainedEvents");
+        rejectedEvents = metrics.meter("rejectedEvents");
+        droppedBatches = metrics.meter("droppedBatches");
+        metrics.register("pendingBytes", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return log.pendingBytes();
+            }
+        });
+        metrics.register("diskBytes", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return log.diskBytes();
+            }
+        });
+        metrics.register("fillRatio", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return (double) log.diskBytes() / log.maxBytes();
+            }
+        });
+    }
+
+    /**
+     * Starts the drain thread and publishes the metrics.
+     */
+    public synchronized void start() {
+        reporter = JmxReporter.forRegistry(metrics)
+                .inDomain(MetricRegistry.name(SpillingChannelProcessor.class, name))
+                .build();
+        reporter.start();
+        running = true;
+        drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, name + "-spill-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Stops the drain thread and writes the log to disk. Batches left in it are drained on the next start.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (drainer != null) {
+            drainer.interrupt();
+            try {
+                drainer.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            drainer = null;
+        }
+        if (reporter != null) {
+            reporter.stop();
+            reporter = null;
+        }
+        log.close();
+    }
+
+    @Override
+    public void initialize() {
+        delegate.initialize();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public void configure(Context context) {
+        delegate.configure(context);
+    }
+
+    @Override
+    public void processEvent(Event event) {
+        processEventBatch(Collections.singletonList(event));
+    }
+
+    @Override
+    public void processEventBatch(List<Event> events) {
+        if (log.isEmpty()) {
+            try {
+                delegate.processEventBatch(events);
+                return;
+            } catch (ChannelException ex) {
+                spill(events, ex);
+                return;
+            }
+        }
+        spill(events, new ChannelException("Spill log of " + name + " cannot take the batch"));
+    }
+
+    private void spill(List<Event> events, ChannelException cause) {
+        boolean spilled;
+        try {
+            spilled = log.append(events);
+        } catch (IOException ex) {
+            LOG.error("Cannot append to the spill log of " + name, ex);
+            spilled = false;
+        }
+        if (!spilled) {
+            rejectedEvents.mark(events.size());
+            throw cause;
+        }
+        spilledEvents.mark(events.size());
+    }
+
+    /**
+     * Replays the batches of the log into the channels, backing off while they are refused. A batch failing
+     * {@value #MAX_FAILURES} times in a row for any other reason is dropped.
+     */
+    private void drain() {
+        long backoff = MIN_BACKOFF;
+        int failures = 0;
+        while (running) {
+            try {
+                List<Event> events = log.peek();
+                if (events == null) {
+                    log.await(MAX_BACKOFF);
+                    continue;
+                }
+                try {
+                    delegate.processEventBatch(events);
+                } catch (ChannelException ex) {
+                    LOG.debug("Channel still full, retrying the spilled batch in " + backoff + " ms", ex);
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF);
+                    continue;
+                }
+                log.remove();
+                drainedEvents.mark(events.size());
+                backoff = MIN_BACKOFF;
+                failures = 0;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ex) {
+                if (++failures >= MAX_FAILURES) {
+                    LOG.error("Dropping the spilled batch at the head of the log of " + name + " after " + failures
+                            + " failures", ex);
+                    log.remove();
+                    droppedBatches.mark();
+                    backoff = MIN_BACKOFF;
+                    failures = 0;
+                    continue;
+                }
+                LOG.error("Cannot drain the spill log of " + name + ", retrying in " + backoff + " ms", ex);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            }
+        }
+    }
+}
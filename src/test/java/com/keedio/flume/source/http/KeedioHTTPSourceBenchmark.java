@@ -0,0 +1,206 @@
+package com.keedio.flume.source.http;
+
+import org.apache.flume.Channel;
+import org.apache.flume.ChannelSelector;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.channel.BasicChannelSemantics;
+import org.apache.flume.channel.BasicTransactionSemantics;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.keedio.flume.source.http.KeedioHTTPSourceConfigurationConstants.*;
+
+/**
+ * <p>
+ * Throughput of {@link KeedioHTTPSource} under many concurrent keep-alive clients, with the default server settings
+ * and with each connector and thread pool setting changed on its own. Events go to a channel that drops them, so the
+ * numbers are those of the server and the handler. Not a unit test, run it from the project root with the test
+ * classpath:
+ * </p>
+ * <pre>
+ *     java -cp target/test-classes:target/classes:&lt;dependencies&gt; \
+ *         com.keedio.flume.source.http.KeedioHTTPSourceBenchmark [seconds] [clients] [port]
+ * </pre>
+ */
+public class KeedioHTTPSourceBenchmark {
+    private static final String PAYLOAD = "src/test/resources/schema/example-widget-multiple.json";
+    /**
+     * Milliseconds before a request counts as failed, a starved server may never answer some of them.
+     */
+    private static final int TIMEOUT = 5000;
+
+    public static void main(String[] args) throws Exception {
+        long millis = (args.length > 0 ? Long.parseLong(args[0]) : 5) * 1000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 18080;
+        byte[] payload = Files.readAllBytes(Paths.get(PAYLOAD));
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        Map<String, String[]> settings = new LinkedHashMap<>();
+        settings.put("defaults", new String[0]);
+        settings.put("blocking", new String[]{CONNECTOR, "blocking"});
+        settings.put("blocking, " + clients * 2 + " threads", new String[]{CONNECTOR, "blocking",
+                MAX_THREADS, String.valueOf(clients * 2)});
+        settings.put(cores + " acceptors", new String[]{ACCEPTORS, String.valueOf(cores)});
+        settings.put("8 threads", new String[]{MAX_THREADS, "8"});
+        settings.put(cores * 8 + " threads", new String[]{MIN_THREADS, String.valueOf(cores * 8),
+                MAX_THREADS, String.valueOf(cores * 8)});
+        settings.put("accept queue 1024", new String[]{ACCEPT_QUEUE_SIZE, "1024"});
+        settings.put("idle time 50 ms", new String[]{MAX_IDLE_TIME, "50"});
+        settings.put("request buffer 64k", new String[]{REQUEST_BUFFER_SIZE, "65536"});
+        settings.put("header buffer 1k", new String[]{HEADER_BUFFER_SIZE, "1024"});
+        settings.put("2 extra ports", new String[]{EXTRA_PORTS, (port + 1) + "," + (port + 2)});
+
+        System.out.println(String.format("%-26s %12s %12s %12s", "settings", "requests/s", "p99 ms", "errors"));
+
+        for (Map.Entry<String, String[]> setting : settings.entrySet()) {
+            Context context = new Context();
+            context.put("port", String.valueOf(port));
+            context.put("bind", "localhost");
+            context.put("handler", "com.keedio.flume.source.http.json.handler.KeedioJSONHandler");
+            String[] properties = setting.getValue();
+            for (int i = 0; i < properties.length; i += 2) {
+                context.put(properties[i], properties[i + 1]);
+            }
+            List<Integer> ports = new ArrayList<>(Collections.singletonList(port));
+            if (context.getString(EXTRA_PORTS) != null) {
+                ports.add(port + 1);
+                ports.add(port + 2);
+            }
+
+            KeedioHTTPSource source = new KeedioHTTPSource();
+            source.setName("benchmark");
+            source.configure(context);
+            ChannelSelector selector = new ReplicatingChannelSelector();
+            selector.setChannels(Collections.<Channel>singletonList(new NullChannel()));
+            source.setChannelProcessor(new ChannelProcessor(selector));
+            source.start();
+            try {
+                run(ports, clients, payload, millis / 5);
+                long t0 = System.nanoTime();
+                long[] result = run(ports, clients, payload, millis);
+                double seconds = (System.nanoTime() - t0) / 1e9;
+
+                System.out.println(String.format("%-26s %12.0f %12.1f %12d", setting.getKey(), result[0] / seconds,
+                        result[1] / 1e6, result[2]));
+            } finally {
+                source.stop();
+            }
+        }
+    }
+
+    /**
+     * Posts the payload from every client over and over for the given time, each client on a keep-alive
+     * connection to one of the ports.
+     *
+     * @return requests answered with 200, 99th percentile latency in nanoseconds and failed requests.
+     */
+    private static long[] run(final List<Integer> ports, int clients, final byte[] payload, final long millis)
+            throws InterruptedException {
+        final AtomicLong ok = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final long[][] latencies = new long[clients][];
+        final long end = System.currentTimeMillis() + millis;
+        Thread[] threads = new Thread[clients];
+
+        for (int i = 0; i < clients; i++) {
+            final int client = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    long[] samples = new long[1024];
+                    int n = 0;
+                    byte[] buffer = new byte[1024];
+                    while (System.currentTimeMillis() < end) {
+                        long t0 = System.nanoTime();
+                        try {
+                            URL url = new URL("http://localhost:" + ports.get(client % ports.size()) + "/");
+                            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                            connection.setDoOutput(true);
+                            connection.setConnectTimeout(TIMEOUT);
+                            connection.setReadTimeout(TIMEOUT);
+                            connection.setRequestMethod("POST");
+                            try (OutputStream out = connection.getOutputStream()) {
+                                out.write(payload);
+                            }
+                            boolean success = connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+                            // the response is read to the end so the connection goes back to the keep-alive cache
+                            try (InputStream in = success ? connection.getInputStream()
+                                    : connection.getErrorStream()) {
+                                while (in != null && in.read(buffer) >= 0) {
+                                    // discarded
+                                }
+                            }
+                            (success ? ok : errors).incrementAndGet();
+                        } catch (IOException ex) {
+                            errors.incrementAndGet();
+                        }
+                        if (n == samples.length) {
+                            samples = Arrays.copyOf(samples, n * 2);
+                        }
+                        samples[n++] = System.nanoTime() - t0;
+                    }
+                    latencies[client] = Arrays.copyOf(samples, n);
+                }
+            };
+            threads[i].start();
+        }
+
+        long[] all = new long[0];
+        for (int i = 0; i < clients; i++) {
+            threads[i].join();
+            int offset = all.length;
+            all = Arrays.copyOf(all, offset + latencies[i].length);
+            System.arraycopy(latencies[i], 0, all, offset, latencies[i].length);
+        }
+        Arrays.sort(all);
+        return new long[]{ok.get(), all.length == 0 ? 0 : all[(int) (all.length * 0.99)], errors.get()};
+    }
+
+    /**
+     * Channel taking every event and dropping it.
+     */
+    private static class NullChannel extends BasicChannelSemantics {
+        NullChannel() {
+            setName("null");
+        }
+
+        @Override
+        protected BasicTransactionSemantics createTransaction() {
+            return new BasicTransactionSemantics() {
+                @Override
+                protected void doPut(Event event) {
+                }
+
+                @Override
+                protected Event doTake() {
+                    return null;
+                }
+
+                @Override
+                protected void doCommit() {
+                }
+
+                @Override
+                protected void doRollback() {
+                }
+            };
+        }
+    }
+}
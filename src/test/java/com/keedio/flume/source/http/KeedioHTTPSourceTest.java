@@ -0,0 +1,280 @@
+package com.keedio.flume.source.http;
+
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.lifecycle.LifecycleState;
+import org.apache.flume.source.http.HTTPSourceConfigurationConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.mortbay.jetty.AbstractConnector;
+import org.mortbay.jetty.Connector;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.bio.SocketConnector;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+import org.mortbay.thread.QueuedThreadPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.keedio.flume.source.http.KeedioHTTPSourceConfigurationConstants.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class KeedioHTTPSourceTest {
+    private static final byte[] JSONS = "{\"a\": 1}{\"a\": 2}".getBytes();
+
+    private KeedioHTTPSource source;
+    private ChannelProcessor channelProcessor;
+    private int port;
+
+    @Before
+    public void setup() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        source = new KeedioHTTPSource();
+        source.setName("test");
+        channelProcessor = mock(ChannelProcessor.class);
+        source.setChannelProcessor(channelProcessor);
+    }
+
+    @After
+    public void tearDown() {
+        if (source.getLifecycleState() == LifecycleState.START) {
+            source.stop();
+        }
+    }
+
+    @Test
+    public void testSyncPost() throws IOException {
+        source.configure(context());
+        source.start();
+
+        assertEquals(HttpURLConnection.HTTP_OK, post(JSONS));
+        verify(channelProcessor).processEventBatch(argThat(hasSize(2)));
+
+        doThrow(new ChannelException("full")).when(channelProcessor).processEventBatch(anyListOf(Event.class));
+        assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, post(JSONS));
+    }
+
+    @Test
+    public void testAsyncEarlyCommit() throws IOException {
+        // the commit is done long before the timeout, most likely before the request is even suspended
+        source.configure(context(ASYNC, "true"));
+        source.start();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(HttpURLConnection.HTTP_OK, post(JSONS));
+        }
+        verify(channelProcessor, times(10)).processEventBatch(argThat(hasSize(2)));
+    }
+
+    @Test
+    public void testAsyncCommitOutlastingTimeout() throws Exception {
+        for (String connector : new String[]{"nio", "blocking"}) {
+            setup();
+            final CountDownLatch committed = new CountDownLatch(1);
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) throws InterruptedException {
+                    Thread.sleep(700);
+                    committed.countDown();
+                    return null;
+                }
+            }).when(channelProcessor).processEventBatch(anyListOf(Event.class));
+            source.configure(context(ASYNC, "true", ASYNC_TIMEOUT, "200", CONNECTOR, connector));
+            source.start();
+
+            // the request outlives several timeouts and is only answered once its events are in the channel
+            assertEquals(connector, HttpURLConnection.HTTP_OK, post(JSONS));
+            assertEquals(connector, 0, committed.getCount());
+            tearDown();
+        }
+    }
+
+    @Test
+    public void testAsyncQueueFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws InterruptedException {
+                release.await();
+                return null;
+            }
+        }).when(channelProcessor).processEventBatch(anyListOf(Event.class));
+        source.configure(context(ASYNC, "true", ASYNC_THREADS, "1", ASYNC_QUEUE_SIZE, "1"));
+        source.start();
+
+        // the first commit holds the only commit thread, the second one waits in the queue
+        final int[] statuses = new int[2];
+        Thread[] clients = new Thread[2];
+        for (int i = 0; i < clients.length; i++) {
+            final int client = i;
+            clients[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        statuses[client] = post(JSONS);
+                    } catch (IOException e) {
+                        statuses[client] = -1;
+                    }
+                }
+            };
+            clients[i].start();
+            if (i == 0) {
+                verify(channelProcessor, timeout(5000)).processEventBatch(anyListOf(Event.class));
+            }
+        }
+        Thread.sleep(500);
+
+        // refused by the queue, so never committed
+        assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, post(JSONS));
+
+        release.countDown();
+        for (Thread client : clients) {
+            client.join(5000);
+        }
+        assertArrayEquals(new int[]{HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_OK}, statuses);
+        verify(channelProcessor, times(2)).processEventBatch(anyListOf(Event.class));
+    }
+
+    @Test
+    public void testAsyncChannelFailure() throws IOException {
+        doThrow(new ChannelException("full")).when(channelProcessor).processEventBatch(anyListOf(Event.class));
+        source.configure(context(ASYNC, "true"));
+        source.start();
+
+        assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, post(JSONS));
+
+        doThrow(new IllegalStateException()).when(channelProcessor).processEventBatch(anyListOf(Event.class));
+        assertEquals(HttpURLConnection.HTTP_INTERNAL_ERROR, post(JSONS));
+    }
+
+    @Test
+    public void testServerDefaults() {
+        source.configure(context());
+        Server server = customizedServer();
+
+        assertEquals(1, server.getConnectors().length);
+        assertTrue(server.getConnectors()[0] instanceof SelectChannelConnector);
+        assertEquals(DEFAULT_ACCEPTORS, ((AbstractConnector) server.getConnectors()[0]).getAcceptors());
+        QueuedThreadPool threadPool = (QueuedThreadPool) server.getThreadPool();
+        assertEquals(DEFAULT_MIN_THREADS, threadPool.getMinThreads());
+        assertEquals(DEFAULT_MAX_THREADS, threadPool.getMaxThreads());
+    }
+
+    @Test
+    public void testServerSettings() {
+        source.configure(context(CONNECTOR, "blocking", ACCEPTORS, "3", ACCEPT_QUEUE_SIZE, "64", MAX_IDLE_TIME, "1000",
+                HEADER_BUFFER_SIZE, "2048", REQUEST_BUFFER_SIZE, "4096", RESPONSE_BUFFER_SIZE, "8192",
+                MIN_THREADS, "4", MAX_THREADS, "16", EXTRA_PORTS, (port + 1) + ", 127.0.0.1:" + (port + 2)));
+        Server server = customizedServer();
+
+        Connector[] connectors = server.getConnectors();
+        assertEquals(3, connectors.length);
+        assertEquals(port, connectors[0].getPort());
+        assertEquals("localhost", connectors[1].getHost());
+        assertEquals(port + 1, connectors[1].getPort());
+        assertEquals("127.0.0.1", connectors[2].getHost());
+        assertEquals(port + 2, connectors[2].getPort());
+        for (Connector connector : connectors) {
+            assertTrue(connector instanceof SocketConnector);
+            assertEquals(3, ((AbstractConnector) connector).getAcceptors());
+            assertEquals(64, ((AbstractConnector) connector).getAcceptQueueSize());
+            assertEquals(1000, connector.getMaxIdleTime());
+            assertEquals(2048, connector.getHeaderBufferSize());
+            assertEquals(4096, connector.getRequestBufferSize());
+            assertEquals(8192, connector.getResponseBufferSize());
+        }
+        QueuedThreadPool threadPool = (QueuedThreadPool) server.getThreadPool();
+        assertEquals(4, threadPool.getMinThreads());
+        assertEquals(16, threadPool.getMaxThreads());
+    }
+
+    @Test
+    public void testInvalidServerSettings() {
+        String[][] invalid = {
+                {CONNECTOR, "epoll"},
+                {ACCEPTORS, "0"},
+                {MIN_THREADS, "0"},
+                {MIN_THREADS, "10", MAX_THREADS, "5"},
+                {EXTRA_PORTS, "localhost:http"},
+                {EXTRA_PORTS, "70000"},
+                {EXTRA_PORTS, String.valueOf(port + 1), HTTPSourceConfigurationConstants.SSL_ENABLED, "true"},
+                {CONNECTOR, "nio", HTTPSourceConfigurationConstants.SSL_ENABLED, "true"}
+        };
+        for (String[] properties : invalid) {
+            try {
+                source.configure(context(properties));
+                fail(Arrays.toString(properties));
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * @return a server like the one HTTPSource builds, customized by the source.
+     */
+    private Server customizedServer() {
+        Server server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setHost("localhost");
+        connector.setPort(port);
+        server.setConnectors(new Connector[]{connector});
+        source.customizeServletContext(new org.mortbay.jetty.servlet.Context(server, "/",
+                org.mortbay.jetty.servlet.Context.SESSIONS));
+        return server;
+    }
+
+    private Context context(String... properties) {
+        Context context = new Context();
+        context.put("port", String.valueOf(port));
+        context.put("bind", "localhost");
+        context.put("handler", "com.keedio.flume.source.http.json.handler.KeedioJSONHandler");
+        for (int i = 0; i < properties.length; i += 2) {
+            context.put(properties[i], properties[i + 1]);
+        }
+        return context;
+    }
+
+    /**
+     * @return the status of the response.
+     */
+    private int post(byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/").openConnection();
+        connection.setDoOutput(true);
+        connection.setReadTimeout(10000);
+        connection.setRequestMethod("POST");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static ArgumentMatcher<List<Event>> hasSize(final int size) {
+        return new ArgumentMatcher<List<Event>>() {
+            @Override
+            public boolean matches(Object events) {
+                return ((List<?>) events).size() == size;
+            }
+        };
+    }
+}
@@ -0,0 +1,67 @@
+package com.keedio.flume.source.http.filter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveConcurrencyLimiterTest {
+    private static final long TARGET = 100000000L;
+
+    @Test
+    public void testLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10, TARGET, 0.5);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.inFlight());
+
+        limiter.release();
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testIncrease() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 4, TARGET, 0.5);
+        limiter.tryAcquire();
+        limiter.tryAcquire();
+        long now = System.nanoTime();
+        // about one more request per round trip of the limit
+        for (int i = 0; i < 4; i++) {
+            limiter.sample(now, TARGET / 2, false);
+        }
+        assertEquals(3, limiter.limit());
+        for (int i = 0; i < 100; i++) {
+            limiter.sample(now, TARGET / 2, false);
+        }
+        assertEquals(4, limiter.limit());
+    }
+
+    @Test
+    public void testNoIncreaseWhenIdle() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 10, TARGET, 0.5);
+        long now = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            limiter.sample(now, 0, false);
+        }
+        assertEquals(4, limiter.limit());
+    }
+
+    @Test
+    public void testDecrease() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 10, TARGET, 0.5);
+        long now = System.nanoTime();
+        limiter.sample(now, 2 * TARGET, false);
+        assertEquals(4, limiter.limit());
+
+        // a single slow period counts once
+        limiter.sample(now + TARGET / 2, 2 * TARGET, false);
+        limiter.sample(now + TARGET / 2, 0, true);
+        assertEquals(4, limiter.limit());
+
+        limiter.sample(now + TARGET, 0, true);
+        assertEquals(2, limiter.limit());
+        limiter.sample(now + 2 * TARGET, 0, true);
+        limiter.sample(now + 3 * TARGET, 0, true);
+        assertEquals(1, limiter.limit());
+    }
+}
@@ -0,0 +1,58 @@
+package com.keedio.flume.source.http.filter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClientRateLimiterTest {
+
+    @Test
+    public void testRequestBurst() {
+        // one request per hour, so the bucket does not fill again during the test
+        ClientRateLimiter limiter = new ClientRateLimiter(1.0 / 3600, 3, 0, 0, 60000, 10);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquire("a", 100));
+        }
+        long wait = limiter.acquire("a", 100);
+        assertTrue(wait > 0);
+        assertTrue(wait <= 3600L * 1000000000L);
+
+        // other clients have buckets of their own
+        assertEquals(0, limiter.acquire("b", 100));
+        assertEquals(2, limiter.clients());
+    }
+
+    @Test
+    public void testByteBurst() {
+        ClientRateLimiter limiter = new ClientRateLimiter(0, 0, 1, 1000, 60000, 10);
+        assertEquals(0, limiter.acquire("a", 600));
+        assertTrue(limiter.acquire("a", 600) < 0);
+        assertEquals(0, limiter.acquire("a", 400));
+        assertTrue(limiter.acquire("a", 1) < 0);
+
+        // a request larger than the burst goes through a full bucket, then waits for the debt
+        assertEquals(0, limiter.acquire("b", 5000));
+        assertTrue(limiter.acquire("b", 1) < -3000L * 1000000000L);
+    }
+
+    @Test
+    public void testCharge() {
+        ClientRateLimiter limiter = new ClientRateLimiter(0, 0, 1, 1000, 60000, 10);
+        assertEquals(0, limiter.acquire("a", 0));
+        limiter.charge("a", 1000);
+        assertTrue(limiter.acquire("a", 1) < 0);
+    }
+
+    @Test
+    public void testMaxClients() {
+        ClientRateLimiter limiter = new ClientRateLimiter(1.0 / 3600, 1, 0, 0, 60000, 2);
+        assertEquals(0, limiter.acquire("a", 0));
+        assertEquals(0, limiter.acquire("b", 0));
+        assertEquals(2, limiter.clients());
+
+        // further clients share a single bucket
+        assertEquals(0, limiter.acquire("c", 0));
+        assertTrue(limiter.acquire("d", 0) > 0);
+        assertEquals(2, limiter.clients());
+    }
+}
@@ -0,0 +1,192 @@
+package com.keedio.flume.source.http.filter;
+
+import com.keedio.flume.source.http.KeedioHTTPSourceConfigurationConstants;
+import com.keedio.flume.source.http.RequestTooLargeException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.*;
+
+public class ContentDecodersTest {
+    private final ContentDecoders decoders = ContentDecoders.defaults();
+
+    @Test
+    public void testIdentity() {
+        assertNull(decoders.forEncoding(null));
+        assertNull(decoders.forEncoding("identity"));
+        assertNull(decoders.forEncoding(" "));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupported() {
+        decoders.forEncoding("gzip, br");
+    }
+
+    @Test
+    public void testMultiMemberGzip() throws IOException {
+        byte[] body = concat(gzip(bytes("{\"a\":1}")), gzip(bytes("{\"a\":2}")), gzip(bytes("{\"a\":3}")));
+        assertEquals("{\"a\":1}{\"a\":2}{\"a\":3}", decode("GZIP", trickle(body)));
+        assertEquals("{\"a\":1}{\"a\":2}{\"a\":3}", decode("x-gzip", new ByteArrayInputStream(body)));
+    }
+
+    @Test
+    public void testTrailingBytes() throws IOException {
+        // zero padded up to a block size, as some writers do
+        byte[] body = concat(gzip(bytes("{\"a\":1}")), gzip(bytes("{\"a\":2}")), new byte[512]);
+        assertEquals("{\"a\":1}{\"a\":2}", decode("gzip", trickle(body)));
+        assertEquals("{\"a\":1}{\"a\":2}", decode("gzip", new ByteArrayInputStream(body)));
+        // too short to hold the magic number
+        assertEquals("{\"a\":1}", decode("gzip", new ByteArrayInputStream(concat(gzip(bytes("{\"a\":1}")),
+                new byte[1]))));
+    }
+
+    @Test(expected = ZipException.class)
+    public void testNotGzip() throws IOException {
+        decode("gzip", new ByteArrayInputStream(new byte[512]));
+    }
+
+    @Test
+    public void testDeflate() throws IOException {
+        String json = "{\"message\":\"" + new String(new char[10000]).replace('\0', 'x') + "\"}";
+        assertEquals(json, decode("deflate", trickle(deflate(bytes(json), false))));
+        assertEquals(json, decode("deflate", trickle(deflate(bytes(json), true))));
+        assertEquals("{\"a\":1}", decode("deflate", new ByteArrayInputStream(deflate(bytes("{\"a\":1}"), false))));
+        assertEquals("{\"a\":1}", decode("deflate", new ByteArrayInputStream(deflate(bytes("{\"a\":1}"), true))));
+    }
+
+    @Test
+    public void testStacked() throws IOException {
+        byte[] body = gzip(deflate(bytes("{\"a\":1}"), false));
+        assertEquals("{\"a\":1}", decode("deflate, identity, gzip", new ByteArrayInputStream(body)));
+    }
+
+    @Test(expected = ZipException.class)
+    public void testCorruptTrailer() throws IOException {
+        byte[] body = gzip(bytes("{\"a\":1}"));
+        body[body.length - 5]++;
+        decode("gzip", new ByteArrayInputStream(body));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        byte[] body = gzip(bytes("{\"a\":1}"));
+        byte[] truncated = new byte[body.length - 10];
+        System.arraycopy(body, 0, truncated, 0, truncated.length);
+        decode("gzip", new ByteArrayInputStream(truncated));
+    }
+
+    @Test
+    public void testMaxInflatedSize() throws IOException {
+        ContentDecoders limited = ContentDecoders.defaults(new ZipPool(1, 1024), 1000, 0);
+        byte[] body = gzip(new byte[2000]);
+        try {
+            decode(limited, "gzip", new ByteArrayInputStream(body));
+            fail();
+        } catch (RequestTooLargeException e) {
+            assertEquals(KeedioHTTPSourceConfigurationConstants.MAX_INFLATED_SIZE, e.getLimit());
+        }
+        assertEquals(1000, decode(limited, "gzip", new ByteArrayInputStream(gzip(new byte[1000]))).length());
+    }
+
+    @Test
+    public void testMaxInflateRatio() throws IOException {
+        ContentDecoders limited = ContentDecoders.defaults(new ZipPool(1, 1024), 0, 100);
+        try {
+            decode(limited, "deflate", new ByteArrayInputStream(deflate(new byte[4 * 1024 * 1024], true)));
+            fail();
+        } catch (RequestTooLargeException e) {
+            assertEquals(KeedioHTTPSourceConfigurationConstants.MAX_INFLATE_RATIO, e.getLimit());
+        }
+        // small bodies inflate as much as they like
+        assertEquals(100000, decode(limited, "gzip", new ByteArrayInputStream(gzip(new byte[100000]))).length());
+    }
+
+    @Test
+    public void testPooled() throws IOException {
+        ZipPool pool = new ZipPool(1, 1024);
+        Inflater inflater = pool.inflater(true);
+        byte[] buffer = pool.buffer();
+        pool.release(inflater, true);
+        pool.release(buffer);
+
+        ContentDecoders pooled = ContentDecoders.defaults(pool, 0, 0);
+        assertEquals("{\"a\":1}", decode(pooled, "gzip", new ByteArrayInputStream(gzip(bytes("{\"a\":1}")))));
+        // given back at the end of the body, reset
+        assertSame(inflater, pool.inflater(true));
+        assertSame(buffer, pool.buffer());
+        assertEquals(0, inflater.getBytesWritten());
+    }
+
+    private String decode(String encoding, InputStream in) throws IOException {
+        return decode(decoders, encoding, in);
+    }
+
+    private static String decode(ContentDecoders decoders, String encoding, InputStream in) throws IOException {
+        try (InputStream decoded = decoders.forEncoding(encoding).decode(in)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[100];
+            int n;
+            while ((n = decoded.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A body arriving a few bytes at a time, with nothing ever available right away.
+     */
+    private static InputStream trickle(byte[] body) {
+        return new FilterInputStream(new ByteArrayInputStream(body)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 7));
+            }
+
+            @Override
+            public int available() {
+                return 0;
+            }
+        };
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data, boolean raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION,
+                raw))) {
+            deflate.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+}
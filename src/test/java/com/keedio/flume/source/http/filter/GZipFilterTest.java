@@ -0,0 +1,59 @@
+package com.keedio.flume.source.http.filter;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class GZipFilterTest {
+
+    @Test
+    public void testFailedResponseReleased() throws Exception {
+        ZipPool pool = new ZipPool(1, 1024);
+        Deflater deflater = pool.deflater();
+        byte[] buffer = pool.buffer();
+        pool.release(deflater);
+        pool.release(buffer);
+
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                body.write(b);
+            }
+        });
+        FilterChain chain = mock(FilterChain.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws IOException {
+                ServletResponse wrapped = (ServletResponse) invocation.getArguments()[1];
+                wrapped.getOutputStream().write(new byte[]{'{', '}'});
+                throw new IllegalStateException("failed halfway");
+            }
+        }).when(chain).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+
+        new GZipFilter(ContentDecoders.defaults(pool, 0, 0), pool).doFilter(request, response, chain);
+
+        verify(response).sendError(eq(HttpServletResponse.SC_INTERNAL_SERVER_ERROR), anyString());
+        // given back without a trailer, reset
+        assertSame(deflater, pool.deflater());
+        assertSame(buffer, pool.buffer());
+        assertEquals(0, deflater.getBytesRead());
+        assertEquals(10, body.size());
+    }
+}
@@ -1,22 +1,46 @@
 package com.keedio.flume.source.http.json.handler;
 
 import com.google.common.base.Charsets;
+import com.keedio.flume.source.http.CommitListener;
+import com.keedio.flume.source.http.CompressedBody;
+import com.keedio.flume.source.http.EventBatchSink;
+import com.keedio.flume.source.http.KeedioHTTPSourceConfigurationConstants;
+import com.keedio.flume.source.http.RequestTooLargeException;
 import com.keedio.flume.source.http.json.handler.metrics.MetricsController;
 import com.keedio.flume.source.http.json.handler.metrics.MetricsEvent;
 import org.apache.commons.io.IOUtils;
+import org.apache.flume.Context;
 import org.apache.flume.Event;
+import org.apache.flume.source.http.HTTPBadRequestException;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.MappingIterator;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
 
+import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static com.keedio.flume.source.http.json.handler.metrics.MetricsEvent.EventType.*;
 import static org.junit.Assert.*;
@@ -32,11 +56,11 @@ public class KeedioJSONHandlerTest {
     private KeedioJSONHandler handler;
     private HttpServletRequest mockRequest;
 
-    private BufferedReader reader;
+    private InputStream input;
 
     @Before
     public void setup() throws IOException {
-        reader = new BufferedReader(new FileReader(SCHEMA_PATH + "/example-widget.json"));
+        input = new FileInputStream(SCHEMA_PATH + "/example-widget.json");
 
         handler = new KeedioJSONHandler();
         handler.metricsController = mock(MetricsController.class);
@@ -49,11 +73,11 @@ public class KeedioJSONHandlerTest {
 
     @After
     public void tearDown(){
-        IOUtils.closeQuietly(reader);
+        IOUtils.closeQuietly(input);
     }
 
     private void stubServletRequest()throws IOException{
-        when(mockRequest.getReader()).thenReturn(reader);
+        when(mockRequest.getInputStream()).thenReturn(new StubServletInputStream(input));
 
         Vector<String> httpHeaders = new Vector<>();
         httpHeaders.add("Accept-Encoding");
@@ -67,8 +91,8 @@ public class KeedioJSONHandlerTest {
     }
 
     @Test(expected = IllegalArgumentException.class)
-    public void testNullReader() throws IOException {
-        when(mockRequest.getReader()).thenReturn(null);
+    public void testNullInputStream() throws IOException {
+        when(mockRequest.getInputStream()).thenReturn(null);
 
         handler.getEvents(mockRequest);
 
@@ -76,8 +100,8 @@ public class KeedioJSONHandlerTest {
     }
 
     @Test(expected = IOException.class)
-    public void testInvalidReader() throws IOException {
-        when(mockRequest.getReader()).thenThrow(IOException.class);
+    public void testInvalidInputStream() throws IOException {
+        when(mockRequest.getInputStream()).thenThrow(IOException.class);
 
         handler.getEvents(mockRequest);
 
@@ -90,35 +114,29 @@ public class KeedioJSONHandlerTest {
 
         handler.getEvents(mockRequest);
 
-        ArgumentCaptor<MetricsEvent> captor =  ArgumentCaptor.forClass(MetricsEvent.class);
-
-        verify(handler.metricsController, times(1)).manage(captor.capture());
+        verify(handler.metricsController, times(1)).markJsonError();
         verifyNoMoreInteractions(handler.metricsController);
-        assertEquals(JSON_ERROR, captor.capture().getCode());
     }
 
     @Test(expected = RuntimeException.class)
     public void testInvalidJson() throws IOException {
-        reader = new BufferedReader(new FileReader(SCHEMA_PATH + "/example-widget-invalid.json"));
+        input = new FileInputStream(SCHEMA_PATH + "/example-widget-invalid.json");
 
-        assertNotNull(reader);
+        assertNotNull(input);
 
         stubServletRequest();
 
         handler.getEvents(mockRequest);
 
-        ArgumentCaptor<MetricsEvent> captor =  ArgumentCaptor.forClass(MetricsEvent.class);
-
-        verify(handler.metricsController, times(1)).manage(captor.capture());
+        verify(handler.metricsController, times(1)).markJsonError();
         verifyNoMoreInteractions(handler.metricsController);
-        assertEquals(JSON_ERROR, captor.capture().getCode());
     }
 
     @Test
     public void testSingleJson() throws IOException {
-        reader = new BufferedReader(new FileReader(SCHEMA_PATH + "/example-widget.json"));
+        input = new FileInputStream(SCHEMA_PATH + "/example-widget.json");
 
-        assertNotNull(reader);
+        assertNotNull(input);
 
         stubServletRequest();
 
@@ -134,30 +152,14 @@ public class KeedioJSONHandlerTest {
         assertEquals("gzip, deflate",event.getHeaders().get("Accept-Encoding"));
         assertEquals("Mozilla/5.0",event.getHeaders().get("User-Agent"));
 
-        ArgumentCaptor<MetricsEvent> captor =  ArgumentCaptor.forClass(MetricsEvent.class);
-        verify(handler.metricsController, times(5)).manage(captor.capture());
-
-        for (MetricsEvent e: captor.getAllValues()){
-            assertTrue(e.getCode() == JSON_ARRIVED || e.getCode() == PARSE_OK || e.getCode() == EVENT_GENERATION
-                    || e.getCode() == EVENT_SIZE || e.getCode() == NJSONS_ARRIVED);
-
-            if (e.getCode() == EVENT_GENERATION || e.getCode() == PARSE_OK){
-                assertNotNull(e.getValue());
-                assertTrue(e.getValue() > 0);
-            }
-
-            if (e.getCode() == NJSONS_ARRIVED){
-                assertNotNull(e.getValue());
-                assertEquals(e.getValue(), 1);
-            }
-        }
+        assertRecorded(1);
     }
 
     @Test
     public void testMultipleJson() throws IOException {
-        reader = new BufferedReader(new FileReader(SCHEMA_PATH + "/example-widget-multiple.json"));
+        input = new FileInputStream(SCHEMA_PATH + "/example-widget-multiple.json");
 
-        assertNotNull(reader);
+        assertNotNull(input);
 
         stubServletRequest();
 
@@ -174,23 +176,944 @@ public class KeedioJSONHandlerTest {
             assertEquals("Mozilla/5.0",event.getHeaders().get("User-Agent"));
         }
 
-        ArgumentCaptor<MetricsEvent> captor =  ArgumentCaptor.forClass(MetricsEvent.class);
-        verify(handler.metricsController, times(7)).manage(captor.capture());
+        assertRecorded(2);
+    }
+
+    @Test
+    public void testStreamingModeSingleJson() throws IOException {
+        assertSameBodies(SCHEMA_PATH + "/example-widget.json", ParseMode.STREAMING, 1);
+    }
+
+    @Test
+    public void testStreamingModeMultipleJson() throws IOException {
+        assertSameBodies(SCHEMA_PATH + "/example-widget-multiple.json", ParseMode.STREAMING, 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void testStreamingModeInvalidJson() throws IOException {
+        handler.configure(parseModeContext(ParseMode.STREAMING));
+
+        input = new FileInputStream(SCHEMA_PATH + "/example-widget-invalid.json");
+        stubServletRequest();
+
+        try {
+            handler.getEvents(mockRequest);
+        } finally {
+            verify(handler.metricsController, atLeastOnce()).markJsonError();
+        }
+    }
+
+    @Test
+    public void testPassthroughModeSingleJson() throws IOException {
+        handler.configure(parseModeContext(ParseMode.PASSTHROUGH));
+
+        List<Event> result = handler.getEvents(mockRequest);
+        assertEquals(1, result.size());
+
+        String original = new String(Files.readAllBytes(Paths.get(SCHEMA_PATH, "example-widget.json")),
+                Charsets.UTF_8).trim();
+        assertEquals(original, new String(result.get(0).getBody(), Charsets.UTF_8));
+        assertEquals(3, result.get(0).getHeaders().size());
+
+        assertRecorded(1);
+        verify(handler.metricsController).recordEventSize(result.get(0).getBody().length);
+    }
+
+    @Test
+    public void testPassthroughModeStripWhitespace() throws IOException {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(KeedioJSONHandlerConfigurationConstants.PARSE_MODE, "passthrough");
+        properties.put(KeedioJSONHandlerConfigurationConstants.STRIP_WHITESPACE, "true");
+        handler.configure(new Context(properties));
+
+        input = new FileInputStream(SCHEMA_PATH + "/example-widget-multiple.json");
+        stubServletRequest();
+
+        List<Event> result = handler.getEvents(mockRequest);
+        assertEquals(2, result.size());
+
+        ObjectMapper mapper = new ObjectMapper();
+        for (Event event : result) {
+            String body = new String(event.getBody(), Charsets.UTF_8);
+            assertFalse(body.contains("\n"));
+            assertFalse(body.contains("\t"));
+            assertTrue(body.contains("\"Ethernet 1\""));
+            assertEquals("CAISSA\\Josevi", mapper.readTree(body).get("User").getTextValue());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testPassthroughModeInvalidJson() throws IOException {
+        handler.configure(parseModeContext(ParseMode.PASSTHROUGH));
+
+        input = new FileInputStream(SCHEMA_PATH + "/example-widget-invalid.json");
+        stubServletRequest();
+
+        handler.getEvents(mockRequest);
+    }
+
+    @Test
+    public void testUtf16WithBomInput() throws IOException {
+        assertSameBodiesForEncoding("UTF-16", ParseMode.TREE);
+        assertSameBodiesForEncoding("UTF-16", ParseMode.STREAMING);
+        assertSameBodiesForEncoding("UTF-16", ParseMode.PASSTHROUGH);
+    }
+
+    @Test
+    public void testUtf32WithoutBomInput() throws IOException {
+        assertSameBodiesForEncoding("UTF-32LE", ParseMode.TREE);
+        assertSameBodiesForEncoding("UTF-32LE", ParseMode.STREAMING);
+        assertSameBodiesForEncoding("UTF-32LE", ParseMode.PASSTHROUGH);
+    }
+
+    @Test
+    public void testExcludePaths() throws IOException {
+        for (ParseMode mode : new ParseMode[]{ParseMode.TREE, ParseMode.STREAMING}) {
+            handler.metricsController = mock(MetricsController.class);
+            handler.configure(projectionContext(mode, null, "ComputerName, Data[*].Properties.Proxy"));
+
+            input = new FileInputStream(SCHEMA_PATH + "/example-widget-multiple.json");
+            stubServletRequest();
+            List<Event> result = handler.getEvents(mockRequest);
+            assertEquals(2, result.size());
+
+            ObjectMapper mapper = new ObjectMapper();
+            for (Event event : result) {
+                JsonNode json = mapper.readTree(event.getBody());
+                assertFalse(json.has("ComputerName"));
+                assertTrue(json.has("Domain"));
+                for (JsonNode sample : json.get("Data")) {
+                    assertFalse(sample.get("Properties").has("Proxy"));
+                    assertTrue(sample.get("Properties").has("CPU"));
+                }
+            }
+
+            ArgumentCaptor<Long> captor = ArgumentCaptor.forClass(Long.class);
+            verify(handler.metricsController).markDroppedBytes(captor.capture());
+            long dropped = captor.getValue();
+            // every dropped field runs up to the next token, the separating comma and whitespace included
+            assertTrue("Dropped " + dropped, dropped > 2 * "\"ComputerName\": \"CAISSA\",".length());
+        }
+    }
+
+    @Test
+    public void testIncludePaths() throws IOException {
+        handler.configure(projectionContext(ParseMode.STREAMING,
+                "MachineId, Data[*].Properties.*.Value, Data[*].UserMood", "Data[*].Properties.Proxy"));
+
+        List<Event> result = handler.getEvents(mockRequest);
+
+        String body = new String(result.get(0).getBody(), Charsets.UTF_8);
+        assertTrue(body, body.startsWith("{\"Data\":[{\"Properties\":{\"CPU\":{\"Value\":23},"));
+        assertTrue(body, body.endsWith("\"MachineId\":\"dcfd2e53-f75c-4c9b-85bd-e320edcffb29\"}"));
+        assertTrue(body, body.contains("\"UserMood\":\"KO\""));
+        assertFalse(body, body.contains("Proxy"));
+        assertFalse(body, body.contains("\"Average\""));
+        assertFalse(body, body.contains("SampleDate"));
+
+        handler.configure(projectionContext(ParseMode.TREE,
+                "MachineId, Data[*].Properties.*.Value, Data[*].UserMood", "Data[*].Properties.Proxy"));
+        input = new FileInputStream(SCHEMA_PATH + "/example-widget.json");
+        stubServletRequest();
+        assertEquals(body, new String(handler.getEvents(mockRequest).get(0).getBody(), Charsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidProjectionPath() {
+        handler.configure(projectionContext(ParseMode.STREAMING, "Data[0].Properties", null));
+    }
+
+    @Test
+    public void testHeaderPaths() throws IOException {
+        for (ParseMode mode : ParseMode.values()) {
+            Context context = projectionContext(mode, null, "MachineId");
+            context.put(KeedioJSONHandlerConfigurationConstants.HEADER_PATHS + ".machine", "MachineId");
+            context.put(KeedioJSONHandlerConfigurationConstants.HEADER_PATHS + ".mood", "Data[*].UserMood");
+            context.put(KeedioJSONHandlerConfigurationConstants.HEADER_PATHS + ".cpu", "Data[*].Properties.CPU.Value");
+            context.put(KeedioJSONHandlerConfigurationConstants.HEADER_PATHS + ".missing", "Data[*].Nothing");
+            handler.configure(context);
+
+            input = new FileInputStream(SCHEMA_PATH + "/example-widget-multiple.json");
+            stubServletRequest();
+            List<Event> result = handler.getEvents(mockRequest);
+            assertEquals(2, result.size());
+
+            String[] machines = {"dcfd2e53-f75c-4c9b-85bd-e320edcffb29", "ecfd2e53-f75c-4c9b-85bd-e320edcffb29"};
+            for (int i = 0; i < result.size(); i++) {
+                Map<String, String> headers = result.get(i).getHeaders();
+                assertEquals(mode.name(), machines[i], headers.get("machine"));
+                // the first sample has a null mood, which is not captured
+                assertEquals(mode.name(), "KO", headers.get("mood"));
+                assertEquals(mode.name(), "23", headers.get("cpu"));
+                assertFalse(mode.name(), headers.containsKey("missing"));
+                assertEquals(mode.name(), "Mozilla/5.0", headers.get("User-Agent"));
+            }
+        }
+    }
+
+    @Test
+    public void testRootArray() throws IOException {
+        String json = new String(Files.readAllBytes(Paths.get(SCHEMA_PATH, "example-widget.json")),
+                Charsets.UTF_8).trim();
+
+        for (ParseMode mode : ParseMode.values()) {
+            handler.configure(parseModeContext(mode));
+
+            input = new ByteArrayInputStream((json + "\n" + json).getBytes(Charsets.UTF_8));
+            stubServletRequest();
+            List<Event> expected = handler.getEvents(mockRequest);
+
+            input = new ByteArrayInputStream(("[" + json + ",\n" + json + "]").getBytes(Charsets.UTF_8));
+            stubServletRequest();
+            List<Event> result = handler.getEvents(mockRequest);
+
+            assertEquals(mode.name(), 2, result.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertArrayEquals(mode.name(), expected.get(i).getBody(), result.get(i).getBody());
+            }
+        }
+    }
+
+    @Test
+    public void testNdjson() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        String json = mapper.writeValueAsString(mapper.readTree(new File(SCHEMA_PATH, "example-widget.json")));
+        String ndjson = json + "\r\n\n  " + json + "  \n[" + json + "," + json + "]";
+
+        for (ParseMode mode : ParseMode.values()) {
+            handler.configure(parseModeContext(mode));
+
+            input = new ByteArrayInputStream(json.getBytes(Charsets.UTF_8));
+            stubServletRequest();
+            byte[] expected = handler.getEvents(mockRequest).get(0).getBody();
+
+            input = new ByteArrayInputStream(ndjson.getBytes(Charsets.UTF_8));
+            stubServletRequest();
+            when(mockRequest.getContentType()).thenReturn("application/x-ndjson; charset=utf-8");
+            List<Event> result = handler.getEvents(mockRequest);
+
+            assertEquals(mode.name(), 4, result.size());
+            for (Event event : result) {
+                assertArrayEquals(mode.name(), expected, event.getBody());
+            }
+        }
+    }
+
+    @Test
+    public void testNdjsonSkipInvalidLines() throws IOException {
+        String ndjson = "{\"a\": 1}\n{\"a\": \n{\"a\": 3}\n[{\"a\": 4}, {\"a\": ]\n";
+
+        for (ParseMode mode : ParseMode.values()) {
+            Context context = parseModeContext(mode);
+            context.put(KeedioJSONHandlerConfigurationConstants.SKIP_INVALID_LINES, "true");
+            handler.configure(context);
+            handler.metricsController = mock(MetricsController.class);
+
+            input = new ByteArrayInputStream(ndjson.getBytes(Charsets.UTF_8));
+            stubServletRequest();
+            when(mockRequest.getContentType()).thenReturn("application/x-ndjson");
+            List<Event> result = handler.getEvents(mockRequest);
+
+            assertEquals(mode.name(), 2, result.size());
+            assertTrue(mode.name(), new String(result.get(0).getBody(), Charsets.UTF_8).contains("1"));
+            assertTrue(mode.name(), new String(result.get(1).getBody(), Charsets.UTF_8).contains("3"));
+            verify(handler.metricsController, times(2)).markJsonError();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNdjsonInvalidLine() throws IOException {
+        handler.configure(parseModeContext(ParseMode.STREAMING));
+
+        input = new ByteArrayInputStream("{\"a\": 1}\n{\"a\": \n".getBytes(Charsets.UTF_8));
+        stubServletRequest();
+        when(mockRequest.getContentType()).thenReturn("application/x-ndjson");
+        handler.getEvents(mockRequest);
+    }
+
+    @Test
+    public void testPooledBuffersAreReused() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        StringBuilder json = new StringBuilder();
+        StringBuilder ndjson = new StringBuilder();
+        MappingIterator<JsonNode> nodes = mapper.reader(JsonNode.class)
+                .readValues(new File(SCHEMA_PATH, "example-widget-multiple.json"));
+        while (nodes.hasNext()) {
+            JsonNode node = nodes.next();
+            json.append(json.length() == 0 ? "[" : ",").append(mapper.writeValueAsString(node));
+            ndjson.append(mapper.writeValueAsString(node)).append('\n');
+        }
+        json.append(']');
+
+        Context context = parseModeContext(ParseMode.PASSTHROUGH);
+        context.put(KeedioJSONHandlerConfigurationConstants.BUFFER_POOL_SIZE, "1");
+        context.put(KeedioJSONHandlerConfigurationConstants.BUFFER_SIZE, "16");
+        handler.configure(context);
+
+        List<Event> expected = null;
+        for (int i = 0; i < 3; i++) {
+            input = new ByteArrayInputStream(json.toString().getBytes(Charsets.UTF_8));
+            stubServletRequest();
+            List<Event> result = handler.getEvents(mockRequest);
+
+            input = new ByteArrayInputStream(ndjson.toString().getBytes(Charsets.UTF_8));
+            stubServletRequest();
+            when(mockRequest.getContentType()).thenReturn("application/x-ndjson");
+            List<Event> ndjsonResult = handler.getEvents(mockRequest);
+
+            if (expected == null) {
+                expected = result;
+            }
+            assertEquals(expected.size(), result.size());
+            assertEquals(expected.size(), ndjsonResult.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertArrayEquals(expected.get(j).getBody(), result.get(j).getBody());
+                assertArrayEquals(expected.get(j).getBody(), ndjsonResult.get(j).getBody());
+            }
+        }
+    }
+
+    @Test
+    public void testMeasureAllocations() throws IOException {
+        Context context = parseModeContext(ParseMode.STREAMING);
+        context.put(KeedioJSONHandlerConfigurationConstants.MEASURE_ALLOCATIONS, "true");
+        handler.configure(context);
+
+        handler.getEvents(mockRequest);
+
+        verify(handler.metricsController, times(1)).recordAllocatedBytesPerEvent(anyLong());
+    }
+
+    @Test
+    public void testInternCache() throws IOException {
+        byte[] json = Files.readAllBytes(Paths.get(SCHEMA_PATH, "example-widget-multiple.json"));
+
+        handler.configure(parseModeContext(ParseMode.TREE));
+        input = new ByteArrayInputStream(json);
+        stubServletRequest();
+        List<Event> expected = handler.getEvents(mockRequest);
+
+        Context context = parseModeContext(ParseMode.TREE);
+        context.put(KeedioJSONHandlerConfigurationConstants.INTERN_CACHE_SIZE, "256");
+        context.put(KeedioJSONHandlerConfigurationConstants.HEADER_PATHS + ".domain", "Domain");
+        handler.configure(context);
+        handler.metricsController = mock(MetricsController.class);
+
+        List<Event> first = null;
+        for (int i = 0; i < 2; i++) {
+            input = new ByteArrayInputStream(json);
+            stubServletRequest();
+            List<Event> result = handler.getEvents(mockRequest);
+
+            assertEquals(expected.size(), result.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertArrayEquals(expected.get(j).getBody(), result.get(j).getBody());
+            }
+            if (first == null) {
+                first = result;
+            } else {
+                // the same value read by another request is the very same instance
+                assertSame(first.get(0).getHeaders().get("domain"), result.get(0).getHeaders().get("domain"));
+            }
+        }
+
+        ArgumentCaptor<Long> hits = ArgumentCaptor.forClass(Long.class);
+        ArgumentCaptor<Long> misses = ArgumentCaptor.forClass(Long.class);
+        verify(handler.metricsController, times(2)).countInterning(hits.capture(), misses.capture(), anyLong());
+        assertTrue(hits.getAllValues().get(0) + hits.getAllValues().get(1)
+                > misses.getAllValues().get(0) + misses.getAllValues().get(1));
+    }
+
+    @Test
+    public void testHttpHeaderFilter() throws IOException {
+        Context context = parseModeContext(ParseMode.PASSTHROUGH);
+        context.put(KeedioJSONHandlerConfigurationConstants.ALLOWED_HEADERS, "accept, User-Agent");
+        context.put(KeedioJSONHandlerConfigurationConstants.DENIED_HEADERS, "ACCEPT");
+        context.put(KeedioJSONHandlerConfigurationConstants.RENAME_HEADERS + ".user-agent", "agent");
+        handler.configure(context);
+
+        input = new FileInputStream(SCHEMA_PATH + "/example-widget-multiple.json");
+        stubServletRequest();
+        List<Event> result = handler.getEvents(mockRequest);
+
+        assertEquals(2, result.size());
+        for (Event event : result) {
+            assertEquals(Collections.singletonMap("agent", "Mozilla/5.0"), event.getHeaders());
+        }
+
+        // events share the request headers, but writing to those of one event leaves the others alone
+        result.get(0).getHeaders().put("timestamp", "1431527039750");
+        result.get(1).getHeaders().remove("agent");
+        assertEquals(2, result.get(0).getHeaders().size());
+        assertEquals("Mozilla/5.0", result.get(0).getHeaders().get("agent"));
+        assertTrue(result.get(1).getHeaders().isEmpty());
+    }
+
+    @Test
+    public void testSubBatches() throws IOException {
+        byte[] json = Files.readAllBytes(Paths.get(SCHEMA_PATH, "example-widget-multiple.json"));
+
+        for (ParseMode mode : ParseMode.values()) {
+            handler.configure(parseModeContext(mode));
+            input = new ByteArrayInputStream(json);
+            stubServletRequest();
+            List<Event> expected = handler.getEvents(mockRequest);
+
+            Context context = parseModeContext(mode);
+            context.put(KeedioJSONHandlerConfigurationConstants.BATCH_SIZE, "1");
+            handler.configure(context);
+            EventBatchSink sink = mock(EventBatchSink.class);
+            when(mockRequest.getAttribute(EventBatchSink.REQUEST_ATTRIBUTE)).thenReturn(sink);
+            input = new ByteArrayInputStream(json);
+            stubServletRequest();
+            List<Event> result = handler.getEvents(mockRequest);
+
+            ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+            verify(sink, times(2)).process(captor.capture());
+            assertTrue(mode.name(), result.isEmpty());
+            for (int i = 0; i < expected.size(); i++) {
+                List<Event> batch = captor.getAllValues().get(i);
+                assertEquals(mode.name(), 1, batch.size());
+                assertArrayEquals(mode.name(), expected.get(i).getBody(), batch.get(0).getBody());
+            }
+        }
+    }
+
+    @Test
+    public void testSubBatchesBeforeInvalidJson() throws IOException {
+        Context context = parseModeContext(ParseMode.STREAMING);
+        context.put(KeedioJSONHandlerConfigurationConstants.BATCH_SIZE, "2");
+        handler.configure(context);
+        EventBatchSink sink = mock(EventBatchSink.class);
+        when(mockRequest.getAttribute(EventBatchSink.REQUEST_ATTRIBUTE)).thenReturn(sink);
+
+        input = new ByteArrayInputStream("[{\"a\": 1}, {\"a\": 2}, {\"a\": 3}, {\"a\": ]".getBytes(Charsets.UTF_8));
+        stubServletRequest();
+        try {
+            handler.getEvents(mockRequest);
+            fail();
+        } catch (IOException e) {
+            // the first sub-batch is already in the channel, the rest of the request is lost
+            verify(sink, times(1)).process(argThat(new ArgumentMatcher<List<Event>>() {
+                @Override
+                public boolean matches(Object argument) {
+                    return ((List) argument).size() == 2;
+                }
+            }));
+        }
+    }
+
+    @Test
+    public void testMaxContentLength() throws IOException {
+        Context context = parseModeContext(ParseMode.STREAMING);
+        context.put(KeedioJSONHandlerConfigurationConstants.MAX_CONTENT_LENGTH, "1024");
+        handler.configure(context);
+        when(mockRequest.getContentLength()).thenReturn(1025);
+        int available = input.available();
+
+        assertRejected(CONTENT_LENGTH_REJECTED);
+        assertEquals(available, input.available());
+    }
+
+    @Test
+    public void testMaxBodySize() throws IOException {
+        for (ParseMode mode : ParseMode.values()) {
+            Context context = parseModeContext(mode);
+            context.put(KeedioJSONHandlerConfigurationConstants.MAX_BODY_SIZE, "1024");
+            handler.configure(context);
+            input = new FileInputStream(SCHEMA_PATH + "/example-widget.json");
+            stubServletRequest();
+
+            assertRejected(BODY_SIZE_REJECTED);
+        }
+    }
+
+    @Test
+    public void testInflateLimits() throws IOException {
+        handler.configure(parseModeContext(ParseMode.STREAMING));
+        String[] limits = {KeedioHTTPSourceConfigurationConstants.MAX_INFLATED_SIZE,
+                KeedioHTTPSourceConfigurationConstants.MAX_INFLATE_RATIO};
+        MetricsEvent.EventType[] reasons = {INFLATED_SIZE_REJECTED, INFLATE_RATIO_REJECTED};
+        for (int i = 0; i < limits.length; i++) {
+            // as the inflating stream of the filter throws it
+            final RequestTooLargeException rejection = new RequestTooLargeException("Inflated too much", limits[i]);
+            input = new SequenceInputStream(new ByteArrayInputStream("{\"a\": 1}".getBytes(Charsets.UTF_8)),
+                    new InputStream() {
+                        @Override
+                        public int read() throws IOException {
+                            throw rejection;
+                        }
+                    });
+            stubServletRequest();
+            assertRejected(reasons[i]);
+        }
+    }
+
+    @Test
+    public void testMaxObjects() throws IOException {
+        for (ParseMode mode : ParseMode.values()) {
+            Context context = parseModeContext(mode);
+            context.put(KeedioJSONHandlerConfigurationConstants.MAX_OBJECTS, "2");
+            handler.configure(context);
+
+            input = new ByteArrayInputStream("[{\"a\": 1}, {\"a\": 2}]".getBytes(Charsets.UTF_8));
+            stubServletRequest();
+            assertEquals(mode.name(), 2, handler.getEvents(mockRequest).size());
+
+            input = new ByteArrayInputStream("[{\"a\": 1}, {\"a\": 2}, {\"a\": 3}]".getBytes(Charsets.UTF_8));
+            stubServletRequest();
+            assertRejected(OBJECT_COUNT_REJECTED);
+        }
+    }
+
+    @Test
+    public void testMaxDepth() throws IOException {
+        String[] requests = {"[{\"a\": {\"b\": {\"c\": 1}}}]", "{\"a\": [1, [2, {\"b\": 3}]]}",
+                "{\"a\": 1}\n{\"a\": {\"b\": [[1]]}}"};
+        for (ParseMode mode : ParseMode.values()) {
+            Context context = parseModeContext(mode);
+            context.put(KeedioJSONHandlerConfigurationConstants.MAX_DEPTH, "3");
+            // dropped fields are checked too
+            context.put(KeedioJSONHandlerConfigurationConstants.EXCLUDE_PATHS, "a");
+            context.put(KeedioJSONHandlerConfigurationConstants.SKIP_INVALID_LINES, "true");
+            handler.configure(context);
+
+            input = new ByteArrayInputStream("[{\"a\": {\"b\": 1}}]".getBytes(Charsets.UTF_8));
+            stubServletRequest();
+            assertEquals(mode.name(), 1, handler.getEvents(mockRequest).size());
+
+            for (String request : requests) {
+                input = new ByteArrayInputStream(request.getBytes(Charsets.UTF_8));
+                stubServletRequest();
+                when(mockRequest.getContentType()).thenReturn(request.contains("\n") ? "application/x-ndjson" : null);
+                assertRejected(DEPTH_REJECTED);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelParsing() throws IOException {
+        String json = new String(Files.readAllBytes(Paths.get(SCHEMA_PATH, "example-widget.json")),
+                Charsets.UTF_8).trim();
+        StringBuilder concatenated = new StringBuilder();
+        StringBuilder array = new StringBuilder("[");
+        for (int i = 0; i < 200; i++) {
+            concatenated.append(json.replace("Josevi", "Josevi " + i)).append("\n");
+            array.append(i > 0 ? ",\n" : "").append(json.replace("Josevi", "Josevi " + i));
+        }
+        String[] requests = {concatenated.toString(), array.append("]").toString()};
+
+        for (ParseMode mode : ParseMode.values()) {
+            for (String request : requests) {
+                byte[] bytes = request.getBytes(Charsets.UTF_8);
+                Context context = parseModeContext(mode);
+                context.put("headerPaths.machine", "MachineId");
+                handler.configure(context);
+                input = new ByteArrayInputStream(bytes);
+                stubServletRequest();
+                List<Event> expected = handler.getEvents(mockRequest);
+
+                context.put(KeedioJSONHandlerConfigurationConstants.PARALLEL_THRESHOLD, "1");
+                context.put(KeedioJSONHandlerConfigurationConstants.PARALLEL_SEGMENT_SIZE, "4096");
+                handler.configure(context);
+                input = new ByteArrayInputStream(bytes);
+                stubServletRequest();
+                when(mockRequest.getContentLength()).thenReturn(bytes.length);
+                List<Event> result = handler.getEvents(mockRequest);
+
+                assertEquals(mode.name(), 200, result.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertArrayEquals(mode.name(), expected.get(i).getBody(), result.get(i).getBody());
+                    assertEquals(mode.name(), expected.get(i).getHeaders(), result.get(i).getHeaders());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelParsingInvalidJson() throws IOException {
+        StringBuilder request = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            request.append(i == 700 ? "{\"a\": }" : "{\"a\": " + i + "}");
+        }
+        byte[] bytes = request.toString().getBytes(Charsets.UTF_8);
+
+        for (ParseMode mode : ParseMode.values()) {
+            Context context = parseModeContext(mode);
+            handler.configure(context);
+            Exception expected = failure(bytes);
+
+            context.put(KeedioJSONHandlerConfigurationConstants.PARALLEL_THRESHOLD, "1");
+            context.put(KeedioJSONHandlerConfigurationConstants.PARALLEL_SEGMENT_SIZE, "512");
+            handler.configure(context);
+            Exception result = failure(bytes);
+
+            // the request fails as if it was read sequentially, the parser source aside
+            assertEquals(mode.name(), expected.getClass(), result.getClass());
+            assertEquals(mode.name(), expected.getMessage().split("\n")[0], result.getMessage().split("\n")[0]);
+        }
+    }
+
+    private Exception failure(byte[] request) throws IOException {
+        input = new ByteArrayInputStream(request);
+        stubServletRequest();
+        when(mockRequest.getContentLength()).thenReturn(request.length);
+        try {
+            handler.getEvents(mockRequest);
+        } catch (IOException | RuntimeException e) {
+            return e;
+        }
+        fail();
+        return null;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParallelParsingWithSubBatches() {
+        // the request would be held whole in memory, defeating the sub-batches
+        Context context = parseModeContext(ParseMode.STREAMING);
+        context.put(KeedioJSONHandlerConfigurationConstants.BATCH_SIZE, "100");
+        context.put(KeedioJSONHandlerConfigurationConstants.PARALLEL_THRESHOLD, "1");
+        handler.configure(context);
+    }
+
+    @Test
+    public void testDeduplication() throws IOException {
+        byte[] json = Files.readAllBytes(Paths.get(SCHEMA_PATH, "example-widget-multiple.json"));
+        Context context = parseModeContext(ParseMode.PASSTHROUGH);
+        context.put(KeedioJSONHandlerConfigurationConstants.DEDUP_CAPACITY, "1000");
+        context.put(KeedioJSONHandlerConfigurationConstants.HASH_HEADER, "hash");
+        handler.configure(context);
+
+        input = new ByteArrayInputStream(json);
+        stubServletRequest();
+        List<Event> first = handler.getEvents(mockRequest);
+        assertEquals(2, first.size());
+        assertEquals(16, first.get(0).getHeaders().get("hash").length());
+        assertNotEquals(first.get(0).getHeaders().get("hash"), first.get(1).getHeaders().get("hash"));
+
+        // a retry of a request that was not committed goes through
+        input = new ByteArrayInputStream(json);
+        stubServletRequest();
+        List<Event> retry = handler.getEvents(mockRequest);
+        assertEquals(2, retry.size());
+        assertEquals(first.get(1).getHeaders(), retry.get(1).getHeaders());
+
+        ArgumentCaptor<CommitListener> listener = ArgumentCaptor.forClass(CommitListener.class);
+        verify(mockRequest, times(2)).setAttribute(eq(CommitListener.REQUEST_ATTRIBUTE), listener.capture());
+        listener.getValue().committed();
+
+        handler.metricsController = mock(MetricsController.class);
+        input = new ByteArrayInputStream(json);
+        stubServletRequest();
+        assertTrue(handler.getEvents(mockRequest).isEmpty());
+        verify(handler.metricsController).countDuplicates(eq(2L), eq(0L), anyLong());
+    }
+
+    @Test
+    public void testDeduplicationByIdempotencyKey() throws IOException {
+        Context context = parseModeContext(ParseMode.STREAMING);
+        context.put(KeedioJSONHandlerConfigurationConstants.DEDUP_CAPACITY, "1000");
+        context.put(KeedioJSONHandlerConfigurationConstants.IDEMPOTENCY_HEADER, "X-Request-Id");
+        context.put(KeedioJSONHandlerConfigurationConstants.BATCH_SIZE, "1");
+        handler.configure(context);
+        EventBatchSink sink = mock(EventBatchSink.class);
+        when(mockRequest.getAttribute(EventBatchSink.REQUEST_ATTRIBUTE)).thenReturn(sink);
+
+        // events delivered in sub-batches are known once the sink takes them, whatever happens to the request
+        input = new ByteArrayInputStream("{\"a\": 1}{\"a\": 2}{\"a\": ".getBytes(Charsets.UTF_8));
+        stubServletRequest();
+        when(mockRequest.getHeader("X-Request-Id")).thenReturn("42");
+        try {
+            handler.getEvents(mockRequest);
+            fail();
+        } catch (IOException e) {
+            verify(sink, times(2)).process(anyList());
+        }
+
+        // the events are identified by the key and their position, not by their body
+        input = new ByteArrayInputStream("{\"a\": 1}{\"b\": 2}{\"a\": 3}".getBytes(Charsets.UTF_8));
+        stubServletRequest();
+        when(mockRequest.getHeader("X-Request-Id")).thenReturn("42");
+        handler.getEvents(mockRequest);
+        ArgumentCaptor<List> batches = ArgumentCaptor.forClass(List.class);
+        verify(sink, times(3)).process(batches.capture());
+        assertEquals("{\"a\":3}", new String(((Event) batches.getValue().get(0)).getBody(), Charsets.UTF_8));
+
+        input = new ByteArrayInputStream("{\"a\": 1}".getBytes(Charsets.UTF_8));
+        stubServletRequest();
+        when(mockRequest.getHeader("X-Request-Id")).thenReturn("43");
+        handler.getEvents(mockRequest);
+        verify(sink, times(4)).process(anyList());
+    }
+
+    @Test
+    public void testCoalescing() throws IOException {
+        Context context = parseModeContext(ParseMode.PASSTHROUGH);
+        context.put(KeedioJSONHandlerConfigurationConstants.COALESCE_MAX_EVENTS, "3");
+        context.put(KeedioJSONHandlerConfigurationConstants.COALESCE_MAX_BYTES, "40");
+        context.put(KeedioJSONHandlerConfigurationConstants.HEADER_PATHS + ".type", "t");
+        handler.configure(context);
+
+        // envelopes close at 3 jsons, at 40 bytes, and when the captured headers change
+        input = new ByteArrayInputStream(("{\"a\":1}{\"a\":2}{\"a\":3}{\"a\":4}{\"bbbbbbbbbbbbbbbbbbbbbbbbbb\":5}"
+                + "{\"a\":6}{\"a\":7,\"t\":\"x\"}{\"a\":8,\"t\":\"x\"}").getBytes(Charsets.UTF_8));
+        stubServletRequest();
+        List<Event> events = handler.getEvents(mockRequest);
+
+        String[] bodies = {"[{\"a\":1},{\"a\":2},{\"a\":3}]", "[{\"a\":4}]", "[{\"bbbbbbbbbbbbbbbbbbbbbbbbbb\":5}]",
+                "[{\"a\":6}]", "[{\"a\":7,\"t\":\"x\"},{\"a\":8,\"t\":\"x\"}]"};
+        String[] counts = {"3", "1", "1", "1", "2"};
+        assertEquals(bodies.length, events.size());
+        for (int i = 0; i < bodies.length; i++) {
+            assertEquals(bodies[i], new String(events.get(i).getBody(), Charsets.UTF_8));
+            assertEquals(counts[i], events.get(i).getHeaders().get("jsonCount"));
+            assertEquals("Mozilla/5.0", events.get(i).getHeaders().get("User-Agent"));
+        }
+        assertNull(events.get(0).getHeaders().get("type"));
+        assertEquals("x", events.get(4).getHeaders().get("type"));
+        verify(handler.metricsController).recordJsonsPerRequest(8);
+    }
+
+    @Test
+    public void testCoalescingLengthPrefixed() throws IOException {
+        Context context = parseModeContext(ParseMode.STREAMING);
+        context.put(KeedioJSONHandlerConfigurationConstants.COALESCE_MAX_EVENTS, "2");
+        context.put(KeedioJSONHandlerConfigurationConstants.COALESCE_FORMAT, "lengthPrefixed");
+        context.put(KeedioJSONHandlerConfigurationConstants.COALESCE_COUNT_HEADER, "n");
+        context.put(KeedioJSONHandlerConfigurationConstants.BATCH_SIZE, "1");
+        context.put(KeedioJSONHandlerConfigurationConstants.DEDUP_CAPACITY, "1000");
+        handler.configure(context);
+        EventBatchSink sink = mock(EventBatchSink.class);
+        when(mockRequest.getAttribute(EventBatchSink.REQUEST_ATTRIBUTE)).thenReturn(sink);
+
+        input = new ByteArrayInputStream("{\"a\": 1}{\"a\": 2}{\"a\": 3}".getBytes(Charsets.UTF_8));
+        stubServletRequest();
+        List<Event> last = handler.getEvents(mockRequest);
+
+        ArgumentCaptor<List> batches = ArgumentCaptor.forClass(List.class);
+        verify(sink).process(batches.capture());
+        Event envelope = (Event) batches.getValue().get(0);
+        assertEquals("2", envelope.getHeaders().get("n"));
+        assertArrayEquals(new byte[]{0, 0, 0, 7, '{', '"', 'a', '"', ':', '1', '}', 0, 0, 0, 7, '{', '"', 'a', '"',
+                ':', '2', '}'}, envelope.getBody());
+        assertEquals(1, last.size());
+        assertEquals("1", last.get(0).getHeaders().get("n"));
+        assertEquals(11, last.get(0).getBody().length);
 
-        for (MetricsEvent e: captor.getAllValues()){
-            assertTrue(e.getCode() == JSON_ARRIVED || e.getCode() == PARSE_OK || e.getCode() == EVENT_GENERATION
-                    || e.getCode() == EVENT_SIZE || e.getCode() == NJSONS_ARRIVED);
+        // the jsons of the delivered envelope are known to the duplicate filter, the pending one is not
+        input = new ByteArrayInputStream("{\"a\": 1}{\"a\": 2}{\"a\": 3}".getBytes(Charsets.UTF_8));
+        stubServletRequest();
+        last = handler.getEvents(mockRequest);
+        verify(sink).process(anyList());
+        assertEquals(1, last.size());
+        assertEquals("1", last.get(0).getHeaders().get("n"));
+    }
 
-            if (e.getCode() == EVENT_GENERATION || e.getCode() == PARSE_OK){
-                assertNotNull(e.getValue());
-                assertTrue(e.getValue() > 0);
+    @Test
+    public void testCompressedPassthrough() throws IOException {
+        Context context = parseModeContext(ParseMode.STREAMING);
+        context.put(KeedioJSONHandlerConfigurationConstants.COMPRESSED_VALIDATION_RATE, "1");
+        handler.configure(context);
+        when(mockRequest.getAttribute(CompressedBody.REQUEST_ATTRIBUTE)).thenReturn(gzipBody());
+
+        byte[] json = Files.readAllBytes(Paths.get(SCHEMA_PATH, "example-widget-multiple.json"));
+        byte[] gzipped = gzip(json);
+        input = new ByteArrayInputStream(gzipped);
+        stubServletRequest();
+        when(mockRequest.getContentLength()).thenReturn(gzipped.length);
+        List<Event> events = handler.getEvents(mockRequest);
+
+        assertEquals(1, events.size());
+        assertArrayEquals(gzipped, events.get(0).getBody());
+        assertEquals("gzip", events.get(0).getHeaders().get("contentEncoding"));
+        assertEquals(String.valueOf(json.length), events.get(0).getHeaders().get("uncompressedLength"));
+        assertEquals("Mozilla/5.0", events.get(0).getHeaders().get("User-Agent"));
+
+        // without a Content-Length, and failing validation
+        gzipped = gzip("{\"a\": 1}{\"a\"".getBytes(Charsets.UTF_8));
+        input = new ByteArrayInputStream(gzipped);
+        stubServletRequest();
+        when(mockRequest.getContentLength()).thenReturn(-1);
+        try {
+            handler.getEvents(mockRequest);
+            fail();
+        } catch (HTTPBadRequestException e) {
+            // expected
+        }
+
+        // kept as sent when not validated
+        context.put(KeedioJSONHandlerConfigurationConstants.COMPRESSED_VALIDATION_RATE, "0");
+        handler.configure(context);
+        input = new ByteArrayInputStream(gzipped);
+        stubServletRequest();
+        events = handler.getEvents(mockRequest);
+        assertArrayEquals(gzipped, events.get(0).getBody());
+        assertNull(events.get(0).getHeaders().get("uncompressedLength"));
+    }
+
+    @Test
+    public void testCompressedPassthroughContentLength() throws IOException {
+        Context context = parseModeContext(ParseMode.STREAMING);
+        context.put(KeedioJSONHandlerConfigurationConstants.MAX_BODY_SIZE, "1024");
+        handler.configure(context);
+        when(mockRequest.getAttribute(CompressedBody.REQUEST_ATTRIBUTE)).thenReturn(gzipBody());
+
+        // a claimed length over the limit is rejected before reading anything
+        byte[] gzipped = gzip("{\"a\": 1}".getBytes(Charsets.UTF_8));
+        input = new ByteArrayInputStream(gzipped);
+        stubServletRequest();
+        when(mockRequest.getContentLength()).thenReturn(1025);
+        assertRejected(BODY_SIZE_REJECTED);
+        assertEquals(gzipped.length, input.available());
+
+        // a claimed length within the limit but longer than the body sent
+        handler.configure(parseModeContext(ParseMode.STREAMING));
+        input = new ByteArrayInputStream(gzipped);
+        stubServletRequest();
+        when(mockRequest.getContentLength()).thenReturn(Integer.MAX_VALUE - 1);
+        try {
+            handler.getEvents(mockRequest);
+            fail();
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    private static CompressedBody gzipBody() {
+        return new CompressedBody() {
+            @Override
+            public String getEncoding() {
+                return "gzip";
             }
 
-            if (e.getCode() == NJSONS_ARRIVED){
-                assertNotNull(e.getValue());
-                assertEquals(e.getValue(), 2);
+            @Override
+            public InputStream decode(InputStream compressed) throws IOException {
+                return new GZIPInputStream(compressed);
             }
+        };
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
         }
+        return out.toByteArray();
     }
 
+    /**
+     * Checks a request read as the given number of jsons records every metric once per request, and the parse time
+     * and size once per json.
+     */
+    private void assertRecorded(int jsons) {
+        ArgumentCaptor<Long> parseNanos = ArgumentCaptor.forClass(Long.class);
+        ArgumentCaptor<Long> generationNanos = ArgumentCaptor.forClass(Long.class);
+        verify(handler.metricsController).markJsonArrived();
+        verify(handler.metricsController, times(jsons)).recordParseNanos(parseNanos.capture());
+        verify(handler.metricsController, times(jsons)).recordEventSize(anyLong());
+        verify(handler.metricsController).recordEventGenerationNanos(generationNanos.capture());
+        verify(handler.metricsController).recordJsonsPerRequest(jsons);
+        verifyNoMoreInteractions(handler.metricsController);
+        for (long nanos : parseNanos.getAllValues()) {
+            assertTrue(nanos > 0);
+        }
+        assertTrue(generationNanos.getValue() > 0);
+    }
+
+    /**
+     * Checks the request is rejected as too large, counting the given reason.
+     */
+    private void assertRejected(MetricsEvent.EventType reason) throws IOException {
+        handler.metricsController = mock(MetricsController.class);
+        try {
+            handler.getEvents(mockRequest);
+            fail(reason.name());
+        } catch (RequestTooLargeException e) {
+            verify(handler.metricsController, times(1)).countRejection(reason);
+            verify(mockRequest).setAttribute(RequestTooLargeException.REQUEST_ATTRIBUTE, e);
+        }
+    }
+
+    /**
+     * Checks a request encoded with the given charset produces the same bodies as its UTF-8 version.
+     */
+    private void assertSameBodiesForEncoding(String charset, ParseMode mode) throws IOException {
+        String json = new String(Files.readAllBytes(Paths.get(SCHEMA_PATH, "example-widget-multiple.json")),
+                Charsets.UTF_8).replace("Josevi", "Jos\u00e9 Vicente");
+
+        handler.configure(parseModeContext(mode));
+
+        input = new ByteArrayInputStream(json.getBytes(Charsets.UTF_8));
+        stubServletRequest();
+        List<Event> expected = handler.getEvents(mockRequest);
+
+        input = new ByteArrayInputStream(json.getBytes(charset));
+        stubServletRequest();
+        List<Event> result = handler.getEvents(mockRequest);
+
+        assertEquals(2, result.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i).getBody(), result.get(i).getBody());
+        }
+    }
+
+    /**
+     * Checks the given mode produces exactly the same event bodies as the default tree mode.
+     */
+    private void assertSameBodies(String path, ParseMode mode, int expectedEvents) throws IOException {
+        input = new FileInputStream(path);
+        stubServletRequest();
+        List<Event> expected = handler.getEvents(mockRequest);
+
+        handler.configure(parseModeContext(mode));
+        input = new FileInputStream(path);
+        stubServletRequest();
+        List<Event> result = handler.getEvents(mockRequest);
+
+        assertEquals(expectedEvents, expected.size());
+        assertEquals(expected.size(), result.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(new String(expected.get(i).getBody(), Charsets.UTF_8),
+                    new String(result.get(i).getBody(), Charsets.UTF_8));
+            assertArrayEquals(expected.get(i).getBody(), result.get(i).getBody());
+            assertEquals(expected.get(i).getHeaders(), result.get(i).getHeaders());
+        }
+    }
+
+    private Context projectionContext(ParseMode mode, String includePaths, String excludePaths) {
+        Context context = parseModeContext(mode);
+        if (includePaths != null) {
+            context.put(KeedioJSONHandlerConfigurationConstants.INCLUDE_PATHS, includePaths);
+        }
+        if (excludePaths != null) {
+            context.put(KeedioJSONHandlerConfigurationConstants.EXCLUDE_PATHS, excludePaths);
+        }
+        return context;
+    }
+
+    private Context parseModeContext(ParseMode mode) {
+        return new Context(new HashMap<>(Collections.singletonMap(KeedioJSONHandlerConfigurationConstants.PARSE_MODE,
+                mode.name().toLowerCase())));
+    }
+
+    /**
+     * Servlet input stream reading from the given stream.
+     */
+    private static class StubServletInputStream extends ServletInputStream {
+        private final InputStream in;
+
+        StubServletInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, len);
+        }
+    }
 }
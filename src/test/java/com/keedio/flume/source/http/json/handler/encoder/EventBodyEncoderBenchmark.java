@@ -0,0 +1,79 @@
+package com.keedio.flume.source.http.json.handler.encoder;
+
+import org.apache.flume.Context;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * <p>
+ * Throughput of every built-in encoder over the sample payloads in <code>src/test/resources/schema</code>.
+ * Not a unit test, run it from the project root with the test classpath:
+ * </p>
+ * <pre>
+ *     java -cp target/test-classes:target/classes:&lt;dependencies&gt; \
+ *         com.keedio.flume.source.http.json.handler.encoder.EventBodyEncoderBenchmark [seconds]
+ * </pre>
+ */
+public class EventBodyEncoderBenchmark {
+    private static final String SCHEMA_PATH = "src/test/resources/schema";
+    private static final String[] PAYLOADS = {"example-widget.json", "example-widget-multiple.json"};
+    private static final String[] ENCODERS = {"json4s", "json", "json+shape", "smile", "avro"};
+
+    public static void main(String[] args) throws IOException {
+        long millis = (args.length > 0 ? Long.parseLong(args[0]) : 5) * 1000;
+        JsonFactory jsonFactory = new JsonFactory();
+
+        System.out.println(String.format("%-30s %-10s %12s %12s %12s", "payload", "encoder", "jsons/s", "MB/s in",
+                "body bytes"));
+
+        for (String payload : PAYLOADS) {
+            byte[] input = Files.readAllBytes(Paths.get(SCHEMA_PATH, payload));
+
+            for (String name : ENCODERS) {
+                Context context = new Context();
+                context.put(AvroEventBodyEncoder.SCHEMA_FILE, SCHEMA_PATH + "/example-widget.avsc");
+                if (name.endsWith("+shape")) {
+                    context.put(JsonEventBodyEncoder.SHAPE_FILE, SCHEMA_PATH + "/example-widget.json");
+                }
+                EventBodyEncoder encoder = EventBodyEncoderFactory.getInstance(name.replace("+shape", ""),
+                        context);
+
+                run(jsonFactory, encoder, input, millis / 5);
+                long t0 = System.nanoTime();
+                long[] result = run(jsonFactory, encoder, input, millis);
+                double seconds = (System.nanoTime() - t0) / 1e9;
+
+                System.out.println(String.format("%-30s %-10s %12.0f %12.1f %12d", payload, name,
+                        result[0] / seconds, result[2] * (double) input.length / seconds / (1 << 20),
+                        result[1] / result[0]));
+            }
+        }
+    }
+
+    /**
+     * Encodes the input over and over for the given time.
+     *
+     * @return encoded jsons, total body bytes and number of passes over the input.
+     */
+    private static long[] run(JsonFactory jsonFactory, EventBodyEncoder encoder, byte[] input, long millis)
+            throws IOException {
+        long jsons = 0;
+        long bytes = 0;
+        long passes = 0;
+        long end = System.currentTimeMillis() + millis;
+
+        while (System.currentTimeMillis() < end) {
+            JsonParser parser = jsonFactory.createJsonParser(input);
+            while (parser.nextToken() != null) {
+                bytes += encoder.encode(parser).length;
+                jsons++;
+            }
+            passes++;
+        }
+        return new long[]{jsons, bytes, passes};
+    }
+}
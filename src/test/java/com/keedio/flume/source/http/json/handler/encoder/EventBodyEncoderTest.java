@@ -0,0 +1,258 @@
+package com.keedio.flume.source.http.json.handler.encoder;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.flume.Context;
+import org.apache.flume.FlumeException;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.JsonMappingException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.smile.SmileFactory;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class EventBodyEncoderTest {
+    private static final String SCHEMA_PATH = "src/test/resources/schema";
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testJsonMatchesJson4s() throws IOException {
+        EventBodyEncoder json = EventBodyEncoderFactory.getInstance("json", new Context());
+        EventBodyEncoder json4s = EventBodyEncoderFactory.getInstance("JSON4S", new Context());
+
+        JsonParser jsonParser = parser("example-widget-multiple.json");
+        JsonParser json4sParser = parser("example-widget-multiple.json");
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals(json4s.encode(json4sParser), json.encode(jsonParser));
+            jsonParser.nextToken();
+            json4sParser.nextToken();
+        }
+        assertNull(jsonParser.getCurrentToken());
+        assertNull(json4sParser.getCurrentToken());
+        assertTrue(json.getHeaders().isEmpty());
+    }
+
+    @Test
+    public void testJsonMatchesJson4sOnRepeatedNamesAndSurrogates() throws IOException {
+        EventBodyEncoder json = EventBodyEncoderFactory.getInstance("json", new Context());
+        EventBodyEncoder json4s = EventBodyEncoderFactory.getInstance("json4s", new Context());
+
+        // nested repeated names keep the place of the first and the value of the last, as in the tree path
+        String text = "{\"b\": {\"k\": 1, \"z\": [{\"a\": 1, \"c\": 2, \"a\": {\"q\": 1, \"q\": 2}}], "
+                + "\"k\": {\"m\": \"\\ud83d\\ude00\"}}, \"\\ud83d\\ude00\": {\"\\ud83d\\ude00\": \"\\u00e9\"}, "
+                + "\"a\": [1, {\"c\": 1, \"c\": 3}]}";
+        JsonParser jsonParser = jsonFactory.createJsonParser(text);
+        JsonParser json4sParser = jsonFactory.createJsonParser(text);
+        jsonParser.nextToken();
+        json4sParser.nextToken();
+
+        byte[] body = json.encode(jsonParser);
+        assertArrayEquals(json4s.encode(json4sParser), body);
+        assertEquals("{\"a\":[1,{\"c\":3}],\"b\":{\"k\":{\"m\":\"\ud83d\ude00\"},\"z\":[{\"a\":{\"q\":2},\"c\":2}]},"
+                + "\"\ud83d\ude00\":{\"\ud83d\ude00\":\"\u00e9\"}}", new String(body, "UTF-8"));
+    }
+
+    @Test
+    public void testJsonEscapesLoneSurrogates() throws IOException {
+        EventBodyEncoder json = EventBodyEncoderFactory.getInstance("json", new Context());
+        JsonParser parser = jsonFactory.createJsonParser("{\"a\": \"x\\ud83d\", \"b\": {\"c\": \"\\ude00\"}}");
+        parser.nextToken();
+
+        assertEquals("{\"a\":\"x\\uD83D\",\"b\":{\"c\":\"\\uDE00\"}}", new String(json.encode(parser), "UTF-8"));
+    }
+
+    @Test
+    public void testShapeFromSampleMatchesJson4s() throws IOException {
+        assertShapeMatchesJson4s(SCHEMA_PATH + "/example-widget.json");
+    }
+
+    @Test
+    public void testShapeFromSchemaMatchesJson4s() throws IOException {
+        assertShapeMatchesJson4s(SCHEMA_PATH + "/example-widget.schema.json");
+    }
+
+    @Test
+    public void testShapeFallsBackOnUnexpectedJsons() throws IOException {
+        Context context = new Context();
+        context.put(JsonEventBodyEncoder.SHAPE_FILE, SCHEMA_PATH + "/example-widget.json");
+        EventBodyEncoder compiled = EventBodyEncoderFactory.getInstance("json", context);
+        EventBodyEncoder json4s = EventBodyEncoderFactory.getInstance("json4s", new Context());
+
+        String json = "{\"Zone\": \"a\\tb\\u0001\\\"\", \"User\": -0, \"Data\": {\"x\": [1.50, true, null]},"
+                + " \"AAA\": \"\\u00e9\\u20ac\\ud83d\\ude00\", \"MachineId\": [{\"a\": 1e3}], \"User\": 7}";
+        JsonParser compiledParser = jsonFactory.createJsonParser(json);
+        JsonParser json4sParser = jsonFactory.createJsonParser(json);
+        compiledParser.nextToken();
+        json4sParser.nextToken();
+
+        assertArrayEquals(json4s.encode(json4sParser), compiled.encode(compiledParser));
+    }
+
+    @Test
+    public void testShapeMatchesJson4sOnRepeatedNamesAndOutOfRangeNumbers() throws IOException {
+        Context context = new Context();
+        context.put(JsonEventBodyEncoder.SHAPE_FILE, SCHEMA_PATH + "/example-widget.json");
+        EventBodyEncoder compiled = EventBodyEncoderFactory.getInstance("json", context);
+        EventBodyEncoder json4s = EventBodyEncoderFactory.getInstance("json4s", new Context());
+
+        String json = "{\"Data\": [{\"Properties\": {\"CPU\": {\"Value\": 1e400, \"Max\": 2, \"Value\": -1e400},"
+                + " \"x\": {\"y\": 1, \"z\": 2, \"y\": {\"y\": 3, \"y\": 4}}}, \"SampleDate\": \"d\"}],"
+                + " \"User\": 1e400}";
+        JsonParser compiledParser = jsonFactory.createJsonParser(json);
+        JsonParser json4sParser = jsonFactory.createJsonParser(json);
+        compiledParser.nextToken();
+        json4sParser.nextToken();
+
+        byte[] body = compiled.encode(compiledParser);
+        assertArrayEquals(json4s.encode(json4sParser), body);
+        assertEquals("{\"Data\":[{\"Properties\":{\"CPU\":{\"Value\":\"-Infinity\",\"Max\":2},"
+                + "\"x\":{\"y\":{\"y\":4},\"z\":2}},\"SampleDate\":\"d\"}],\"User\":\"Infinity\"}",
+                new String(body, "UTF-8"));
+    }
+
+    @Test(expected = FlumeException.class)
+    public void testMissingShapeFile() {
+        Context context = new Context();
+        context.put(JsonEventBodyEncoder.SHAPE_FILE, SCHEMA_PATH + "/no-such-shape.json");
+        EventBodyEncoderFactory.getInstance("json", context);
+    }
+
+    @Test
+    public void testSmileRoundTrip() throws IOException {
+        EventBodyEncoder smile = EventBodyEncoderFactory.getInstance("smile", new Context());
+
+        byte[] body = smile.encode(parser("example-widget.json"));
+
+        JsonNode expected = mapper.readTree(new File(SCHEMA_PATH, "example-widget.json"));
+        assertEquals(expected, new ObjectMapper(new SmileFactory()).readTree(body));
+        assertEquals(SmileEventBodyEncoder.CONTENT_TYPE, smile.getHeaders().get("Content-Type"));
+    }
+
+    @Test
+    public void testAvroRoundTrip() throws IOException {
+        EventBodyEncoder avro = EventBodyEncoderFactory.getInstance("avro", avroContext());
+
+        byte[] body = avro.encode(parser("example-widget.json"));
+
+        Schema schema = new Schema.Parser().parse(avro.getHeaders().get(AvroEventBodyEncoder.SCHEMA_LITERAL_HEADER));
+        GenericRecord record = new GenericDatumReader<GenericRecord>(schema).read(null,
+                DecoderFactory.get().binaryDecoder(body, null));
+
+        assertEquals("dcfd2e53-f75c-4c9b-85bd-e320edcffb29", record.get("MachineId").toString());
+        assertEquals(16384L, record.get("InstalledRam"));
+
+        List<?> data = (List<?>) record.get("Data");
+        assertEquals(2, data.size());
+
+        GenericRecord sample = (GenericRecord) data.get(1);
+        assertEquals("KO", sample.get("UserMood").toString());
+
+        Map<?, ?> properties = (Map<?, ?>) sample.get("Properties");
+        GenericRecord cpu = null;
+        GenericRecord diskRead = null;
+        for (Map.Entry<?, ?> property : properties.entrySet()) {
+            if ("CPU".equals(property.getKey().toString())) {
+                cpu = (GenericRecord) property.getValue();
+            } else if ("DiskReadLatency".equals(property.getKey().toString())) {
+                diskRead = (GenericRecord) property.getValue();
+            }
+        }
+        assertNotNull(cpu);
+        assertNotNull(diskRead);
+        assertEquals(23L, cpu.get("Value"));
+        assertEquals(2789.23, diskRead.get("Value"));
+        assertNull(cpu.get("Array"));
+
+        assertTrue(body.length < new File(SCHEMA_PATH, "example-widget.json").length() / 2);
+    }
+
+    @Test
+    public void testAvroSchemaUrlHeader() {
+        Context context = avroContext();
+        context.put(AvroEventBodyEncoder.SCHEMA_URL, "hdfs://namenode/schemas/widget.avsc");
+
+        EventBodyEncoder avro = EventBodyEncoderFactory.getInstance("avro", context);
+
+        assertEquals(Collections.singletonMap(AvroEventBodyEncoder.SCHEMA_URL_HEADER,
+                "hdfs://namenode/schemas/widget.avsc"), avro.getHeaders());
+    }
+
+    @Test(expected = JsonMappingException.class)
+    public void testAvroRejectsMismatchingJson() throws IOException {
+        EventBodyEncoder avro = EventBodyEncoderFactory.getInstance("avro", avroContext());
+
+        JsonParser parser = jsonFactory.createJsonParser("{\"MachineId\": 5}");
+        parser.nextToken();
+        avro.encode(parser);
+    }
+
+    @Test
+    public void testAvroRejectsMissingRequiredField() throws IOException {
+        EventBodyEncoder avro = EventBodyEncoderFactory.getInstance("avro", avroContext());
+
+        // SentOn has no default value
+        JsonParser parser = jsonFactory.createJsonParser("{\"MachineId\": \"x\"}");
+        parser.nextToken();
+        try {
+            avro.encode(parser);
+            fail();
+        } catch (JsonMappingException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Missing field "));
+        }
+    }
+
+    @Test
+    public void testCustomEncoderClass() {
+        EventBodyEncoder encoder = EventBodyEncoderFactory.getInstance(SmileEventBodyEncoder.class.getName(),
+                new Context());
+        assertTrue(encoder instanceof SmileEventBodyEncoder);
+    }
+
+    @Test(expected = FlumeException.class)
+    public void testUnknownEncoder() {
+        EventBodyEncoderFactory.getInstance("com.example.NoSuchEncoder", new Context());
+    }
+
+    private void assertShapeMatchesJson4s(String shapeFile) throws IOException {
+        Context context = new Context();
+        context.put(JsonEventBodyEncoder.SHAPE_FILE, shapeFile);
+        EventBodyEncoder compiled = EventBodyEncoderFactory.getInstance("json", context);
+        EventBodyEncoder json4s = EventBodyEncoderFactory.getInstance("json4s", new Context());
+
+        JsonParser compiledParser = parser("example-widget-multiple.json");
+        JsonParser json4sParser = parser("example-widget-multiple.json");
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals(json4s.encode(json4sParser), compiled.encode(compiledParser));
+            compiledParser.nextToken();
+            json4sParser.nextToken();
+        }
+        assertNull(compiledParser.getCurrentToken());
+    }
+
+    private Context avroContext() {
+        Context context = new Context();
+        context.put(AvroEventBodyEncoder.SCHEMA_FILE, SCHEMA_PATH + "/example-widget.avsc");
+        return context;
+    }
+
+    private JsonParser parser(String file) throws IOException {
+        JsonParser parser = jsonFactory.createJsonParser(new File(SCHEMA_PATH, file));
+        assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+        return parser;
+    }
+}
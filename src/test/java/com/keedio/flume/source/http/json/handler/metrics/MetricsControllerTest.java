@@ -1,5 +1,7 @@
 package com.keedio.flume.source.http.json.handler.metrics;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
@@ -27,6 +29,22 @@ public class MetricsControllerTest {
         controller.jsonError = mock(Meter.class);
         controller.requestParseTime = mock(Timer.class);
         controller.eventGenerationTime = mock(Timer.class);
+        controller.droppedBytes = mock(Meter.class);
+        controller.allocatedBytesPerEvent = mock(Histogram.class);
+        controller.internHits = mock(Counter.class);
+        controller.internMisses = mock(Counter.class);
+        controller.internEvictions = mock(Counter.class);
+        controller.contentLengthRejections = mock(Counter.class);
+        controller.bodySizeRejections = mock(Counter.class);
+        controller.objectCountRejections = mock(Counter.class);
+        controller.depthRejections = mock(Counter.class);
+        controller.dedupHits = mock(Counter.class);
+        controller.dedupMisses = mock(Counter.class);
+        controller.dedupFalsePositivePpm = mock(Histogram.class);
+        controller.requestRateRejections = mock(Counter.class);
+        controller.byteRateRejections = mock(Counter.class);
+        controller.inflatedSizeRejections = mock(Counter.class);
+        controller.inflateRatioRejections = mock(Counter.class);
     }
 
     @Test
@@ -67,6 +85,102 @@ public class MetricsControllerTest {
         assertEquals(processTime, valueCaptor.getValue());
     }
 
+    @Test
+    public void testBytesDroppedEvent(){
+        MetricsEvent event = new MetricsEvent(BYTES_DROPPED, 1234);
+        controller.manage(event);
+        verify(controller.droppedBytes, times(1)).mark(1234);
+    }
+
+    @Test
+    public void testBytesAllocatedEvent(){
+        MetricsEvent event = new MetricsEvent(BYTES_ALLOCATED, 4096);
+        controller.manage(event);
+        verify(controller.allocatedBytesPerEvent, times(1)).update(4096L);
+    }
+
+    @Test
+    public void testInternEvents(){
+        controller.manage(new MetricsEvent(INTERN_HIT, 10));
+        controller.manage(new MetricsEvent(INTERN_MISS, 3));
+        controller.manage(new MetricsEvent(INTERN_EVICTION, 1));
+        verify(controller.internHits, times(1)).inc(10);
+        verify(controller.internMisses, times(1)).inc(3);
+        verify(controller.internEvictions, times(1)).inc(1);
+    }
+
+    @Test
+    public void testRejectionEvents(){
+        controller.manage(new MetricsEvent(CONTENT_LENGTH_REJECTED));
+        controller.manage(new MetricsEvent(BODY_SIZE_REJECTED));
+        controller.manage(new MetricsEvent(OBJECT_COUNT_REJECTED));
+        controller.manage(new MetricsEvent(DEPTH_REJECTED));
+        controller.manage(new MetricsEvent(INFLATED_SIZE_REJECTED));
+        controller.manage(new MetricsEvent(INFLATE_RATIO_REJECTED));
+        verify(controller.contentLengthRejections, times(1)).inc();
+        verify(controller.bodySizeRejections, times(1)).inc();
+        verify(controller.objectCountRejections, times(1)).inc();
+        verify(controller.depthRejections, times(1)).inc();
+        verify(controller.inflatedSizeRejections, times(1)).inc();
+        verify(controller.inflateRatioRejections, times(1)).inc();
+    }
+
+    @Test
+    public void testDedupEvents(){
+        controller.manage(new MetricsEvent(DEDUP_HIT, 2));
+        controller.manage(new MetricsEvent(DEDUP_MISS, 5));
+        controller.manage(new MetricsEvent(DEDUP_FALSE_POSITIVE, 100));
+        verify(controller.dedupHits, times(1)).inc(2);
+        verify(controller.dedupMisses, times(1)).inc(5);
+        verify(controller.dedupFalsePositivePpm, times(1)).update(100L);
+    }
+
+    @Test
+    public void testRateLimitEvents(){
+        controller.manage(new MetricsEvent(REQUEST_RATE_REJECTED));
+        controller.manage(new MetricsEvent(BYTE_RATE_REJECTED));
+        controller.manage(new MetricsEvent(BYTE_RATE_REJECTED));
+        verify(controller.requestRateRejections, times(1)).inc();
+        verify(controller.byteRateRejections, times(2)).inc();
+    }
+
+    @Test
+    public void testRecorders(){
+        controller.eventSize = mock(Histogram.class);
+        controller.jsonsPerRequest = mock(Histogram.class);
+
+        controller.markJsonArrived();
+        controller.markJsonError();
+        controller.recordParseNanos(234);
+        controller.recordEventGenerationNanos(911);
+        controller.recordEventSize(50);
+        controller.recordJsonsPerRequest(3);
+        controller.markDroppedBytes(1234);
+        controller.recordAllocatedBytesPerEvent(4096);
+        controller.countInterning(10, 3, 1);
+        controller.countDuplicates(2, 5, 100);
+        controller.countRejection(DEPTH_REJECTED);
+        controller.countRejection(BYTE_RATE_REJECTED);
+
+        verify(controller.receivedJsons).mark();
+        verify(controller.jsonError).mark();
+        verify(controller.requestParseTime).update(234, TimeUnit.NANOSECONDS);
+        verify(controller.eventGenerationTime).update(911, TimeUnit.NANOSECONDS);
+        verify(controller.eventSize).update(50L);
+        verify(controller.jsonsPerRequest).update(3L);
+        verify(controller.droppedBytes).mark(1234);
+        verify(controller.allocatedBytesPerEvent).update(4096L);
+        verify(controller.internHits).inc(10);
+        verify(controller.internMisses).inc(3);
+        verify(controller.internEvictions).inc(1);
+        verify(controller.dedupHits).inc(2);
+        verify(controller.dedupMisses).inc(5);
+        verify(controller.dedupFalsePositivePpm).update(100L);
+        verify(controller.depthRejections).inc();
+        verify(controller.byteRateRejections).inc();
+        verifyZeroInteractions(controller.contentLengthRejections, controller.requestRateRejections);
+    }
+
     @Test
     public void testInvalidEventType(){
         MetricsEvent event = new MetricsEvent(UNKNOWN);
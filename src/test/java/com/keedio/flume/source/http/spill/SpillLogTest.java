@@ -0,0 +1,112 @@
+package com.keedio.flume.source.http.spill;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpillLogTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDrainInOrder() throws IOException {
+        SpillLog log = new SpillLog(folder.getRoot(), 4 * SEGMENT_SIZE, SEGMENT_SIZE);
+        assertTrue(log.isEmpty());
+        assertNull(log.peek());
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(log.append(batch(i, 3)));
+        }
+        assertFalse(log.isEmpty());
+        assertTrue(log.diskBytes() > SEGMENT_SIZE);
+
+        for (int i = 0; i < 100; i++) {
+            List<Event> events = log.peek();
+            assertBatch(i, 3, events);
+            assertBatch(i, 3, log.peek());
+            log.remove();
+        }
+        assertNull(log.peek());
+        assertTrue(log.isEmpty());
+        assertEquals(0, log.pendingBytes());
+        assertEquals("drained segments are deleted", 1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testFull() throws IOException {
+        SpillLog log = new SpillLog(folder.getRoot(), 2 * SEGMENT_SIZE, SEGMENT_SIZE);
+        int appended = 0;
+        while (log.append(batch(appended, 3))) {
+            appended++;
+        }
+        assertTrue(appended > 0);
+        assertEquals(2 * SEGMENT_SIZE, log.diskBytes());
+
+        log.peek();
+        log.remove();
+        assertFalse("a segment is only freed once drained", log.append(batch(0, 3)));
+
+        byte[] large = new byte[SEGMENT_SIZE];
+        SpillLog other = new SpillLog(folder.newFolder(), 2 * SEGMENT_SIZE, SEGMENT_SIZE);
+        assertFalse(other.append(Collections.singletonList(EventBuilder.withBody(large))));
+        assertTrue(other.isEmpty());
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        File dir = folder.getRoot();
+        SpillLog log = new SpillLog(dir, 4 * SEGMENT_SIZE, SEGMENT_SIZE);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(log.append(batch(i, 2)));
+        }
+        for (int i = 0; i < 20; i++) {
+            log.peek();
+            log.remove();
+        }
+        long pending = log.pendingBytes();
+        log.close();
+
+        SpillLog reopened = new SpillLog(dir, 4 * SEGMENT_SIZE, SEGMENT_SIZE);
+        assertEquals(pending, reopened.pendingBytes());
+        assertTrue(reopened.append(batch(50, 2)));
+        for (int i = 20; i <= 50; i++) {
+            assertBatch(i, 2, reopened.peek());
+            reopened.remove();
+        }
+        assertNull(reopened.peek());
+    }
+
+    private static List<Event> batch(int index, int size) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Event event = EventBuilder.withBody(("{\"batch\":" + index + ",\"event\":" + i + "}")
+                    .getBytes(StandardCharsets.UTF_8));
+            event.getHeaders().put("batch", String.valueOf(index));
+            events.add(event);
+        }
+        return events;
+    }
+
+    private static void assertBatch(int index, int size, List<Event> events) {
+        assertNotNull(events);
+        assertEquals(size, events.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals("{\"batch\":" + index + ",\"event\":" + i + "}",
+                    new String(events.get(i).getBody(), StandardCharsets.UTF_8));
+            assertEquals(String.valueOf(index), events.get(i).getHeaders().get("batch"));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.keedio.flume.source.http.spill;
+
+import org.apache.flume.ChannelException;
+import org.apache.flume.Event;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SpillingChannelProcessorTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDropsBatchFailingForOtherReasons() throws IOException, InterruptedException {
+        ChannelProcessor delegate = mock(ChannelProcessor.class);
+        final AtomicInteger badAttempts = new AtomicInteger();
+        final AtomicInteger goodBatches = new AtomicInteger();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                List<?> events = (List<?>) invocation.getArguments()[0];
+                String body = new String(((Event) events.get(0)).getBody(), StandardCharsets.UTF_8);
+                if (body.equals("bad")) {
+                    // refused by the channel the first time, an interceptor throwing on every replay
+                    if (badAttempts.getAndIncrement() == 0) {
+                        throw new ChannelException("full");
+                    }
+                    throw new IllegalStateException("interceptor failure");
+                }
+                goodBatches.incrementAndGet();
+                return null;
+            }
+        }).when(delegate).processEventBatch(anyListOf(Event.class));
+
+        SpillLog log = new SpillLog(folder.getRoot(), 4 * SEGMENT_SIZE, SEGMENT_SIZE);
+        SpillingChannelProcessor processor = new SpillingChannelProcessor(delegate, log, "test");
+        List<Event> bad = batch("bad");
+        List<Event> good = batch("good");
+        processor.processEventBatch(bad);
+        processor.processEventBatch(good);
+        assertFalse(log.isEmpty());
+
+        processor.start();
+        try {
+            // the batch behind the bad one is drained once the bad one is dropped
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!log.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, goodBatches.get());
+            assertEquals(1 + SpillingChannelProcessor.MAX_FAILURES, badAttempts.get());
+            assertTrue(log.isEmpty());
+
+            // and the channel is written directly again
+            processor.processEventBatch(good);
+            verify(delegate).processEventBatch(good);
+            assertEquals(2, goodBatches.get());
+            assertTrue(log.isEmpty());
+        } finally {
+            processor.stop();
+        }
+    }
+
+    private static List<Event> batch(String body) {
+        return Collections.singletonList(EventBuilder.withBody(body, StandardCharsets.UTF_8));
+    }
+}